@@ -0,0 +1,197 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package ua_parser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Parses on an executor rather than on the calling thread, for callers that must not block, see
+ * {@link #parseAsync} and {@link #newProcessor}.
+ *
+ * Requests are queued and parsed in batches by {@link Parser#parseBatch(List)}, by at most a
+ * given number of tasks at once. Concurrent requests of the same user agent share one parse, and
+ * requests the parser's cache answers complete at once.
+ *
+ * @author Adrian Muraru (@adimuraru)
+ */
+public final class AsyncParser {
+  static final int DEFAULT_BATCH_SIZE = 256;
+
+  private final Parser parser;
+  private final Executor executor;
+  private final int batchSize, parallelism;
+  private final Queue<String> pending = new ConcurrentLinkedQueue<>();
+  /** futures of the queued or parsing user agents */
+  private final Map<String, CompletableFuture<Client>> inFlight = new ConcurrentHashMap<>();
+  private final AtomicInteger drainers = new AtomicInteger();
+
+  /**
+   * Parses on virtual threads when the JDK has them, else on the common fork join pool
+   */
+  public AsyncParser(Parser parser) {
+    this(parser, DefaultExecutor.EXECUTOR);
+  }
+
+  public AsyncParser(Parser parser, Executor executor) {
+    this(parser, executor, DEFAULT_BATCH_SIZE, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param batchSize the most user agents a task parses at once
+   * @param parallelism the most tasks parsing at once
+   */
+  public AsyncParser(Parser parser, Executor executor, int batchSize, int parallelism) {
+    if (batchSize < 1 || parallelism < 1) {
+      throw new IllegalArgumentException(
+          "batch size and parallelism must be positive: " + batchSize + ", " + parallelism);
+    }
+    this.parser = parser;
+    this.executor = executor;
+    this.batchSize = batchSize;
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * @return the client, as {@link Parser#parse(String)} returns it; each call gets its own future,
+   *         so that cancelling it leaves other requests of the same user agent alone
+   * @throws NullPointerException if agentString is null, as {@link Parser#parse(String)} does
+   */
+  public CompletableFuture<Client> parseAsync(String agentString) {
+    if (agentString == null) {
+      throw new NullPointerException("agentString");
+    }
+    Client cached = cached(agentString);
+    if (cached != null) {
+      return CompletableFuture.completedFuture(cached);
+    }
+    CompletableFuture<Client> created = new CompletableFuture<>();
+    CompletableFuture<Client> future = inFlight.putIfAbsent(agentString, created);
+    if (future == null) {
+      future = created;
+      pending.add(agentString);
+      schedule();
+    }
+    return future.copy();
+  }
+
+  /**
+   * @return the cached result of a full parse, null if none; keys starting with \0 are left to the
+   *         parser, which caches the results of selective parses under such keys
+   */
+  private Client cached(String agentString) {
+    ParseCache cache = parser.getUaCache();
+    if (cache == null || (agentString.length() > 0 && agentString.charAt(0) == '\0')) {
+      return null;
+    }
+    Client client = cache.get(agentString);
+    return client != null && client.userAgent != null && client.os != null
+        && client.device != null ? client : null;
+  }
+
+  /**
+   * @return a processor parsing the user agents of one publisher for one subscriber, in order
+   */
+  public ParseProcessor newProcessor() {
+    return new ParseProcessor(parser, executor, batchSize);
+  }
+
+  private void schedule() {
+    int running;
+    while ((running = drainers.get()) < parallelism) {
+      if (drainers.compareAndSet(running, running + 1)) {
+        try {
+          executor.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+          drainers.decrementAndGet();
+          failPending(e);
+        }
+        return;
+      }
+    }
+  }
+
+  private void drain() {
+    List<String> batch = new ArrayList<>(batchSize);
+    try {
+      while (true) {
+        String agentString;
+        while (batch.size() < batchSize && (agentString = pending.poll()) != null) {
+          batch.add(agentString);
+        }
+        if (batch.isEmpty()) {
+          break;
+        }
+        complete(batch);
+        batch.clear();
+      }
+    } finally {
+      drainers.decrementAndGet();
+    }
+    // queued after the last poll, by a caller that saw every drainer busy
+    if (!pending.isEmpty()) {
+      schedule();
+    }
+  }
+
+  private void complete(List<String> batch) {
+    List<Client> clients;
+    try {
+      clients = parser.parseBatch(batch);
+    } catch (RuntimeException | Error e) {
+      for (String agentString : batch) {
+        inFlight.remove(agentString).completeExceptionally(e);
+      }
+      return;
+    }
+    for (int i = 0; i < batch.size(); i++) {
+      inFlight.remove(batch.get(i)).complete(clients.get(i));
+    }
+  }
+
+  private void failPending(Throwable e) {
+    String agentString;
+    while ((agentString = pending.poll()) != null) {
+      inFlight.remove(agentString).completeExceptionally(e);
+    }
+  }
+
+  /**
+   * A virtual thread per task where the JDK has them (21 and later), looked up reflectively so
+   * that the module still runs on older JDKs
+   */
+  static final class DefaultExecutor {
+    static final Executor EXECUTOR = create();
+
+    private static Executor create() {
+      try {
+        return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      } catch (ReflectiveOperationException e) {
+        return ForkJoinPool.commonPool();
+      }
+    }
+  }
+}
@@ -0,0 +1,240 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package ua_parser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Parses the user agents of a publisher in batches on an executor and publishes the clients, in
+ * the order of the user agents, to a single subscriber. User agents are only requested upstream
+ * as the subscriber requests clients, at most a batch ahead, so a slow subscriber slows the
+ * publisher down rather than filling a buffer. See {@link AsyncParser#newProcessor()}.
+ *
+ * @author Adrian Muraru (@adimuraru)
+ */
+public final class ParseProcessor implements Flow.Processor<String, Client> {
+  private final Parser parser;
+  private final Executor executor;
+  private final int batchSize;
+
+  private final Queue<String> received = new ConcurrentLinkedQueue<>();
+  /** clients requested by the subscriber and not yet published */
+  private final AtomicLong demand = new AtomicLong();
+  /** signals not yet seen by the drain loop, which runs while this is positive */
+  private final AtomicInteger work = new AtomicInteger();
+  private volatile Flow.Subscription upstream;
+  private boolean subscribed;
+  /** set once the subscriber's onSubscribe returned, so that no signal goes ahead of it */
+  private volatile Flow.Subscriber<? super Client> downstream;
+  private volatile boolean done, cancelled;
+  private volatile Throwable error;
+  /** a broken request of the subscriber, to be its last signal */
+  private volatile Throwable requestError;
+  /** user agents requested upstream and not yet published, only touched by the drain loop */
+  private long outstanding;
+
+  ParseProcessor(Parser parser, Executor executor, int batchSize) {
+    this.parser = parser;
+    this.executor = executor;
+    this.batchSize = batchSize;
+  }
+
+  @Override
+  public void subscribe(Flow.Subscriber<? super Client> subscriber) {
+    if (subscriber == null) {
+      throw new NullPointerException("subscriber");
+    }
+    synchronized (this) {
+      if (subscribed) {
+        subscriber.onSubscribe(new Flow.Subscription() {
+          @Override
+          public void request(long n) {
+          }
+
+          @Override
+          public void cancel() {
+          }
+        });
+        subscriber.onError(new IllegalStateException("a parse processor has a single subscriber"));
+        return;
+      }
+      subscribed = true;
+    }
+    subscriber.onSubscribe(new Flow.Subscription() {
+      @Override
+      public void request(long n) {
+        if (n <= 0) {
+          if (!cancelled) {
+            requestError = new IllegalArgumentException("non-positive request: " + n);
+            cancelled = true;
+          }
+        } else {
+          long current, next;
+          do {
+            current = demand.get();
+            next = current + n < 0 ? Long.MAX_VALUE : current + n;
+          } while (!demand.compareAndSet(current, next));
+        }
+        signal();
+      }
+
+      @Override
+      public void cancel() {
+        cancelled = true;
+        signal();
+      }
+    });
+    downstream = subscriber;
+    signal();
+  }
+
+  @Override
+  public void onSubscribe(Flow.Subscription subscription) {
+    if (upstream != null) {
+      subscription.cancel();
+      return;
+    }
+    upstream = subscription;
+    signal();
+  }
+
+  @Override
+  public void onNext(String agentString) {
+    received.add(agentString);
+    signal();
+  }
+
+  @Override
+  public void onError(Throwable throwable) {
+    error = throwable;
+    done = true;
+    signal();
+  }
+
+  @Override
+  public void onComplete() {
+    done = true;
+    signal();
+  }
+
+  private void signal() {
+    if (work.getAndIncrement() == 0) {
+      try {
+        executor.execute(this::drain);
+      } catch (RejectedExecutionException e) {
+        work.set(0);
+        Flow.Subscription upstream = this.upstream;
+        if (upstream != null) {
+          upstream.cancel();
+        }
+        Flow.Subscriber<? super Client> downstream = this.downstream;
+        if (downstream != null && !cancelled) {
+          cancelled = true;
+          downstream.onError(e);
+        }
+      }
+    }
+  }
+
+  private void drain() {
+    List<String> batch = new ArrayList<>(batchSize);
+    int missed = 1;
+    do {
+      Flow.Subscriber<? super Client> downstream = this.downstream;
+      Flow.Subscription upstream = this.upstream;
+      if (cancelled) {
+        received.clear();
+        if (upstream != null) {
+          upstream.cancel();
+        }
+        Throwable requestError = this.requestError;
+        if (downstream != null && requestError != null) {
+          this.requestError = null;
+          downstream.onError(requestError);
+        }
+      } else if (downstream != null) {
+        if (!publish(downstream, upstream, batch)) {
+          return;
+        }
+      }
+      missed = work.addAndGet(-missed);
+    } while (missed != 0);
+  }
+
+  /**
+   * @return false once a terminal signal went downstream
+   */
+  private boolean publish(Flow.Subscriber<? super Client> downstream,
+      Flow.Subscription upstream, List<String> batch) {
+    while (true) {
+      long wanted = demand.get();
+      String agentString;
+      while (batch.size() < Math.min(wanted, batchSize) && (agentString = received.poll()) != null) {
+        batch.add(agentString);
+      }
+      if (batch.isEmpty()) {
+        break;
+      }
+      List<Client> clients;
+      try {
+        clients = parser.parseBatch(batch);
+      } catch (RuntimeException e) {
+        cancelled = true;
+        if (upstream != null) {
+          upstream.cancel();
+        }
+        downstream.onError(e);
+        return false;
+      }
+      for (Client client : clients) {
+        if (cancelled) {
+          return true;
+        }
+        downstream.onNext(client);
+      }
+      if (demand.get() != Long.MAX_VALUE) {
+        demand.addAndGet(-clients.size());
+      }
+      outstanding -= clients.size();
+      batch.clear();
+    }
+    if (done && received.isEmpty()) {
+      cancelled = true;
+      Throwable error = this.error;
+      if (error == null) {
+        downstream.onComplete();
+      } else {
+        downstream.onError(error);
+      }
+      return false;
+    }
+    // ask for what the subscriber wants, a batch ahead at most
+    long request = Math.min(demand.get(), batchSize) - outstanding;
+    if (upstream != null && request > 0 && !done) {
+      outstanding += request;
+      upstream.request(request);
+    }
+    return true;
+  }
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package ua_parser;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests asynchronous parses give the results of synchronous ones
+ */
+public class AsyncParserTest {
+
+  @Test
+  public void testParseAsyncMatchesParse() throws Exception {
+    Parser reference = new Parser();
+    AsyncParser parser = new AsyncParser(new Parser());
+    List<String> agents = agents();
+    List<CompletableFuture<Client>> futures = new ArrayList<>();
+    // every user agent twice, the second request sharing the parse or answered by the cache
+    for (String agent : agents) {
+      futures.add(parser.parseAsync(agent));
+    }
+    for (String agent : agents) {
+      futures.add(parser.parseAsync(agent));
+    }
+    for (int i = 0; i < futures.size(); i++) {
+      String agent = agents.get(i % agents.size());
+      assertThat(agent, futures.get(i).get(10, TimeUnit.SECONDS), is(reference.parse(agent)));
+    }
+  }
+
+  @Test
+  public void testCancelLeavesSharedParseAlone() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      // a parse queued behind a blocked executor
+      final CompletableFuture<Void> gate = new CompletableFuture<>();
+      executor.execute(gate::join);
+      AsyncParser parser = new AsyncParser(new Parser(), executor, 16, 1);
+      String agent = "Mozilla/5.0 (Windows NT 6.1; rv:15.0) Gecko/20100101 Firefox/15.0";
+      CompletableFuture<Client> cancelled = parser.parseAsync(agent);
+      CompletableFuture<Client> kept = parser.parseAsync(agent);
+      assertThat(cancelled.cancel(false), is(true));
+      gate.complete(null);
+      assertThat(kept.get(10, TimeUnit.SECONDS).userAgent.family, is("Firefox"));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testCachedResultCompletesAtOnce() {
+    Parser parser = new Parser();
+    String agent = "Mozilla/5.0 (Windows NT 6.1; rv:15.0) Gecko/20100101 Firefox/15.0";
+    Client client = parser.parse(agent);
+    // an executor that never runs anything
+    AsyncParser async = new AsyncParser(parser, command -> { }, 16, 1);
+    assertThat(async.parseAsync(agent).getNow(null), is(client));
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testRejectsNull() {
+    new AsyncParser(new Parser()).parseAsync(null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectsEmptyBatches() {
+    new AsyncParser(new Parser(), Runnable::run, 0, 1);
+  }
+
+  static List<String> agents() throws IOException {
+    InputStream in = AsyncParserTest.class.getResourceAsStream("/ua_parser/test.uas");
+    List<String> agents = new ArrayList<>();
+    try {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] split = line.split("\t");
+        if (split.length >= 2) {
+          agents.add(split[1].trim());
+        }
+      }
+    } finally {
+      in.close();
+    }
+    return agents;
+  }
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package ua_parser;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests a processor publishes every client in order and never more than requested
+ */
+public class ParseProcessorTest {
+
+  @Test
+  public void testPublishesInOrderWithinDemand() throws Exception {
+    List<String> agents = AsyncParserTest.agents();
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      ParseProcessor processor = new AsyncParser(new Parser(), executor).newProcessor();
+      SubmissionPublisher<String> publisher = new SubmissionPublisher<>(executor, 64);
+      publisher.subscribe(processor);
+      Recorder recorder = new Recorder(7);
+      processor.subscribe(recorder);
+      for (String agent : agents) {
+        publisher.submit(agent);
+      }
+      publisher.close();
+
+      assertThat(recorder.done.await(30, TimeUnit.SECONDS), is(true));
+      assertThat(recorder.error.get(), is(nullValue()));
+      assertThat(recorder.overRequested, is(false));
+      Parser reference = new Parser();
+      assertThat(recorder.clients.size(), is(agents.size()));
+      for (int i = 0; i < agents.size(); i++) {
+        assertThat(agents.get(i), recorder.clients.get(i), is(reference.parse(agents.get(i))));
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testSecondSubscriberIsRefused() throws Exception {
+    ParseProcessor processor = new AsyncParser(new Parser()).newProcessor();
+    processor.subscribe(new Recorder(1));
+    Recorder second = new Recorder(1);
+    processor.subscribe(second);
+    assertThat(second.done.await(10, TimeUnit.SECONDS), is(true));
+    assertThat(second.error.get(), is(instanceOf(IllegalStateException.class)));
+  }
+
+  @Test
+  public void testBrokenRequestFails() throws Exception {
+    ParseProcessor processor = new AsyncParser(new Parser()).newProcessor();
+    Recorder recorder = new Recorder(0);
+    processor.subscribe(recorder);
+    assertThat(recorder.done.await(10, TimeUnit.SECONDS), is(true));
+    assertThat(recorder.error.get(), is(instanceOf(IllegalArgumentException.class)));
+  }
+
+  /**
+   * Requests a few clients at a time, and more once they arrived
+   */
+  static final class Recorder implements Flow.Subscriber<Client> {
+    final int step;
+    final List<Client> clients = Collections.synchronizedList(new ArrayList<Client>());
+    final AtomicReference<Throwable> error = new AtomicReference<>();
+    final CountDownLatch done = new CountDownLatch(1);
+    volatile boolean overRequested;
+    private Flow.Subscription subscription;
+    private long requested;
+
+    Recorder(int step) {
+      this.step = step;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      this.subscription = subscription;
+      requested = step;
+      subscription.request(step);
+    }
+
+    @Override
+    public void onNext(Client client) {
+      clients.add(client);
+      if (clients.size() > requested) {
+        overRequested = true;
+      }
+      if (clients.size() == requested) {
+        requested += step;
+        subscription.request(step);
+      }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      error.set(throwable);
+      done.countDown();
+    }
+
+    @Override
+    public void onComplete() {
+      done.countDown();
+    }
+  }
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package bench;
+
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * User agent corpora bundled with the benchmarks: the weighted <code>test.uas</code> sample and the
+ * <code>test_resources/*.yaml</code> test cases.
+ */
+final class Corpus {
+  static final String TEST_UAS = "test.uas";
+
+  /**
+   * UA length buckets, roughly the 10th/50th/90th percentiles of <code>test.uas</code>
+   */
+  enum Length {
+    ALL(0, Integer.MAX_VALUE),
+    SHORT(0, 100),
+    MEDIUM(100, 200),
+    LONG(200, Integer.MAX_VALUE);
+
+    final int min, max;
+
+    Length(int min, int max) {
+      this.min = min;
+      this.max = max;
+    }
+
+    boolean accepts(String agentString) {
+      return agentString.length() >= min && agentString.length() < max;
+    }
+  }
+
+  private Corpus() {
+  }
+
+  static String[] load(String name, Length length) throws IOException {
+    InputStream in = Corpus.class.getResourceAsStream("/corpus/" + name);
+    if (in == null) {
+      throw new IllegalArgumentException("Unknown corpus " + name);
+    }
+    List<String> agents;
+    try {
+      agents = TEST_UAS.equals(name) ? readUas(in) : readYaml(in);
+    } finally {
+      in.close();
+    }
+
+    List<String> selected = new ArrayList<String>(agents.size());
+    for (String agent : agents) {
+      if (length.accepts(agent)) {
+        selected.add(agent);
+      }
+    }
+    if (selected.isEmpty()) {
+      throw new IllegalArgumentException("No " + length + " user agents in " + name);
+    }
+    return selected.toArray(new String[selected.size()]);
+  }
+
+  /**
+   * test.uas lines are <code>count \t ua \t not-bot-count \t bot-count</code>
+   */
+  private static List<String> readUas(InputStream in) throws IOException {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+    List<String> agents = new ArrayList<String>();
+    String line;
+    while ((line = reader.readLine()) != null) {
+      String[] split = line.split("\t");
+      if (split.length < 2 || split[1].trim().length() == 0) {
+        continue;
+      }
+      agents.add(split[1].trim());
+    }
+    return agents;
+  }
+
+  private static List<String> readYaml(InputStream in) {
+    Map<String, List<Map<String, Object>>> yaml =
+        (Map<String, List<Map<String, Object>>>) new Yaml(new SafeConstructor()).load(in);
+    List<String> agents = new ArrayList<String>();
+    for (Map<String, Object> testCase : yaml.get("test_cases")) {
+      Object agent = testCase.get("user_agent_string");
+      if (agent != null) {
+        agents.add(agent.toString());
+      }
+    }
+    return agents;
+  }
+}
@@ -0,0 +1,56 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package bench;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Entry point of benchmarks.jar. Accepts the regular JMH command line; when no benchmark mode is
+ * given it reports both throughput (ops/s) and average time (ns/op), and when no profiler is given
+ * it adds the GC profiler so allocation rate (gc.alloc.rate.norm, B/op) is always in the report.
+ */
+public class Main {
+
+  public static void main(String[] args) throws Exception {
+    CommandLineOptions cmd = new CommandLineOptions(args);
+    if (cmd.shouldHelp() || cmd.shouldList() || cmd.shouldListWithParams()
+        || cmd.shouldListProfilers() || cmd.shouldListResultFormats()
+        || !cmd.getBenchModes().isEmpty()) {
+      org.openjdk.jmh.Main.main(args);
+      return;
+    }
+
+    run(cmd, Mode.Throughput, TimeUnit.SECONDS);
+    run(cmd, Mode.AverageTime, TimeUnit.NANOSECONDS);
+  }
+
+  private static void run(CommandLineOptions cmd, Mode mode, TimeUnit unit) throws Exception {
+    ChainedOptionsBuilder options = new OptionsBuilder().parent(cmd).mode(mode).timeUnit(unit);
+    if (cmd.getProfilers().isEmpty()) {
+      options.addProfiler(GCProfiler.class);
+    }
+    if (cmd.getIncludes().isEmpty()) {
+      options.include(ParserBenchmark.class.getSimpleName());
+    }
+    new Runner(options.build()).run();
+  }
+}
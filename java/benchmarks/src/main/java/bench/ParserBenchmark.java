@@ -0,0 +1,140 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ua_parser.Client;
+import ua_parser.Device;
+import ua_parser.OS;
+import ua_parser.Parser;
+import ua_parser.UserAgent;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Per-UA cost of {@link Parser#parse}, {@link Parser#parseUserAgent}, {@link Parser#parseOS} and
+ * {@link Parser#parseDevice}. Every invocation parses the next UA of the selected corpus, cycling
+ * through it, so with the cache enabled the steady state is a warm cache.
+ *
+ * Only {@link Parser#parse} goes through the cache; the component methods always run the rules.
+ */
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ParserBenchmark {
+
+  @State(Scope.Benchmark)
+  public static class ParserState {
+    @Param({"FULL", "MINIMAL"})
+    public String rules;
+
+    @Param({"true", "false"})
+    public boolean cache;
+
+    @Param({"test.uas", "test_user_agent_parser.yaml", "test_user_agent_parser_os.yaml",
+        "test_device.yaml", "additional_os_tests.yaml", "firefox_user_agent_strings.yaml",
+        "pgts_browser_list.yaml"})
+    public String corpus;
+
+    /**
+     * Number of rules kept per parser list, or "all"
+     */
+    @Param({RuleSets.ALL})
+    public String ruleLimit;
+
+    /**
+     * ALL, SHORT (&lt; 100 chars), MEDIUM (100-199) or LONG (200+)
+     */
+    @Param({"ALL"})
+    public String uaLength;
+
+    /**
+     * Also match user agent and device rules with a regex set (OS rules always are)
+     */
+    @Param({"false", "true"})
+    public boolean regexSet;
+
+    Parser parser;
+    String[] agents;
+
+    @Setup
+    public void setup() throws IOException {
+      InputStream regexYaml = RuleSets.open(rules, ruleLimit);
+      try {
+        parser = new Parser(regexYaml, !cache);
+        parser.setRegexSetEnabled(regexSet);
+      } finally {
+        regexYaml.close();
+      }
+      agents = Corpus.load(corpus, Corpus.Length.valueOf(uaLength));
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class Cursor {
+    private String[] agents;
+    private int next;
+
+    @Setup
+    public void setup(ParserState state) {
+      agents = state.agents;
+    }
+
+    String nextAgent() {
+      String agent = agents[next];
+      if (++next == agents.length) {
+        next = 0;
+      }
+      return agent;
+    }
+  }
+
+  @Benchmark
+  public Client parse(ParserState state, Cursor cursor) {
+    return state.parser.parse(cursor.nextAgent());
+  }
+
+  @Benchmark
+  public UserAgent parseUserAgent(ParserState state, Cursor cursor) {
+    return state.parser.parseUserAgent(cursor.nextAgent());
+  }
+
+  @Benchmark
+  public OS parseOS(ParserState state, Cursor cursor) {
+    return state.parser.parseOS(cursor.nextAgent());
+  }
+
+  @Benchmark
+  public Device parseDevice(ParserState state, Cursor cursor) {
+    return state.parser.parseDevice(cursor.nextAgent());
+  }
+
+  /**
+   * The whole corpus in one call, compare with parse times the corpus size
+   */
+  @Benchmark
+  public Client[] parseBatch(ParserState state) {
+    return state.parser.parseBatch(state.agents);
+  }
+}
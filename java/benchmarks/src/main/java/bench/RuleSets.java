@@ -0,0 +1,73 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package bench;
+
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
+
+import ua_parser.Parser;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Loads the bundled rule sets, optionally truncated to their first <code>limit</code> rules per
+ * parser so that cost can be plotted against rule-set size.
+ */
+final class RuleSets {
+  static final String ALL = "all";
+
+  private static final String[] PARSER_LISTS = {
+      "user_agent_parsers", "os_parsers", "device_parsers"
+  };
+
+  private RuleSets() {
+  }
+
+  static String path(String rules) {
+    if ("FULL".equals(rules)) {
+      return Parser.REGEX_YAML_PATH_FULL;
+    }
+    if ("MINIMAL".equals(rules)) {
+      return Parser.REGEX_YAML_PATH_MINIMAL;
+    }
+    throw new IllegalArgumentException("Unknown rule set " + rules);
+  }
+
+  static InputStream open(String rules, String limit) throws IOException {
+    InputStream in = Parser.class.getResourceAsStream(path(rules));
+    if (ALL.equals(limit)) {
+      return in;
+    }
+
+    int max = Integer.parseInt(limit);
+    Map<String, Object> config;
+    try {
+      config = (Map<String, Object>) new Yaml(new SafeConstructor()).load(in);
+    } finally {
+      in.close();
+    }
+    for (String key : PARSER_LISTS) {
+      List<?> list = (List<?>) config.get(key);
+      if (list != null && list.size() > max) {
+        config.put(key, list.subList(0, max));
+      }
+    }
+    return new ByteArrayInputStream(new Yaml().dump(config).getBytes("UTF-8"));
+  }
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ua_parser.Client;
+import ua_parser.Parser;
+import ua_parser.RuleSnapshot;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cold cost of setting a {@link Parser} up from the yaml rules or from their precompiled
+ * {@link RuleSnapshot}, and of its first parse. Each fork measures a single, first invocation.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(10)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+public class StartupBenchmark {
+  private static final String AGENT = "Mozilla/5.0 (Windows NT 6.1; WOW64) AppleWebKit/537.36 "
+      + "(KHTML, like Gecko) Chrome/30.0.1599.101 Safari/537.36";
+
+  @State(Scope.Benchmark)
+  public static class StartupState {
+    @Param({"FULL", "MINIMAL"})
+    public String rules;
+  }
+
+  @Benchmark
+  public Client yaml(StartupState state) throws IOException {
+    return new Parser(RuleSets.open(state.rules, RuleSets.ALL), true).parse(AGENT);
+  }
+
+  @Benchmark
+  public Client snapshot(StartupState state) throws IOException {
+    String path = "FULL".equals(state.rules) ? Parser.SNAPSHOT_PATH_FULL
+        : Parser.SNAPSHOT_PATH_MINIMAL;
+    return new Parser(RuleSnapshot.read(Parser.class.getResourceAsStream(path)), null)
+        .parse(AGENT);
+  }
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ua_parser;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.MatchResult;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.yaml.snakeyaml.Yaml;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the generated parsers match like the parsers interpreting the same regexes.yaml, over the
+ * user agents of the test_resources yamls
+ */
+public class GeneratedParserTest {
+  static final String TEST_RESOURCE_PATH = "/ua_parser/";
+  static final String[] YAMLS = {
+      "test_user_agent_parser.yaml", "test_user_agent_parser_os.yaml", "test_device.yaml",
+      "additional_os_tests.yaml", "firefox_user_agent_strings.yaml", "pgts_browser_list.yaml"
+  };
+  static final String[] EDGE_CASES = {
+      "", " ", "\n", "Android 4.1\n", "Android 4.1\r\n", "Android 4.1\n\n", "Android 4.1\u0085",
+      "Opera/9.80 ", "Mozilla/5.0 (😀; iPhone) Safari/1",
+      "Mozilla/5.0 (Linux; Android 4.1; 😀 Build/JRO03D)", "Googlebot\uD83D/2.1",
+      "\uDE00Firefox/3.5\uD83D", "İPHONE Version/5.1 MSIE 8.0"
+  };
+
+  static List<String> agents;
+  static RuleSnapshot rules;
+
+  @BeforeClass
+  public static void loadAgents() throws Exception {
+    Set<String> all = new LinkedHashSet<String>();
+    for (String edgeCase : EDGE_CASES) {
+      all.add(edgeCase);
+    }
+    for (String yaml : YAMLS) {
+      InputStream in = GeneratedParserTest.class.getResourceAsStream(TEST_RESOURCE_PATH + yaml);
+      try {
+        for (Map testCase : (List<Map>) ((Map) new Yaml().load(in)).get("test_cases")) {
+          all.add(testCase.get("user_agent_string").toString());
+        }
+      } finally {
+        in.close();
+      }
+    }
+    agents = new ArrayList<String>(all);
+    InputStream in = Parser.class.getResourceAsStream(Parser.REGEX_YAML_PATH_FULL);
+    try {
+      rules = RuleSnapshot.fromYaml(in);
+    } finally {
+      in.close();
+    }
+  }
+
+  @Test
+  public void testUserAgentRules() {
+    UserAgentParser generated = new GeneratedUserAgentParser();
+    UserAgentParser interpreted = UserAgentParser.fromList(rules.uaParserConfigs);
+    for (int rule = 0; rule < rules.uaParserConfigs.size(); rule++) {
+      if (rules.uaParserConfigs.get(rule).get("regex") == null) {
+        continue;
+      }
+      for (String agent : agents) {
+        assertSameMatch(rule, agent, generated.find(rule, agent), interpreted.find(rule, agent));
+      }
+    }
+  }
+
+  @Test
+  public void testOSRules() {
+    OSParser generated = new GeneratedOSParser();
+    OSParser interpreted = OSParser.fromList(rules.osParserConfigs);
+    for (int rule = 0; rule < rules.osParserConfigs.size(); rule++) {
+      for (String agent : agents) {
+        assertSameMatch(rule, agent, generated.find(rule, agent), interpreted.find(rule, agent));
+      }
+    }
+  }
+
+  @Test
+  public void testDeviceRules() {
+    DeviceParser generated = new GeneratedDeviceParser(null);
+    DeviceParser interpreted = DeviceParser.fromList(rules.deviceParserConfigs, null, null, null);
+    for (int rule = 0; rule < rules.deviceParserConfigs.size(); rule++) {
+      for (String agent : agents) {
+        assertSameMatch(rule, agent, generated.find(rule, agent), interpreted.find(rule, agent));
+      }
+    }
+  }
+
+  @Test
+  public void testParse() {
+    Parser interpreted = new Parser(rules, null);
+    UserAgentParser uaParser = new GeneratedUserAgentParser();
+    Parser generated = new Parser(uaParser, new GeneratedOSParser(),
+        new GeneratedDeviceParser(uaParser), null);
+    for (String agent : agents) {
+      assertThat(agent, generated.parse(agent), is(interpreted.parse(agent)));
+    }
+  }
+
+  @Test
+  public void testBacktracking() {
+    OSParser generated = new GeneratedOSParser();
+    OSParser interpreted = OSParser.fromList(rules.osParserConfigs);
+    // every prefix of a few user agents, to end matches anywhere within them
+    for (String agent : agents.subList(EDGE_CASES.length, EDGE_CASES.length + 100)) {
+      for (int end = 0; end <= agent.length(); end++) {
+        String prefix = agent.substring(0, end);
+        for (int rule = 0; rule < rules.osParserConfigs.size(); rule++) {
+          assertSameMatch(rule, prefix, generated.find(rule, prefix),
+              interpreted.find(rule, prefix));
+        }
+      }
+    }
+  }
+
+  private static void assertSameMatch(int rule, String agent, MatchResult actual,
+      MatchResult expected) {
+    String message = "rule " + rule + " on " + agent;
+    if (expected == null) {
+      assertThat(message, actual, is(nullValue()));
+      return;
+    }
+    assertThat(message, actual, is(notNullValue()));
+    assertThat(message, actual.groupCount(), is(expected.groupCount()));
+    for (int group = 0; group <= expected.groupCount(); group++) {
+      assertThat(message, actual.start(group), is(expected.start(group)));
+      assertThat(message, actual.end(group), is(expected.end(group)));
+      assertThat(message, actual.group(group), is(expected.group(group)));
+    }
+  }
+}
@@ -0,0 +1,380 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package ua_parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Parses the user agents of an Apache/nginx combined format access log with a {@link Parser}.
+ *
+ * The file is memory mapped and cut at line boundaries into ranges that worker threads go through
+ * in parallel. The user agent is taken as the last double quoted field of a line, with the \" \\
+ * and \xhh escapes of Apache and nginx undone. Its bytes are parsed in place with
+ * {@link Parser#parse(byte[], int, int)}, and repeats a worker saw recently are looked up by bytes.
+ *
+ * Usage: <code>java ua_parser.AccessLogParser access.log [threads]</code> prints how many lines
+ * each distinct client has, most frequent first.
+ *
+ * @author Adrian Muraru (@adimuraru)
+ */
+public class AccessLogParser {
+  /** ranges per thread, so that threads done early can take over */
+  private static final int RANGES_PER_THREAD = 4;
+  /** upper bound of a range, a mapped buffer is limited to 2GB */
+  private static final long MAX_RANGE_SIZE = 1L << 30;
+  /** user agents each worker remembers by their bytes */
+  private static final int RECENT_AGENTS = 4096;
+
+  /**
+   * Receives the client of every line with a user agent. Called concurrently by the workers, lines
+   * come in no particular order. Lines with fewer than two unescaped quotes have no user agent and
+   * are skipped.
+   */
+  public interface Handler {
+    /**
+     * @param lineOffset position of the line in the file
+     */
+    void handle(long lineOffset, Client client);
+  }
+
+  private final Parser parser;
+  private final int threads;
+
+  public AccessLogParser(Parser parser) {
+    this(parser, Runtime.getRuntime().availableProcessors());
+  }
+
+  public AccessLogParser(Parser parser, int threads) {
+    if (threads <= 0) {
+      throw new IllegalArgumentException("threads must be positive: " + threads);
+    }
+    this.parser = parser;
+    this.threads = threads;
+  }
+
+  /**
+   * Hands the client of every line of the log that has a user agent to handler, see
+   * {@link Handler}
+   */
+  public void parse(File log, final Handler handler) throws IOException {
+    run(log, new WorkerFactory<Void>() {
+      @Override
+      Worker<Void> create(MappedByteBuffer range, long rangeOffset) {
+        return new Worker<Void>(range, rangeOffset) {
+          @Override
+          void line(long lineOffset, Client client) {
+            handler.handle(lineOffset, client);
+          }
+
+          @Override
+          Void result() {
+            return null;
+          }
+        };
+      }
+    });
+  }
+
+  /**
+   * @return number of lines per distinct client, lines without a user agent left out
+   */
+  public Map<Client, Long> count(File log) throws IOException {
+    List<Map<Client, long[]>> partials = run(log, new WorkerFactory<Map<Client, long[]>>() {
+      @Override
+      Worker<Map<Client, long[]>> create(MappedByteBuffer range, long rangeOffset) {
+        return new Worker<Map<Client, long[]>>(range, rangeOffset) {
+          // clients are interned by the parser, so the same instance comes back over and over
+          private final Map<Client, long[]> counts = new HashMap<Client, long[]>();
+
+          @Override
+          void line(long lineOffset, Client client) {
+            long[] count = counts.get(client);
+            if (count == null) {
+              counts.put(client, new long[] {1});
+            } else {
+              count[0]++;
+            }
+          }
+
+          @Override
+          Map<Client, long[]> result() {
+            return counts;
+          }
+        };
+      }
+    });
+    Map<Client, Long> counts = new HashMap<Client, Long>();
+    for (Map<Client, long[]> partial : partials) {
+      for (Map.Entry<Client, long[]> entry : partial.entrySet()) {
+        Long count = counts.get(entry.getKey());
+        counts.put(entry.getKey(), entry.getValue()[0] + (count == null ? 0 : count));
+      }
+    }
+    return counts;
+  }
+
+  private <R> List<R> run(File log, final WorkerFactory<R> factory) throws IOException {
+    RandomAccessFile file = new RandomAccessFile(log, "r");
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      final FileChannel channel = file.getChannel();
+      List<Future<R>> futures = new ArrayList<Future<R>>();
+      long[] bounds = split(channel);
+      for (int i = 0; i + 1 < bounds.length; i++) {
+        final long from = bounds[i], to = bounds[i + 1];
+        futures.add(executor.submit(new Callable<R>() {
+          @Override
+          public R call() throws IOException {
+            Worker<R> worker =
+                factory.create(channel.map(FileChannel.MapMode.READ_ONLY, from, to - from), from);
+            worker.run();
+            return worker.result();
+          }
+        }));
+      }
+      List<R> results = new ArrayList<R>(futures.size());
+      for (Future<R> future : futures) {
+        results.add(future.get());
+      }
+      return results;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted while parsing " + log, e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IOException("failed to parse " + log, e.getCause());
+    } finally {
+      executor.shutdownNow();
+      file.close();
+    }
+  }
+
+  /**
+   * @return range boundaries, each but the last one at the start of a line
+   */
+  private long[] split(FileChannel channel) throws IOException {
+    long size = channel.size();
+    int ranges = (int) Math.max(threads * RANGES_PER_THREAD, size / MAX_RANGE_SIZE + 1);
+    List<Long> bounds = new ArrayList<Long>();
+    bounds.add(0L);
+    ByteBuffer buffer = ByteBuffer.allocate(8192);
+    for (int i = 1; i < ranges; i++) {
+      long position = Math.max(size / ranges * i, bounds.get(bounds.size() - 1));
+      // move past the end of the line
+      long lineStart = -1;
+      while (lineStart < 0 && position < size) {
+        buffer.clear();
+        int read = channel.read(buffer, position);
+        for (int b = 0; b < read; b++) {
+          if (buffer.get(b) == '\n') {
+            lineStart = position + b + 1;
+            break;
+          }
+        }
+        position += read;
+      }
+      if (lineStart < 0 || lineStart >= size) {
+        break;
+      }
+      if (lineStart > bounds.get(bounds.size() - 1)) {
+        bounds.add(lineStart);
+      }
+    }
+    bounds.add(size);
+    long[] result = new long[bounds.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = bounds.get(i);
+    }
+    return result;
+  }
+
+  private abstract static class WorkerFactory<R> {
+    abstract Worker<R> create(MappedByteBuffer range, long rangeOffset);
+  }
+
+  /**
+   * Goes through the lines of one range
+   */
+  private abstract class Worker<R> {
+    private final MappedByteBuffer range;
+    private final long rangeOffset;
+    private byte[] scratch = new byte[256];
+    // user agents seen lately, by the hash of their bytes
+    private final byte[][] recentBytes = new byte[RECENT_AGENTS][];
+    private final Client[] recentClients = new Client[RECENT_AGENTS];
+
+    Worker(MappedByteBuffer range, long rangeOffset) {
+      this.range = range;
+      this.rangeOffset = rangeOffset;
+    }
+
+    abstract void line(long lineOffset, Client client);
+
+    abstract R result();
+
+    void run() {
+      int limit = range.limit();
+      int lineStart = 0;
+      // the last two unescaped quotes of the line
+      int quote = -1, previousQuote = -1;
+      boolean escaped = false;
+      for (int i = 0; i < limit; i++) {
+        byte b = range.get(i);
+        if (b == '\n') {
+          // ends the line even after a backslash, as split cuts there too
+          userAgent(lineStart, previousQuote, quote);
+          lineStart = i + 1;
+          quote = previousQuote = -1;
+          escaped = false;
+        } else if (escaped) {
+          escaped = false;
+        } else if (b == '\\') {
+          escaped = true;
+        } else if (b == '"') {
+          previousQuote = quote;
+          quote = i;
+        }
+      }
+      if (lineStart < limit) {
+        userAgent(lineStart, previousQuote, quote);
+      }
+    }
+
+    /**
+     * Parses the user agent between the open and close quotes, if the line has both
+     */
+    private void userAgent(int lineStart, int open, int close) {
+      if (open < 0) {
+        return;
+      }
+      int length = close - open - 1;
+      if (scratch.length < length) {
+        scratch = new byte[Math.max(length, scratch.length * 2)];
+      }
+      length = unescape(open + 1, close);
+      int hash = 1;
+      for (int i = 0; i < length; i++) {
+        hash = 31 * hash + scratch[i];
+      }
+      int slot = (hash ^ (hash >>> 16)) & (RECENT_AGENTS - 1);
+      Client client = recentClients[slot];
+      if (client == null || !sameBytes(recentBytes[slot], length)) {
+        client = parser.parse(scratch, 0, length);
+        byte[] bytes = new byte[length];
+        System.arraycopy(scratch, 0, bytes, 0, length);
+        recentBytes[slot] = bytes;
+        recentClients[slot] = client;
+      }
+      line(rangeOffset + lineStart, client);
+    }
+
+    /**
+     * Copies the field bytes from..to into scratch, undoing escapes
+     *
+     * @return number of bytes copied
+     */
+    private int unescape(int from, int to) {
+      int length = 0;
+      for (int i = from; i < to; i++) {
+        byte b = range.get(i);
+        if (b == '\\' && i + 1 < to) {
+          byte next = range.get(++i);
+          int high = next == 'x' && i + 2 < to ? hex(range.get(i + 1)) : -1;
+          int low = high >= 0 ? hex(range.get(i + 2)) : -1;
+          if (low >= 0) {
+            b = (byte) (high << 4 | low);
+            i += 2;
+          } else if (next == '"' || next == '\\') {
+            b = next;
+          } else {
+            // not an escape we know of, kept as is
+            scratch[length++] = b;
+            b = next;
+          }
+        }
+        scratch[length++] = b;
+      }
+      return length;
+    }
+
+    private int hex(byte b) {
+      if (b >= '0' && b <= '9') {
+        return b - '0';
+      }
+      if (b >= 'a' && b <= 'f') {
+        return b - 'a' + 10;
+      }
+      if (b >= 'A' && b <= 'F') {
+        return b - 'A' + 10;
+      }
+      return -1;
+    }
+
+    private boolean sameBytes(byte[] bytes, int length) {
+      if (bytes.length != length) {
+        return false;
+      }
+      for (int i = 0; i < length; i++) {
+        if (bytes[i] != scratch[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1 || args.length > 2) {
+      System.err.println("usage: AccessLogParser <access log> [threads]");
+      System.exit(1);
+    }
+    Parser parser = new Parser();
+    AccessLogParser logParser = args.length > 1
+        ? new AccessLogParser(parser, Integer.parseInt(args[1])) : new AccessLogParser(parser);
+    final Map<Client, Long> counts = logParser.count(new File(args[0]));
+    List<Client> clients = new ArrayList<Client>(counts.keySet());
+    Collections.sort(clients, new Comparator<Client>() {
+      @Override
+      public int compare(Client a, Client b) {
+        return counts.get(b).compareTo(counts.get(a));
+      }
+    });
+    for (Client client : clients) {
+      System.out.println(counts.get(client) + "\t" + client);
+    }
+  }
+}
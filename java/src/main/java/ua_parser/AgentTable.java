@@ -0,0 +1,419 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package ua_parser;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable table of the parse results of the most frequent user agents, consulted by
+ * {@link Parser#setAgentTable} ahead of the cache and the rules. Its user agents are laid out in a
+ * perfect hash: one hash of the user agent picks a bucket, whose displacement picks the only slot
+ * the user agent can be in, so a lookup reads one slot and compares one user agent. The table is
+ * kept off the heap, mapped from a file or copied into a direct buffer, and only its few distinct
+ * results are objects.
+ *
+ * <code>AgentTable regexes.yaml corpus count table</code> builds a table of the count most frequent
+ * user agents of a corpus, see {@link #main}.
+ *
+ * @author Adrian Muraru (@adimuraru)
+ */
+public final class AgentTable {
+  private static final int MAGIC = 0x55415054; // "UAPT"
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 32;
+  /** user agents per bucket on average */
+  private static final int BUCKET_SIZE = 4;
+  /** displacements tried per bucket before starting over with another seed */
+  private static final int MAX_DISPLACEMENT = 1 << 16;
+
+  private final ByteBuffer table;
+  /** {@link RuleSnapshot#hash()} of the rules the results come from */
+  final long ruleHash;
+  private final int seed, bucketCount, slotCount;
+  // offsets in table
+  private final int buckets, slots, entries;
+  private final Client[] results;
+
+  private AgentTable(ByteBuffer table) throws IOException {
+    this.table = table;
+    try {
+      if (table.getInt(0) != MAGIC) {
+        throw new IOException("not an agent table");
+      }
+      int version = table.getInt(4);
+      if (version != VERSION) {
+        throw new IOException("unsupported agent table version " + version);
+      }
+      ruleHash = table.getLong(8);
+      seed = table.getInt(16);
+      bucketCount = table.getInt(20);
+      slotCount = table.getInt(24);
+      int entriesSize = table.getInt(28);
+      buckets = HEADER_SIZE;
+      slots = buckets + 4 * bucketCount;
+      entries = slots + 4 * slotCount;
+      ByteBuffer resultData = table.duplicate();
+      resultData.position(entries + entriesSize);
+      results = new Client[resultData.getInt()];
+      CacheSnapshot.Reader reader = new CacheSnapshot.Reader(resultData);
+      for (int i = 0; i < results.length; i++) {
+        results[i] = reader.client();
+      }
+    } catch (IndexOutOfBoundsException e) {
+      throw new IOException("truncated agent table");
+    } catch (BufferUnderflowException e) {
+      throw new IOException("truncated agent table");
+    } catch (IllegalArgumentException e) {
+      throw new IOException("truncated agent table");
+    }
+  }
+
+  /**
+   * Maps a table file, which must not change while in use
+   */
+  public static AgentTable map(File file) throws IOException {
+    RandomAccessFile in = new RandomAccessFile(file, "r");
+    try {
+      return new AgentTable(in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length()));
+    } finally {
+      // the mapping stays valid
+      in.close();
+    }
+  }
+
+  /**
+   * Reads a table into a direct buffer, e.g. a table bundled as a resource by a build with the
+   * agent-table profile:
+   * <code>AgentTable.read(Parser.class.getResourceAsStream(Parser.AGENT_TABLE_PATH_FULL))</code>
+   */
+  public static AgentTable read(InputStream in) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int read;
+    while ((read = in.read(buffer)) >= 0) {
+      bytes.write(buffer, 0, read);
+    }
+    ByteBuffer table = ByteBuffer.allocateDirect(bytes.size());
+    table.put(bytes.toByteArray()).flip();
+    return new AgentTable(table);
+  }
+
+  public int size() {
+    int size = 0;
+    for (int slot = 0; slot < slotCount; slot++) {
+      if (table.getInt(slots + 4 * slot) >= 0) {
+        size++;
+      }
+    }
+    return size;
+  }
+
+  /**
+   * @return the parse result of the user agent, null if not in the table
+   */
+  public Client get(CharSequence agentString) {
+    long hash = hash(agentString, seed);
+    int displacement = table.getInt(buckets + 4 * bucket(hash, bucketCount));
+    int entry = table.getInt(slots + 4 * slot(hash, displacement, slotCount));
+    if (entry < 0) {
+      return null;
+    }
+    int at = entries + entry;
+    int length = agentString.length();
+    if (table.getInt(at + 4) != length) {
+      return null;
+    }
+    // chars as modified UTF-8, see DataOutput#writeUTF
+    int position = at + 8;
+    for (int i = 0; i < length; i++) {
+      int b = table.get(position++) & 0xff;
+      char c;
+      if (b < 0x80) {
+        c = (char) b;
+      } else if (b < 0xe0) {
+        c = (char) (((b & 0x1f) << 6) | (table.get(position++) & 0x3f));
+      } else {
+        c = (char) (((b & 0x0f) << 12) | ((table.get(position++) & 0x3f) << 6)
+            | (table.get(position++) & 0x3f));
+      }
+      if (c != agentString.charAt(i)) {
+        return null;
+      }
+    }
+    return results[table.getInt(at)];
+  }
+
+  /**
+   * 64 bit FNV-1a of the chars, mixed
+   */
+  private static long hash(CharSequence chars, int seed) {
+    long hash = 0xcbf29ce484222325L ^ seed;
+    for (int i = 0, length = chars.length(); i < length; i++) {
+      hash = (hash ^ chars.charAt(i)) * 0x100000001b3L;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    return hash ^ (hash >>> 33);
+  }
+
+  private static int bucket(long hash, int bucketCount) {
+    return (int) ((hash >>> 40) % bucketCount);
+  }
+
+  private static int slot(long hash, int displacement, int slotCount) {
+    long first = hash & 0xfffff, step = ((hash >>> 20) & 0xfffff) | 1;
+    return (int) ((first + displacement * step) % slotCount);
+  }
+
+  /**
+   * Writes a table of the given user agents and their results
+   *
+   * @param agentStrings distinct, of less than 64k UTF-8 bytes each
+   */
+  static void write(OutputStream out, long ruleHash, List<String> agentStrings,
+      List<Client> clients) throws IOException {
+    int count = agentStrings.size();
+    int bucketCount = count / BUCKET_SIZE + 1;
+    int slotCount = count + count / 4 + 1;
+    int seed = 0;
+    int[] displacements = new int[bucketCount];
+    int[] slots = new int[slotCount];
+    while (!place(agentStrings, seed, displacements, slots)) {
+      seed++;
+    }
+
+    // the user agents, then the distinct results they refer to
+    Map<Client, Integer> resultIndexes = new LinkedHashMap<Client, Integer>();
+    ByteArrayOutputStream entryBytes = new ByteArrayOutputStream();
+    DataOutputStream entryData = new DataOutputStream(entryBytes);
+    int[] offsets = new int[count];
+    for (int i = 0; i < count; i++) {
+      Integer result = resultIndexes.get(clients.get(i));
+      if (result == null) {
+        resultIndexes.put(clients.get(i), result = resultIndexes.size());
+      }
+      offsets[i] = entryData.size();
+      entryData.writeInt(result);
+      entryData.writeInt(agentStrings.get(i).length());
+      // length prefixed, skipped on lookup
+      ByteArrayOutputStream utf = new ByteArrayOutputStream();
+      new DataOutputStream(utf).writeUTF(agentStrings.get(i));
+      entryData.write(utf.toByteArray(), 2, utf.size() - 2);
+    }
+
+    DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+    data.writeInt(MAGIC);
+    data.writeInt(VERSION);
+    data.writeLong(ruleHash);
+    data.writeInt(seed);
+    data.writeInt(bucketCount);
+    data.writeInt(slotCount);
+    data.writeInt(entryData.size());
+    for (int displacement : displacements) {
+      data.writeInt(displacement);
+    }
+    for (int slot : slots) {
+      data.writeInt(slot < 0 ? -1 : offsets[slot]);
+    }
+    entryBytes.writeTo(data);
+    data.writeInt(resultIndexes.size());
+    for (Client client : resultIndexes.keySet()) {
+      CacheSnapshot.writeClient(data, client);
+    }
+    data.flush();
+  }
+
+  /**
+   * Fills the buckets biggest first, each with the first displacement that takes all its user
+   * agents to free slots
+   *
+   * @param slots set to the index of the user agent in each slot, -1 if none
+   * @return false if some bucket has no such displacement with this seed
+   */
+  private static boolean place(List<String> agentStrings, int seed, int[] displacements,
+      int[] slots) {
+    int bucketCount = displacements.length, slotCount = slots.length;
+    long[] hashes = new long[agentStrings.size()];
+    final List<List<Integer>> buckets = new ArrayList<List<Integer>>(bucketCount);
+    for (int i = 0; i < bucketCount; i++) {
+      buckets.add(new ArrayList<Integer>());
+    }
+    for (int i = 0; i < hashes.length; i++) {
+      hashes[i] = hash(agentStrings.get(i), seed);
+      buckets.get(bucket(hashes[i], bucketCount)).add(i);
+    }
+    Integer[] order = new Integer[bucketCount];
+    for (int i = 0; i < bucketCount; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return buckets.get(b).size() - buckets.get(a).size();
+      }
+    });
+
+    Arrays.fill(displacements, 0);
+    Arrays.fill(slots, -1);
+    int[] taken = new int[BUCKET_SIZE * 8];
+    for (int bucket : order) {
+      List<Integer> members = buckets.get(bucket);
+      if (members.isEmpty()) {
+        break;
+      }
+      if (members.size() > taken.length) {
+        return false;
+      }
+      int displacement = 0;
+      for (; displacement < MAX_DISPLACEMENT; displacement++) {
+        int placed = 0;
+        for (int member : members) {
+          int slot = slot(hashes[member], displacement, slotCount);
+          if (slots[slot] >= 0 || contains(taken, placed, slot)) {
+            break;
+          }
+          taken[placed++] = slot;
+        }
+        if (placed == members.size()) {
+          break;
+        }
+      }
+      if (displacement == MAX_DISPLACEMENT) {
+        return false;
+      }
+      displacements[bucket] = displacement;
+      for (int i = 0; i < members.size(); i++) {
+        slots[taken[i]] = members.get(i);
+      }
+    }
+    return true;
+  }
+
+  private static boolean contains(int[] values, int count, int value) {
+    for (int i = 0; i < count; i++) {
+      if (values[i] == value) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the user agents of a corpus, most frequent first. Each line holds a user agent, or a
+   *         count, a tab and a user agent followed by other tab separated columns as in test.uas.
+   */
+  static List<String> topAgents(InputStream corpus, int count) throws IOException {
+    final Map<String, Long> counts = new HashMap<String, Long>();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(corpus, "UTF-8"));
+    String line;
+    while ((line = reader.readLine()) != null) {
+      String[] columns = line.split("\t");
+      long lineCount = 1;
+      String agentString = line;
+      if (columns.length >= 2) {
+        try {
+          lineCount = Long.parseLong(columns[0].trim());
+          agentString = columns[1].trim();
+        } catch (NumberFormatException e) {
+          // a user agent with a tab
+        }
+      }
+      Long known = counts.get(agentString);
+      counts.put(agentString, known == null ? lineCount : known + lineCount);
+    }
+    List<String> agents = new ArrayList<String>(counts.keySet());
+    Collections.sort(agents, new Comparator<String>() {
+      @Override
+      public int compare(String a, String b) {
+        int byCount = counts.get(b).compareTo(counts.get(a));
+        return byCount != 0 ? byCount : a.compareTo(b);
+      }
+    });
+    return agents.subList(0, Math.min(count, agents.size()));
+  }
+
+  /**
+   * Build step: parses the count most frequent user agents of the corpus with the rules of the yaml
+   * and writes their table
+   *
+   * <code>AgentTable regexes.yaml corpus count table</code>
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length != 4) {
+      System.err.println("usage: AgentTable <regexes yaml> <corpus> <count> <table>");
+      System.exit(1);
+    }
+    RuleSnapshot rules;
+    InputStream yaml = new FileInputStream(args[0]);
+    try {
+      rules = RuleSnapshot.fromYaml(yaml);
+    } finally {
+      yaml.close();
+    }
+    InputStream corpus = new FileInputStream(args[1]);
+    try {
+      OutputStream out = new FileOutputStream(args[3]);
+      try {
+        build(rules, corpus, Integer.parseInt(args[2]), out);
+      } finally {
+        out.close();
+      }
+    } finally {
+      corpus.close();
+    }
+  }
+
+  /**
+   * Writes the table of the count most frequent user agents of the corpus, see {@link #topAgents}
+   */
+  static void build(RuleSnapshot rules, InputStream corpus, int count, OutputStream out)
+      throws IOException {
+    List<String> top = topAgents(corpus, count);
+    Parser parser = new Parser(rules, null);
+    List<String> agentStrings = new ArrayList<String>(top.size());
+    List<Client> clients = new ArrayList<Client>(top.size());
+    for (String agentString : top) {
+      // DataOutput#writeUTF bounds the encoded length
+      if (agentString.length() < 0x10000 / 3) {
+        agentStrings.add(agentString);
+        clients.add(parser.parse(agentString));
+      }
+    }
+    write(out, rules.hash(), agentStrings, clients);
+  }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package ua_parser;
+
+/**
+ * Lossy intern table for the immutable parse results: equal results share one instance, so cached
+ * clients don't each hold their own copy of "Chrome", "30", "0".
+ *
+ * Each value maps to two adjacent slots of a fixed size table; when both are taken a new value
+ * replaces the older one. Reads and writes are unsynchronized, which is safe as the results only
+ * have final fields; at worst two threads keep distinct but equal instances for a while.
+ *
+ * @author Adrian Muraru (@adimuraru)
+ */
+final class BoundedInterner<T> {
+  private final Object[] table;
+  private final int mask;
+
+  /**
+   * @param capacity number of slots, rounded up to a power of two
+   */
+  BoundedInterner(int capacity) {
+    int size = 2;
+    while (size < capacity) {
+      size <<= 1;
+    }
+    this.table = new Object[size];
+    this.mask = size - 1;
+  }
+
+  /**
+   * @return the canonical instance equal to value, value itself if there is none yet
+   */
+  @SuppressWarnings("unchecked")
+  T intern(T value) {
+    if (value == null) {
+      return null;
+    }
+    int hash = value.hashCode();
+    hash ^= hash >>> 16;
+    hash *= 0x45d9f3b;
+    int slot = (hash ^ (hash >>> 16)) & mask & ~1;
+    Object[] table = this.table;
+    Object first = table[slot];
+    if (value.equals(first)) {
+      return (T) first;
+    }
+    Object second = table[slot + 1];
+    if (value.equals(second)) {
+      return (T) second;
+    }
+    if (first == null) {
+      table[slot] = value;
+    } else if (second == null) {
+      table[slot + 1] = value;
+    } else {
+      // the older of the two goes
+      table[slot + 1] = first;
+      table[slot] = value;
+    }
+    return value;
+  }
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package ua_parser;
+
+/**
+ * View of a user agent that fails the parse reading it, by throwing {@link Exceeded}, once the rules
+ * read too many chars or take too long. Regexes read a char per step, backtracking included, so
+ * this bounds them even on input making them backtrack catastrophically.
+ *
+ * @author Adrian Muraru (@adimuraru)
+ */
+final class BudgetedChars implements CharSequence {
+  /** reads between two looks at the clock */
+  private static final int CLOCK_INTERVAL = 1024;
+
+  private final CharSequence chars;
+  private final boolean timed;
+  private final long deadline;
+  private long steps;
+  private int untilClock = CLOCK_INTERVAL;
+
+  /**
+   * @param maxSteps chars that may be read, 0 for no limit
+   * @param timeoutNanos time the reads may go on for from now, 0 for no limit
+   */
+  BudgetedChars(CharSequence chars, long maxSteps, long timeoutNanos) {
+    this.chars = chars;
+    this.steps = maxSteps > 0 ? maxSteps : Long.MAX_VALUE;
+    this.timed = timeoutNanos > 0;
+    this.deadline = timed ? System.nanoTime() + timeoutNanos : 0;
+  }
+
+  @Override
+  public int length() {
+    return chars.length();
+  }
+
+  @Override
+  public char charAt(int index) {
+    if (--steps < 0) {
+      throw new Exceeded("step budget exceeded");
+    }
+    if (timed && --untilClock == 0) {
+      untilClock = CLOCK_INTERVAL;
+      if (System.nanoTime() - deadline > 0) {
+        throw new Exceeded("time budget exceeded");
+      }
+    }
+    return chars.charAt(index);
+  }
+
+  /**
+   * Not counted, only taken for group values
+   */
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    return chars.subSequence(start, end);
+  }
+
+  @Override
+  public String toString() {
+    return chars.toString();
+  }
+
+  /**
+   * Thrown on overrun and caught by {@link Parser}, without a stack trace as hostile input may
+   * cause many
+   */
+  static final class Exceeded extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    Exceeded(String message) {
+      super(message, null, false, false);
+    }
+  }
+}
@@ -0,0 +1,221 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package ua_parser;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cached parse results in a file, so that a restarted parser starts out with the cache of the one
+ * before, see {@link Parser#exportCache} and {@link Parser#importCache}. The file records the hash
+ * of the rules the results come from, results of other rules are not imported.
+ *
+ * @author Adrian Muraru (@adimuraru)
+ */
+final class CacheSnapshot {
+  private static final int MAGIC = 0x55415043; // "UAPC"
+  private static final int VERSION = 1;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  // which components a client has
+  private static final int HAS_USER_AGENT = 1, HAS_OS = 2, HAS_DEVICE = 4, MOBILE = 8, SPIDER = 16;
+
+  private CacheSnapshot() {
+  }
+
+  /**
+   * Writes the clients of the keys, the hottest key last so that it is imported last
+   *
+   * @param keys hottest first, as {@link ParseCache#hottestKeys} returns them
+   * @return the number of clients written, keys no longer cached are skipped
+   */
+  static int write(File file, long ruleHash, ParseCache cache, List<String> keys)
+      throws IOException {
+    // written aside and renamed, so that a reader never maps a partial file
+    File partial = new File(file.getPath() + ".partial");
+    DataOutputStream data =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(partial)));
+    int count = 0;
+    try {
+      data.writeInt(MAGIC);
+      data.writeInt(VERSION);
+      data.writeLong(ruleHash);
+      for (int i = keys.size() - 1; i >= 0; i--) {
+        String key = keys.get(i);
+        Client client = cache.get(key);
+        if (client != null && client != Parser.TIMEOUT && client != Parser.OVERSIZE) {
+          writeString(data, key);
+          writeClient(data, client);
+          count++;
+        }
+      }
+      // the end, so that a truncated file fails to read rather than reading short
+      data.writeInt(-1);
+    } finally {
+      data.close();
+    }
+    if (!partial.renameTo(file) && !(file.delete() && partial.renameTo(file))) {
+      throw new IOException("cannot replace " + file);
+    }
+    return count;
+  }
+
+  /**
+   * Puts the clients of the file in the cache
+   *
+   * @return the number of clients put, 0 if the file holds results of other rules
+   * @throws IOException if the file is not a cache snapshot or is truncated
+   */
+  static int read(File file, long ruleHash, ParseCache cache) throws IOException {
+    RandomAccessFile in = new RandomAccessFile(file, "r");
+    MappedByteBuffer buffer;
+    try {
+      buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+    } finally {
+      // the mapping stays valid
+      in.close();
+    }
+    try {
+      if (buffer.remaining() < 16 || buffer.getInt() != MAGIC) {
+        throw new IOException("not a cache snapshot: " + file);
+      }
+      int version = buffer.getInt();
+      if (version != VERSION) {
+        throw new IOException("unsupported cache snapshot version " + version);
+      }
+      if (buffer.getLong() != ruleHash) {
+        return 0;
+      }
+      Reader reader = new Reader(buffer);
+      int count = 0;
+      String key;
+      while ((key = reader.string()) != null) {
+        cache.put(key, reader.client());
+        count++;
+      }
+      return count;
+    } catch (BufferUnderflowException e) {
+      throw new IOException("truncated cache snapshot: " + file);
+    }
+  }
+
+  /**
+   * Writes the components the client has, see {@link Reader#client()}
+   */
+  static void writeClient(DataOutputStream data, Client client) throws IOException {
+    Device device = client.device;
+    data.writeByte((client.userAgent == null ? 0 : HAS_USER_AGENT)
+        | (client.os == null ? 0 : HAS_OS) | (device == null ? 0 : HAS_DEVICE)
+        | (device != null && device.isMobile ? MOBILE : 0)
+        | (device != null && device.isSpider ? SPIDER : 0));
+    if (client.userAgent != null) {
+      UserAgent ua = client.userAgent;
+      writeString(data, ua.family);
+      writeString(data, ua.major);
+      writeString(data, ua.minor);
+      writeString(data, ua.patch);
+    }
+    if (client.os != null) {
+      OS os = client.os;
+      writeString(data, os.family);
+      writeString(data, os.major);
+      writeString(data, os.minor);
+      writeString(data, os.patch);
+      writeString(data, os.patchMinor);
+    }
+    if (device != null) {
+      writeString(data, device.family);
+    }
+  }
+
+  /**
+   * Length prefixed UTF-8, -1 for null
+   */
+  static void writeString(DataOutputStream data, String string) throws IOException {
+    if (string == null) {
+      data.writeInt(-1);
+      return;
+    }
+    byte[] bytes = string.getBytes(UTF_8);
+    data.writeInt(bytes.length);
+    data.write(bytes);
+  }
+
+  /**
+   * Decodes what the write methods wrote, sharing equal strings and components between clients
+   * like parsing does
+   */
+  static final class Reader {
+    private final ByteBuffer buffer;
+    private final Map<Object, Object> shared = new HashMap<Object, Object>();
+    private byte[] scratch = new byte[256];
+
+    Reader(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    /**
+     * @return the next string, null for a null one, or for the end where a key is expected
+     */
+    String string() {
+      int length = buffer.getInt();
+      if (length < 0) {
+        return null;
+      }
+      if (length > scratch.length) {
+        scratch = new byte[Math.max(length, 2 * scratch.length)];
+      }
+      buffer.get(scratch, 0, length);
+      return new String(scratch, 0, length, UTF_8);
+    }
+
+    private String value() {
+      String string = string();
+      return string == null ? null : share(string);
+    }
+
+    private <T> T share(T value) {
+      T known = (T) shared.get(value);
+      if (known != null) {
+        return known;
+      }
+      shared.put(value, value);
+      return value;
+    }
+
+    Client client() {
+      int flags = buffer.get();
+      UserAgent ua = (flags & HAS_USER_AGENT) == 0 ? null
+          : share(new UserAgent(value(), value(), value(), value()));
+      OS os = (flags & HAS_OS) == 0 ? null
+          : share(new OS(value(), value(), value(), value(), value()));
+      Device device = (flags & HAS_DEVICE) == 0 ? null
+          : share(new Device(value(), (flags & MOBILE) != 0, (flags & SPIDER) != 0));
+      return share(new Client(ua, os, device));
+    }
+  }
+}
@@ -0,0 +1,529 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package ua_parser;
+
+import com.google.common.io.ByteStreams;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Counts parsed clients by user agent family and version, OS family and version, device family,
+ * and mobile and spider flags, with optional weights such as the count column of an access log
+ * summary. Counters are primitive open addressing tables keyed by the {@link ClientDictionary}
+ * ids of the results, so that adding a client allocates nothing once its keys have been met.
+ *
+ * Optionally tracks the most frequent clients with the Space-Saving algorithm: the counts of the
+ * clients it keeps may be over, never under, by at most the total weight over the number kept.
+ *
+ * Not thread safe: aggregate per thread and {@link #merge} the aggregators, or write them with
+ * {@link #writeTo} and merge them on another node with {@link #mergeFrom}.
+ *
+ * @author Adrian Muraru (@adimuraru)
+ */
+public final class ClientAggregator {
+  private static final int MAGIC = 0x55414147; // "UAAG"
+  private static final int VERSION = 1;
+
+  private final ClientDictionary dictionary;
+  private final Counts userAgents = new Counts(), operatingSystems = new Counts(),
+      devices = new Counts();
+  private long total, mobile, spiders;
+  /** null unless tracking the most frequent clients */
+  private final TopClients top;
+
+  /**
+   * @param dictionary of the parser whose results or {@link Parser#parseIds ids} are added
+   */
+  public ClientAggregator(ClientDictionary dictionary) {
+    this(dictionary, 0);
+  }
+
+  /**
+   * @param topClients the number of most frequent clients to track, 0 for none
+   */
+  public ClientAggregator(ClientDictionary dictionary, int topClients) {
+    if (topClients < 0) {
+      throw new IllegalArgumentException("negative number of top clients: " + topClients);
+    }
+    this.dictionary = dictionary;
+    this.top = topClients == 0 ? null : new TopClients(topClients);
+  }
+
+  public void add(Client client) {
+    add(dictionary.ids(client), 1);
+  }
+
+  public void add(Client client, long weight) {
+    add(dictionary.ids(client), weight);
+  }
+
+  /**
+   * @param ids as {@link Parser#parseIds} returns them, from the parser of this dictionary
+   */
+  public void add(long ids, long weight) {
+    if (weight < 0) {
+      throw new IllegalArgumentException("negative weight: " + weight);
+    }
+    userAgents.add(ids & ClientDictionary.USER_AGENT_MASK, weight);
+    operatingSystems.add(ids & ClientDictionary.OS_MASK, weight);
+    devices.add(ids & ClientDictionary.DEVICE_FAMILY_MASK, weight);
+    total += weight;
+    if (ClientDictionary.isMobile(ids)) {
+      mobile += weight;
+    }
+    if (ClientDictionary.isSpider(ids)) {
+      spiders += weight;
+    }
+    if (top != null) {
+      top.offer(ids, weight, 0);
+    }
+  }
+
+  /**
+   * Adds the counts of the other aggregator, whose dictionary may be another one
+   */
+  public void merge(ClientAggregator other) {
+    merge(other.userAgents, userAgents, other.dictionary, ClientDictionary.USER_AGENT_MASK);
+    merge(other.operatingSystems, operatingSystems, other.dictionary, ClientDictionary.OS_MASK);
+    merge(other.devices, devices, other.dictionary, ClientDictionary.DEVICE_FAMILY_MASK);
+    total += other.total;
+    mobile += other.mobile;
+    spiders += other.spiders;
+    if (top != null && other.top != null) {
+      TopClients from = other.top;
+      for (int i = 0; i < from.size; i++) {
+        top.offer(translate(from.keys[i], other.dictionary, -1L), from.counts[i], from.errors[i]);
+      }
+    }
+  }
+
+  private void merge(Counts from, Counts to, ClientDictionary fromDictionary, long mask) {
+    for (int i = 0; i < from.capacity(); i++) {
+      if (from.has(i)) {
+        to.add(translate(from.key(i), fromDictionary, mask), from.count(i));
+      }
+    }
+  }
+
+  private long translate(long ids, ClientDictionary from, long mask) {
+    return from == dictionary ? ids : dictionary.ids(from.client(ids)) & mask;
+  }
+
+  /**
+   * Writes the counts as strings, so that they can be merged into an aggregator of any dictionary
+   */
+  public void writeTo(OutputStream out) throws IOException {
+    DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+    data.writeInt(MAGIC);
+    data.writeInt(VERSION);
+    data.writeLong(total);
+    data.writeLong(mobile);
+    data.writeLong(spiders);
+    write(data, userAgents);
+    write(data, operatingSystems);
+    write(data, devices);
+    int topSize = top == null ? 0 : top.size;
+    data.writeInt(topSize);
+    for (int i = 0; i < topSize; i++) {
+      CacheSnapshot.writeClient(data, dictionary.client(top.keys[i]));
+      data.writeLong(top.counts[i]);
+      data.writeLong(top.errors[i]);
+    }
+    data.flush();
+  }
+
+  private void write(DataOutputStream data, Counts counts) throws IOException {
+    data.writeInt(counts.size());
+    for (int i = 0; i < counts.capacity(); i++) {
+      if (counts.has(i)) {
+        CacheSnapshot.writeClient(data, dictionary.client(counts.key(i)));
+        data.writeLong(counts.count(i));
+      }
+    }
+  }
+
+  /**
+   * Adds the counts {@link #writeTo} wrote, reading the stream to its end
+   *
+   * @throws IOException if the stream does not hold counts or is truncated, nothing being merged
+   */
+  public void mergeFrom(InputStream in) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(ByteStreams.toByteArray(in));
+    // decoded whole before anything is merged, so that a bad stream leaves the counts alone
+    ClientAggregator decoded = new ClientAggregator(dictionary);
+    long[] topKeys, topCounts, topErrors;
+    try {
+      if (buffer.remaining() < 8 || buffer.getInt() != MAGIC) {
+        throw new IOException("not client counts");
+      }
+      int version = buffer.getInt();
+      if (version != VERSION) {
+        throw new IOException("unsupported client counts version " + version);
+      }
+      decoded.total = count(buffer);
+      decoded.mobile = count(buffer);
+      decoded.spiders = count(buffer);
+      CacheSnapshot.Reader reader = new CacheSnapshot.Reader(buffer);
+      read(buffer, reader, decoded.userAgents, ClientDictionary.USER_AGENT_MASK);
+      read(buffer, reader, decoded.operatingSystems, ClientDictionary.OS_MASK);
+      read(buffer, reader, decoded.devices, ClientDictionary.DEVICE_FAMILY_MASK);
+      int topSize = buffer.getInt();
+      // each entry takes more than 16 bytes
+      if (topSize < 0 || topSize > buffer.remaining() / 16) {
+        throw new IOException("corrupt client counts");
+      }
+      topKeys = new long[topSize];
+      topCounts = new long[topSize];
+      topErrors = new long[topSize];
+      for (int i = 0; i < topSize; i++) {
+        topKeys[i] = dictionary.ids(reader.client());
+        topCounts[i] = count(buffer);
+        topErrors[i] = count(buffer);
+      }
+    } catch (BufferUnderflowException e) {
+      throw new IOException("truncated client counts");
+    }
+    merge(decoded);
+    for (int i = 0; top != null && i < topKeys.length; i++) {
+      top.offer(topKeys[i], topCounts[i], topErrors[i]);
+    }
+  }
+
+  private void read(ByteBuffer buffer, CacheSnapshot.Reader reader, Counts counts, long mask)
+      throws IOException {
+    for (int i = buffer.getInt(); i > 0; i--) {
+      long ids = dictionary.ids(reader.client()) & mask;
+      counts.add(ids, count(buffer));
+    }
+  }
+
+  private static long count(ByteBuffer buffer) throws IOException {
+    long count = buffer.getLong();
+    if (count < 0) {
+      throw new IOException("corrupt client counts");
+    }
+    return count;
+  }
+
+  /**
+   * @return the total weight added
+   */
+  public long total() {
+    return total;
+  }
+
+  public long mobileCount() {
+    return mobile;
+  }
+
+  public long spiderCount() {
+    return spiders;
+  }
+
+  /**
+   * @return the weight of each user agent family and version, the largest first
+   */
+  public Map<UserAgent, Long> userAgentCounts() {
+    Map<UserAgent, Long> result = new LinkedHashMap<UserAgent, Long>();
+    for (int i : userAgents.byCount()) {
+      result.put(dictionary.client(userAgents.key(i)).userAgent, userAgents.count(i));
+    }
+    return result;
+  }
+
+  /**
+   * @return the weight of each OS family and version, the largest first
+   */
+  public Map<OS, Long> osCounts() {
+    Map<OS, Long> result = new LinkedHashMap<OS, Long>();
+    for (int i : operatingSystems.byCount()) {
+      result.put(dictionary.client(operatingSystems.key(i)).os, operatingSystems.count(i));
+    }
+    return result;
+  }
+
+  /**
+   * @return the weight of each device family, the largest first
+   */
+  public Map<String, Long> deviceCounts() {
+    Map<String, Long> result = new LinkedHashMap<String, Long>();
+    for (int i : devices.byCount()) {
+      result.put(dictionary.deviceFamily(ClientDictionary.deviceFamilyId(devices.key(i))),
+          devices.count(i));
+    }
+    return result;
+  }
+
+  /**
+   * @return the most frequent clients and their weights, the largest first, empty unless tracking
+   *         them; a client's weight may be over by the weight of the clients it displaced
+   */
+  public Map<Client, Long> topClients() {
+    Map<Client, Long> result = new LinkedHashMap<Client, Long>();
+    if (top == null) {
+      return result;
+    }
+    final long[] counts = Arrays.copyOf(top.counts, top.size);
+    Integer[] order = new Integer[counts.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return Long.compare(counts[b], counts[a]);
+      }
+    });
+    for (int i : order) {
+      result.put(dictionary.client(top.keys[i]), counts[i]);
+    }
+    return result;
+  }
+
+  private static int slot(long key, int mask) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ h >>> 32) & mask;
+  }
+
+  /**
+   * Long counts by long key, with linear probing. Key 0, the ids of null components, is counted
+   * apart as 0 marks free slots.
+   */
+  private static final class Counts {
+    private long[] keys = new long[16], counts = new long[16];
+    private int size;
+    private boolean hasZero;
+    private long zeroCount;
+
+    void add(long key, long weight) {
+      if (key == 0) {
+        hasZero = true;
+        zeroCount += weight;
+        return;
+      }
+      int mask = keys.length - 1;
+      for (int i = slot(key, mask); ; i = i + 1 & mask) {
+        if (keys[i] == key) {
+          counts[i] += weight;
+          return;
+        }
+        if (keys[i] == 0) {
+          keys[i] = key;
+          counts[i] = weight;
+          if (++size * 2 > keys.length) {
+            grow();
+          }
+          return;
+        }
+      }
+    }
+
+    private void grow() {
+      long[] oldKeys = keys, oldCounts = counts;
+      keys = new long[2 * oldKeys.length];
+      counts = new long[keys.length];
+      int mask = keys.length - 1;
+      for (int j = 0; j < oldKeys.length; j++) {
+        if (oldKeys[j] != 0) {
+          int i = slot(oldKeys[j], mask);
+          while (keys[i] != 0) {
+            i = i + 1 & mask;
+          }
+          keys[i] = oldKeys[j];
+          counts[i] = oldCounts[j];
+        }
+      }
+    }
+
+    int size() {
+      return hasZero ? size + 1 : size;
+    }
+
+    /**
+     * @return the bound of the slots, the last one standing for key 0
+     */
+    int capacity() {
+      return keys.length + 1;
+    }
+
+    boolean has(int slot) {
+      return slot < keys.length ? keys[slot] != 0 : hasZero;
+    }
+
+    long key(int slot) {
+      return slot < keys.length ? keys[slot] : 0;
+    }
+
+    long count(int slot) {
+      return slot < keys.length ? counts[slot] : zeroCount;
+    }
+
+    /**
+     * @return the slots in use, the largest count first
+     */
+    Integer[] byCount() {
+      Integer[] slots = new Integer[size()];
+      int n = 0;
+      for (int i = 0; i < capacity(); i++) {
+        if (has(i)) {
+          slots[n++] = i;
+        }
+      }
+      Arrays.sort(slots, new Comparator<Integer>() {
+        @Override
+        public int compare(Integer a, Integer b) {
+          return Long.compare(count(b), count(a));
+        }
+      });
+      return slots;
+    }
+  }
+
+  /**
+   * Space-Saving: the tracked clients in a min heap by count, and an index of their heap
+   * positions. A client that is not tracked takes the place of the least frequent one, and takes
+   * its count over as error.
+   */
+  private static final class TopClients {
+    final long[] keys, counts, errors;
+    int size;
+    // heap position + 1 by key, 0 marking free slots, so that any key can be indexed
+    private final long[] indexKeys;
+    private final int[] positions;
+
+    TopClients(int capacity) {
+      keys = new long[capacity];
+      counts = new long[capacity];
+      errors = new long[capacity];
+      indexKeys = new long[Integer.highestOneBit(capacity) * 4];
+      positions = new int[indexKeys.length];
+    }
+
+    void offer(long key, long weight, long error) {
+      int position = position(key);
+      if (position >= 0) {
+        counts[position] += weight;
+        errors[position] += error;
+        down(position);
+      } else if (size < keys.length) {
+        keys[size] = key;
+        counts[size] = weight;
+        errors[size] = error;
+        index(key, size);
+        up(size++);
+      } else {
+        unindex(keys[0]);
+        long least = counts[0];
+        keys[0] = key;
+        counts[0] = least + weight;
+        errors[0] = least + error;
+        index(key, 0);
+        down(0);
+      }
+    }
+
+    private void up(int i) {
+      while (i > 0) {
+        int parent = (i - 1) >>> 1;
+        if (counts[parent] <= counts[i]) {
+          return;
+        }
+        swap(i, parent);
+        i = parent;
+      }
+    }
+
+    private void down(int i) {
+      while (true) {
+        int least = i, left = 2 * i + 1, right = left + 1;
+        if (left < size && counts[left] < counts[least]) {
+          least = left;
+        }
+        if (right < size && counts[right] < counts[least]) {
+          least = right;
+        }
+        if (least == i) {
+          return;
+        }
+        swap(i, least);
+        i = least;
+      }
+    }
+
+    private void swap(int i, int j) {
+      long key = keys[i], count = counts[i], error = errors[i];
+      keys[i] = keys[j];
+      counts[i] = counts[j];
+      errors[i] = errors[j];
+      keys[j] = key;
+      counts[j] = count;
+      errors[j] = error;
+      index(keys[i], i);
+      index(keys[j], j);
+    }
+
+    /**
+     * @return the heap position of the key, -1 if not tracked
+     */
+    private int position(long key) {
+      int mask = indexKeys.length - 1;
+      for (int i = slot(key, mask); positions[i] != 0; i = i + 1 & mask) {
+        if (indexKeys[i] == key) {
+          return positions[i] - 1;
+        }
+      }
+      return -1;
+    }
+
+    private void index(long key, int position) {
+      int mask = indexKeys.length - 1;
+      int i = slot(key, mask);
+      while (positions[i] != 0 && indexKeys[i] != key) {
+        i = i + 1 & mask;
+      }
+      indexKeys[i] = key;
+      positions[i] = position + 1;
+    }
+
+    private void unindex(long key) {
+      int mask = indexKeys.length - 1;
+      int i = slot(key, mask);
+      while (positions[i] == 0 || indexKeys[i] != key) {
+        i = i + 1 & mask;
+      }
+      // shift back the entries after it that would no longer be found
+      for (int j = i + 1 & mask; positions[j] != 0; j = j + 1 & mask) {
+        int home = slot(indexKeys[j], mask);
+        if (i <= j ? home <= i || home > j : home <= i && home > j) {
+          indexKeys[i] = indexKeys[j];
+          positions[i] = positions[j];
+          i = j;
+        }
+      }
+      positions[i] = 0;
+    }
+  }
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package ua_parser;
+
+import java.util.BitSet;
+
+/**
+ * Results of a batch as columns, see {@link Parser#parseBatch(java.util.List, ClientColumns)}:
+ * per component, an array of {@link ClientDictionary} ids for the family and for each version,
+ * and bit sets of the mobile and spider flags. Row i of the batch is index i of every column, up
+ * to {@link #size()}; array lengths may exceed it. The arrays are reused by the next batch parsed
+ * into the same columns, so that a steady stream of batches allocates nothing per row. Null
+ * values have id 0.
+ *
+ * @author Adrian Muraru (@adimuraru)
+ */
+public final class ClientColumns {
+  private static final int[] NONE = new int[0];
+
+  private int size;
+  private int[] uaFamilies = NONE, uaMajors = NONE, uaMinors = NONE, uaPatches = NONE;
+  private int[] osFamilies = NONE, osMajors = NONE, osMinors = NONE, osPatches = NONE,
+      osPatchMinors = NONE;
+  private int[] deviceFamilies = NONE;
+  /** per row, the flags of the device, set apart as bit sets are not safe to set concurrently */
+  private byte[] flags = new byte[0];
+  private final BitSet mobile = new BitSet(), spider = new BitSet();
+
+  /**
+   * Makes room for the rows of a batch
+   */
+  void reset(int size) {
+    this.size = size;
+    if (uaFamilies.length < size) {
+      int capacity = Math.max(size, 2 * uaFamilies.length);
+      uaFamilies = new int[capacity];
+      uaMajors = new int[capacity];
+      uaMinors = new int[capacity];
+      uaPatches = new int[capacity];
+      osFamilies = new int[capacity];
+      osMajors = new int[capacity];
+      osMinors = new int[capacity];
+      osPatches = new int[capacity];
+      osPatchMinors = new int[capacity];
+      deviceFamilies = new int[capacity];
+      flags = new byte[capacity];
+    }
+  }
+
+  /**
+   * Fills a row, rows being filled concurrently
+   */
+  void set(int row, Client client, ClientDictionary dictionary) {
+    ClientDictionary.Ids<String> versions = dictionary.versionParts;
+    UserAgent ua = client.userAgent;
+    uaFamilies[row] = ua == null ? 0 : dictionary.uaFamilies.id(ua.family);
+    uaMajors[row] = ua == null ? 0 : versions.id(ua.major);
+    uaMinors[row] = ua == null ? 0 : versions.id(ua.minor);
+    uaPatches[row] = ua == null ? 0 : versions.id(ua.patch);
+    OS os = client.os;
+    osFamilies[row] = os == null ? 0 : dictionary.osFamilies.id(os.family);
+    osMajors[row] = os == null ? 0 : versions.id(os.major);
+    osMinors[row] = os == null ? 0 : versions.id(os.minor);
+    osPatches[row] = os == null ? 0 : versions.id(os.patch);
+    osPatchMinors[row] = os == null ? 0 : versions.id(os.patchMinor);
+    Device device = client.device;
+    deviceFamilies[row] = device == null ? 0 : dictionary.deviceFamilies.id(device.family);
+    flags[row] = (byte) ((device != null && device.isMobile ? 1 : 0)
+        | (device != null && device.isSpider ? 2 : 0));
+  }
+
+  /**
+   * Sets the bit sets once all rows are filled
+   */
+  void finish() {
+    mobile.clear();
+    spider.clear();
+    for (int row = 0; row < size; row++) {
+      if ((flags[row] & 1) != 0) {
+        mobile.set(row);
+      }
+      if ((flags[row] & 2) != 0) {
+        spider.set(row);
+      }
+    }
+  }
+
+  /**
+   * @return the number of rows
+   */
+  public int size() {
+    return size;
+  }
+
+  public int[] getUserAgentFamilies() {
+    return uaFamilies;
+  }
+
+  public int[] getUserAgentMajors() {
+    return uaMajors;
+  }
+
+  public int[] getUserAgentMinors() {
+    return uaMinors;
+  }
+
+  public int[] getUserAgentPatches() {
+    return uaPatches;
+  }
+
+  public int[] getOsFamilies() {
+    return osFamilies;
+  }
+
+  public int[] getOsMajors() {
+    return osMajors;
+  }
+
+  public int[] getOsMinors() {
+    return osMinors;
+  }
+
+  public int[] getOsPatches() {
+    return osPatches;
+  }
+
+  public int[] getOsPatchMinors() {
+    return osPatchMinors;
+  }
+
+  public int[] getDeviceFamilies() {
+    return deviceFamilies;
+  }
+
+  public BitSet getMobile() {
+    return mobile;
+  }
+
+  public BitSet getSpider() {
+    return spider;
+  }
+}
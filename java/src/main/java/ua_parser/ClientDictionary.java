@@ -0,0 +1,306 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package ua_parser;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Int ids for the distinct user agent, OS and device families and version tuples parse results
+ * hold, packed together in a long by {@link #ids(Client)} and {@link Parser#parseIds}, so that
+ * results can be grouped and joined as primitives and turned back into strings on output.
+ *
+ * The families the rules name up front get their ids in rule order, so those ids are the same
+ * for every parser of the same rules. Families taken from the user agent and version tuples get
+ * the next ids as they are first met, and keep them for the life of the dictionary, reloads of
+ * the parser included. Id 0 stands for null. Each field, the single versions of
+ * {@link ClientColumns} included, has a fixed width so that hostile user agents cannot grow the
+ * dictionary without bound; once its ids run out, new values get the field's last id, which maps
+ * back to null.
+ *
+ * @author Adrian Muraru (@adimuraru)
+ */
+public final class ClientDictionary {
+  // layout of the packed ids, from the lowest bit
+  private static final int UA_FAMILY_BITS = 12, UA_VERSION_BITS = 16, OS_FAMILY_BITS = 10,
+      OS_VERSION_BITS = 14, DEVICE_FAMILY_BITS = 10;
+  private static final int UA_VERSION_SHIFT = UA_FAMILY_BITS;
+  private static final int OS_FAMILY_SHIFT = UA_VERSION_SHIFT + UA_VERSION_BITS;
+  private static final int OS_VERSION_SHIFT = OS_FAMILY_SHIFT + OS_FAMILY_BITS;
+  private static final int DEVICE_FAMILY_SHIFT = OS_VERSION_SHIFT + OS_VERSION_BITS;
+  private static final int MOBILE_SHIFT = DEVICE_FAMILY_SHIFT + DEVICE_FAMILY_BITS;
+  private static final int SPIDER_SHIFT = MOBILE_SHIFT + 1;
+  // the bits of packed ids that stand for a component, flags apart
+  static final long USER_AGENT_MASK = (1L << UA_FAMILY_BITS + UA_VERSION_BITS) - 1;
+  static final long OS_MASK = ((1L << OS_FAMILY_BITS + OS_VERSION_BITS) - 1) << OS_FAMILY_SHIFT;
+  static final long DEVICE_FAMILY_MASK = ((1L << DEVICE_FAMILY_BITS) - 1) << DEVICE_FAMILY_SHIFT;
+  /** distinct results whose packed ids are remembered, beyond which they are forgotten */
+  private static final int MAX_REMEMBERED = 1 << 16;
+  /** width of the single version ids of {@link ClientColumns}, not packed but bounded the same */
+  private static final int VERSION_PART_BITS = 16;
+
+  final Ids<String> uaFamilies = new Ids<String>(UA_FAMILY_BITS);
+  private final Ids<List<String>> uaVersions = new Ids<List<String>>(UA_VERSION_BITS);
+  final Ids<String> osFamilies = new Ids<String>(OS_FAMILY_BITS);
+  private final Ids<List<String>> osVersions = new Ids<List<String>>(OS_VERSION_BITS);
+  final Ids<String> deviceFamilies = new Ids<String>(DEVICE_FAMILY_BITS);
+  /** single versions, major, minor and so on, for {@link ClientColumns} */
+  final Ids<String> versionParts = new Ids<String>(VERSION_PART_BITS);
+  // packed ids of the results met so far, which are few as parsers intern them
+  private final Map<UserAgent, Long> userAgentIds = new ConcurrentHashMap<UserAgent, Long>();
+  private final Map<OS, Long> osIds = new ConcurrentHashMap<OS, Long>();
+  private final Map<Device, Long> deviceIds = new ConcurrentHashMap<Device, Long>();
+
+  ClientDictionary() {
+    uaFamilies.id("Other");
+    osFamilies.id("Other");
+    deviceFamilies.id("Other");
+  }
+
+  /**
+   * Gives the families the rules name, but for those made from the user agent, their ids
+   */
+  void addRules(RuleSnapshot rules) {
+    addFamilies(uaFamilies, rules.uaParserConfigs, "family_replacement");
+    addFamilies(osFamilies, rules.osParserConfigs, "os_replacement");
+    addFamilies(deviceFamilies, rules.deviceParserConfigs, "device_replacement");
+  }
+
+  private static void addFamilies(Ids<String> families, List<Map> configs, String key) {
+    for (Map<String, String> config : configs) {
+      String family = config.get(key);
+      if (family != null && !family.contains("$1")) {
+        families.id(family);
+      }
+    }
+  }
+
+  /**
+   * @return the ids of the client's components, those of null components being 0
+   */
+  public long ids(Client client) {
+    return ids(client.userAgent) | ids(client.os) | ids(client.device);
+  }
+
+  private long ids(UserAgent ua) {
+    if (ua == null) {
+      return 0;
+    }
+    Long ids = userAgentIds.get(ua);
+    if (ids == null) {
+      ids = uaFamilies.id(ua.family)
+          | (long) uaVersions.id(version(ua.major, ua.minor, ua.patch)) << UA_VERSION_SHIFT;
+      remember(userAgentIds, ua, ids);
+    }
+    return ids;
+  }
+
+  private long ids(OS os) {
+    if (os == null) {
+      return 0;
+    }
+    Long ids = osIds.get(os);
+    if (ids == null) {
+      ids = (long) osFamilies.id(os.family) << OS_FAMILY_SHIFT
+          | (long) osVersions.id(version(os.major, os.minor, os.patch, os.patchMinor))
+              << OS_VERSION_SHIFT;
+      remember(osIds, os, ids);
+    }
+    return ids;
+  }
+
+  private long ids(Device device) {
+    if (device == null) {
+      return 0;
+    }
+    Long ids = deviceIds.get(device);
+    if (ids == null) {
+      ids = (long) deviceFamilies.id(device.family) << DEVICE_FAMILY_SHIFT
+          | (device.isMobile ? 1L << MOBILE_SHIFT : 0) | (device.isSpider ? 1L << SPIDER_SHIFT : 0);
+      remember(deviceIds, device, ids);
+    }
+    return ids;
+  }
+
+  private static <T> void remember(Map<T, Long> known, T result, Long ids) {
+    if (known.size() >= MAX_REMEMBERED) {
+      known.clear();
+    }
+    known.put(result, ids);
+  }
+
+  /**
+   * @return the tuple, null when all versions are null
+   */
+  private static List<String> version(String... version) {
+    for (String part : version) {
+      if (part != null) {
+        return Arrays.asList(version);
+      }
+    }
+    return null;
+  }
+
+  public static int userAgentFamilyId(long ids) {
+    return field(ids, 0, UA_FAMILY_BITS);
+  }
+
+  public static int userAgentVersionId(long ids) {
+    return field(ids, UA_VERSION_SHIFT, UA_VERSION_BITS);
+  }
+
+  public static int osFamilyId(long ids) {
+    return field(ids, OS_FAMILY_SHIFT, OS_FAMILY_BITS);
+  }
+
+  public static int osVersionId(long ids) {
+    return field(ids, OS_VERSION_SHIFT, OS_VERSION_BITS);
+  }
+
+  public static int deviceFamilyId(long ids) {
+    return field(ids, DEVICE_FAMILY_SHIFT, DEVICE_FAMILY_BITS);
+  }
+
+  public static boolean isMobile(long ids) {
+    return (ids >>> MOBILE_SHIFT & 1) != 0;
+  }
+
+  public static boolean isSpider(long ids) {
+    return (ids >>> SPIDER_SHIFT & 1) != 0;
+  }
+
+  private static int field(long ids, int shift, int bits) {
+    return (int) (ids >>> shift) & ((1 << bits) - 1);
+  }
+
+  public String userAgentFamily(int id) {
+    return uaFamilies.value(id);
+  }
+
+  public String osFamily(int id) {
+    return osFamilies.value(id);
+  }
+
+  public String deviceFamily(int id) {
+    return deviceFamilies.value(id);
+  }
+
+  /**
+   * @return major, minor and patch, null for id 0
+   */
+  public List<String> userAgentVersion(int id) {
+    return uaVersions.value(id);
+  }
+
+  /**
+   * @return major, minor, patch and patch minor, null for id 0
+   */
+  public List<String> osVersion(int id) {
+    return osVersions.value(id);
+  }
+
+  /**
+   * @return a major, minor, patch or patch minor version of {@link ClientColumns}, null for id 0
+   */
+  public String versionPart(int id) {
+    return versionParts.value(id);
+  }
+
+  /**
+   * @return ids are below this, e.g. to size arrays indexed by them
+   */
+  public int userAgentFamilyCount() {
+    return uaFamilies.size();
+  }
+
+  public int osFamilyCount() {
+    return osFamilies.size();
+  }
+
+  public int deviceFamilyCount() {
+    return deviceFamilies.size();
+  }
+
+  /**
+   * @return the client the ids stand for, equal to the one they were taken from
+   */
+  public Client client(long ids) {
+    List<String> uaVersion = userAgentVersion(userAgentVersionId(ids));
+    List<String> osVersion = osVersion(osVersionId(ids));
+    return new Client(
+        new UserAgent(userAgentFamily(userAgentFamilyId(ids)), part(uaVersion, 0),
+            part(uaVersion, 1), part(uaVersion, 2)),
+        new OS(osFamily(osFamilyId(ids)), part(osVersion, 0), part(osVersion, 1),
+            part(osVersion, 2), part(osVersion, 3)),
+        new Device(deviceFamily(deviceFamilyId(ids)), isMobile(ids), isSpider(ids)));
+  }
+
+  private static String part(List<String> version, int index) {
+    return version == null ? null : version.get(index);
+  }
+
+  /**
+   * Ids of the values of one field, in the order values were first met
+   */
+  static final class Ids<T> {
+    private final int overflow;
+    private final Map<T, Integer> ids = new ConcurrentHashMap<T, Integer>();
+    /** by id, published by the volatile write after adding a value, guarded by this */
+    private volatile Object[] values = new Object[16];
+    private int size = 1;
+
+    Ids(int bits) {
+      this.overflow = (1 << bits) - 1;
+    }
+
+    int id(T value) {
+      if (value == null) {
+        return 0;
+      }
+      Integer id = ids.get(value);
+      return id != null ? id : add(value);
+    }
+
+    private synchronized int add(T value) {
+      Integer id = ids.get(value);
+      if (id != null) {
+        return id;
+      }
+      if (size == overflow) {
+        return overflow;
+      }
+      Object[] values = this.values;
+      if (size == values.length) {
+        values = Arrays.copyOf(values, 2 * size);
+      }
+      values[size] = value;
+      this.values = values;
+      ids.put(value, size);
+      return size++;
+    }
+
+    T value(int id) {
+      Object[] values = this.values;
+      return id < values.length ? (T) values[id] : null;
+    }
+
+    synchronized int size() {
+      return size;
+    }
+  }
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package ua_parser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The parsers set up from one {@link RuleSnapshot}, which {@link Parser#reload} swaps as a whole
+ *
+ * @author Adrian Muraru (@adimuraru)
+ */
+final class CompiledRules {
+  final UserAgentParser uaParser;
+  final OSParser osParser;
+  final DeviceParser deviceParser;
+  /** {@link RuleSnapshot#hash()} of the rules, {@link #UNKNOWN_HASH} for parsers set up elsewhere */
+  final long ruleHash;
+  static final long UNKNOWN_HASH = 0;
+  /** literals of the user agent, OS and device rules, in that order, to scan a UA once for all */
+  private final LiteralPrefilter prefilter;
+
+  CompiledRules(RuleSnapshot rules) {
+    uaParser = UserAgentParser.fromList(rules.uaParserConfigs, rules.uaLiterals);
+    osParser = OSParser.fromList(rules.osParserConfigs, rules.osLiterals);
+
+    List<String> mobileUAFamiliesList = rules.mobileUAFamilies;
+    List<String> mobileOSFamiliesList = rules.mobileOSFamilies;
+    Set<String> mobileUAFamilies =
+        (mobileUAFamiliesList == null ? Collections.EMPTY_SET : new HashSet<String>(
+            mobileUAFamiliesList));
+    Set<String> mobileOSFamilies =
+        (mobileOSFamiliesList == null ? Collections.EMPTY_SET : new HashSet<String>(
+            mobileOSFamiliesList));
+
+    deviceParser = DeviceParser.fromList(rules.deviceParserConfigs, rules.deviceLiterals,
+        uaParser, mobileUAFamilies, mobileOSFamilies);
+    prefilter = prefilter(uaParser, osParser, deviceParser);
+    ruleHash = rules.hash();
+  }
+
+  /**
+   * @param deviceParser set up with the given uaParser
+   */
+  CompiledRules(UserAgentParser uaParser, OSParser osParser, DeviceParser deviceParser) {
+    this.uaParser = uaParser;
+    this.osParser = osParser;
+    this.deviceParser = deviceParser;
+    prefilter = prefilter(uaParser, osParser, deviceParser);
+    ruleHash = UNKNOWN_HASH;
+  }
+
+  private static LiteralPrefilter prefilter(UserAgentParser uaParser, OSParser osParser,
+      DeviceParser deviceParser) {
+    List<Set<String>> literals = new ArrayList<Set<String>>(uaParser.rules.literals());
+    literals.addAll(osParser.rules.literals());
+    literals.addAll(deviceParser.rules.literals());
+    return new LiteralPrefilter(literals);
+  }
+
+  /**
+   * @param regexSet also for the user agent and device rules, OS ones always use one
+   * @param metrics whether to count rule hits and time the rules, see {@link ParserMetrics}
+   */
+  void configure(boolean regexSet, boolean metrics) {
+    uaParser.setRegexSetEnabled(regexSet);
+    deviceParser.setRegexSetEnabled(regexSet);
+    for (RuleChain<?> chain : chains()) {
+      chain.setCounting(metrics);
+      chain.setTiming(metrics);
+    }
+  }
+
+  private List<RuleChain<?>> chains() {
+    List<RuleChain<?>> chains = new ArrayList<RuleChain<?>>(3);
+    chains.add(uaParser.rules);
+    chains.add(osParser.rules);
+    chains.add(deviceParser.rules);
+    return chains;
+  }
+
+  long[] candidates(ParseInput input) {
+    return input.isEmpty() ? null : prefilter.candidates(input.agentString);
+  }
+
+  long[] uaCandidates(long[] candidates) {
+    return candidates == null ? null
+        : LiteralPrefilter.slice(candidates, 0, uaParser.rules.size());
+  }
+
+  long[] osCandidates(long[] candidates) {
+    return candidates == null ? null
+        : LiteralPrefilter.slice(candidates, uaParser.rules.size(), osParser.rules.size());
+  }
+
+  long[] deviceCandidates(long[] candidates) {
+    return candidates == null ? null : LiteralPrefilter.slice(candidates,
+        uaParser.rules.size() + osParser.rules.size(), deviceParser.rules.size());
+  }
+}
@@ -19,6 +19,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.regex.MatchResult;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -30,14 +31,43 @@ import java.util.regex.Pattern;
 public class DeviceParser {
 
   private static final String GENERIC_SMARTPHONE = "Generic Smartphone";
+  /** distinct results shared rather than copied, see {@link BoundedInterner} */
+  private static final int INTERNED_RESULTS = 8192;
 
   List<DevicePattern> patterns;
+  final RuleChain<String> rules;
+  private final BoundedInterner<Device> interner = new BoundedInterner<Device>(INTERNED_RESULTS);
   private final Set<String> mobileUAFamilies, mobileOSFamilies;
   private final UserAgentParser uaParser;
 
   public DeviceParser(List<DevicePattern> patterns, UserAgentParser uaParser,
       Set<String> mobileUAFamilies, Set<String> mobileOSFamilies) {
+    this(patterns, null, uaParser, mobileUAFamilies, mobileOSFamilies);
+  }
+
+  /**
+   * @param literals per pattern, see {@link RegexLiterals}, null to extract them here
+   */
+  DeviceParser(List<DevicePattern> patterns, List<Set<String>> literals,
+      UserAgentParser uaParser, Set<String> mobileUAFamilies, Set<String> mobileOSFamilies) {
     this.patterns = patterns;
+    List<Pattern> regexes = new ArrayList<Pattern>(patterns.size());
+    for (DevicePattern pattern : patterns) {
+      regexes.add(pattern.pattern);
+    }
+    if (literals == null) {
+      literals = new ArrayList<Set<String>>(patterns.size());
+      for (DevicePattern pattern : patterns) {
+        literals.add(RegexLiterals.required(pattern.pattern));
+      }
+    }
+    this.rules = new RuleChain<String>(regexes, literals) {
+      @Override
+      String match(int rule, ParseInput input) {
+        MatchResult match = find(rule, input.agentString);
+        return match == null ? null : DeviceParser.this.patterns.get(rule).result(match);
+      }
+    };
     this.uaParser = uaParser;
     this.mobileUAFamilies = mobileUAFamilies;
     this.mobileOSFamilies = mobileOSFamilies;
@@ -48,13 +78,46 @@ public class DeviceParser {
   }
 
   public Device parse(String agentString, String userAgentFamily) {
-    String device = null;
-    for (DevicePattern p : patterns) {
-      if ((device = p.match(agentString)) != null) {
-        break;
-      }
+    return parse(new ParseInput(agentString), userAgentFamily, null);
+  }
+
+  /**
+   * @param candidates prefilter candidates computed by the caller, or null
+   */
+  Device parse(ParseInput input, String userAgentFamily, long[] candidates) {
+    return interner.intern(device(rules.first(input, candidates), userAgentFamily));
+  }
+
+  /**
+   * @return a device with the wanted flags set, but whose family and other flags are only set when
+   *         the user agent family alone does not decide the wanted flags and the device rules run
+   */
+  Device flags(ParseInput input, String userAgentFamily, boolean mobile, boolean spider,
+      long[] candidates) {
+    String family = userAgentFamily == null ? "Other" : userAgentFamily.trim();
+    if ((!mobile || mobileUAFamilies.contains(family)) && (!spider || family.equals("Spider"))) {
+      return interner.intern(new Device(null, mobile, spider));
     }
+    return parse(input, userAgentFamily, candidates);
+  }
 
+  /**
+   * Same as {@link #parse(String, String)}, trying every pattern without the literal prefilter or
+   * the regex set
+   */
+  Device parseUnfiltered(String agentString, String userAgentFamily) {
+    return device(rules.firstUnfiltered(new ParseInput(agentString)), userAgentFamily);
+  }
+
+  /**
+   * Matches all patterns at once with a {@link RegexSet}, off by default as the set of a long
+   * pattern list takes time and memory to build
+   */
+  public void setRegexSetEnabled(boolean enabled) {
+    rules.setRegexSetEnabled(enabled);
+  }
+
+  private Device device(String device, String userAgentFamily) {
     String osFamily = device == null ? "Other" : device;
     userAgentFamily = userAgentFamily == null ? "Other" : userAgentFamily.trim();
 
@@ -68,13 +131,29 @@ public class DeviceParser {
     return new Device(device, isMobile, isSpider);
   }
 
+  /**
+   * @return where the regex of the given rule first matches, null if nowhere, valid until the next
+   *         find of the rule on the same thread; overridden by the parsers {@link ParserGenerator}
+   *         generates
+   */
+  MatchResult find(int rule, CharSequence agentString) {
+    Matcher matcher = rules.matcher(rule, agentString);
+    return matcher.find() ? matcher : null;
+  }
+
   public static DeviceParser fromList(List<Map> configList, UserAgentParser uaParser,
       Set<String> mobileUAFamilies, Set<String> mobileOSFamilies) {
+    return fromList(configList, null, uaParser, mobileUAFamilies, mobileOSFamilies);
+  }
+
+  static DeviceParser fromList(List<Map> configList, List<Set<String>> literals,
+      UserAgentParser uaParser, Set<String> mobileUAFamilies, Set<String> mobileOSFamilies) {
     List<DevicePattern> configPatterns = new ArrayList<DevicePattern>();
     for (Map<String, String> configMap : configList) {
       configPatterns.add(DeviceParser.patternFromMap(configMap));
     }
-    return new DeviceParser(configPatterns, uaParser, mobileUAFamilies, mobileOSFamilies);
+    return new DeviceParser(configPatterns, literals, uaParser, mobileUAFamilies,
+        mobileOSFamilies);
   }
 
   protected static DevicePattern patternFromMap(Map<String, String> configMap) {
@@ -87,29 +166,26 @@ public class DeviceParser {
 
   protected static class DevicePattern {
     private final Pattern pattern;
-    private final String familyReplacement;
+    private final Replacement familyReplacement;
 
     public DevicePattern(Pattern pattern, String familyReplacement) {
       this.pattern = pattern;
-      this.familyReplacement = familyReplacement;
+      this.familyReplacement = familyReplacement == null ? null : new Replacement(familyReplacement);
     }
 
     public String match(String agentString) {
-      Matcher matcher = pattern.matcher(agentString);
+      return match((CharSequence) agentString);
+    }
 
-      if (!matcher.find()) {
-        return null;
-      }
+    public String match(CharSequence agentString) {
+      Matcher matcher = pattern.matcher(agentString);
+      return matcher.find() ? result(matcher) : null;
+    }
 
+    String result(MatchResult matcher) {
       String family = null;
       if (familyReplacement != null) {
-        if (familyReplacement.contains("$1") && matcher.groupCount() >= 1
-            && matcher.group(1) != null) {
-          family =
-              familyReplacement.replaceFirst("\\$1", Matcher.quoteReplacement(matcher.group(1)));
-        } else {
-          family = familyReplacement;
-        }
+        family = familyReplacement.apply(matcher);
       } else if (matcher.groupCount() >= 1) {
         family = matcher.group(1);
       }
@@ -0,0 +1,210 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package ua_parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.MatchResult;
+
+/**
+ * Match of a regex compiled to Java by {@link ParserGenerator}, and the helpers the generated code
+ * calls. Group i spans groups[2i] to groups[2i + 1], -1 when it did not take part in the match.
+ *
+ * @author Adrian Muraru (@adimuraru)
+ */
+final class GeneratedMatch implements MatchResult {
+  /** thrown by generated code on input it cannot match like the Pattern, see {@link Fallback} */
+  static final Fallback FALLBACK = new Fallback();
+
+  private final CharSequence input;
+  private final int[] groups;
+  private final int groupCount;
+
+  GeneratedMatch(CharSequence input, int[] groups, int groupCount) {
+    this.input = input;
+    this.groups = groups;
+    this.groupCount = groupCount;
+  }
+
+  /**
+   * @return the spans of group 0 to groupCount, then as many slots for the start of the groups
+   *         being matched, all -1
+   */
+  static int[] groups(int groupCount) {
+    int[] groups = new int[3 * (groupCount + 1)];
+    Arrays.fill(groups, -1);
+    return groups;
+  }
+
+  @Override
+  public int start() {
+    return start(0);
+  }
+
+  @Override
+  public int start(int group) {
+    return groups[2 * checked(group)];
+  }
+
+  @Override
+  public int end() {
+    return end(0);
+  }
+
+  @Override
+  public int end(int group) {
+    return groups[2 * checked(group) + 1];
+  }
+
+  @Override
+  public String group() {
+    return group(0);
+  }
+
+  @Override
+  public String group(int group) {
+    int start = start(group);
+    return start < 0 ? null : input.subSequence(start, end(group)).toString();
+  }
+
+  @Override
+  public int groupCount() {
+    return groupCount;
+  }
+
+  private int checked(int group) {
+    if (group < 0 || group > groupCount) {
+      throw new IndexOutOfBoundsException("No group " + group);
+    }
+    return group;
+  }
+
+  /**
+   * @return whether s holds literal at i
+   */
+  static boolean regionMatches(CharSequence s, int n, int i, String literal) {
+    if (s instanceof String) {
+      return ((String) s).startsWith(literal, i);
+    }
+    if (i + literal.length() > n) {
+      return false;
+    }
+    for (int j = 0; j < literal.length(); j++) {
+      if (s.charAt(i + j) != literal.charAt(j)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the first index from from on where s holds literal, -1 if none
+   */
+  static int indexOf(CharSequence s, int n, String literal, int from) {
+    if (s instanceof String) {
+      return ((String) s).indexOf(literal, from);
+    }
+    char first = literal.charAt(0);
+    for (int i = from; i + literal.length() <= n; i++) {
+      if (s.charAt(i) == first && regionMatches(s, n, i, literal)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Same as $ without MULTILINE: at the end, or before a final line terminator
+   */
+  static boolean dollar(CharSequence s, int n, int i) {
+    if (i < n - 2) {
+      return false;
+    }
+    if (i == n - 2) {
+      return s.charAt(i) == '\r' && s.charAt(i + 1) == '\n';
+    }
+    if (i == n - 1) {
+      char c = s.charAt(i);
+      if (c == '\n') {
+        return i == 0 || s.charAt(i - 1) != '\r';
+      }
+      return c == '\r' || c == '\u0085' || (c | 1) == '\u2029';
+    }
+    return true;
+  }
+
+  /**
+   * @param ranges sorted inclusive ranges lo0, hi0, lo1, hi1, ...
+   */
+  static boolean inRanges(char[] ranges, char c) {
+    for (int i = 0; i < ranges.length; i += 2) {
+      if (c < ranges[i]) {
+        return false;
+      }
+      if (c <= ranges[i + 1]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param configs per rule, alternating keys and values
+   */
+  static List<Map> configs(String[][] configs) {
+    List<Map> maps = new ArrayList<Map>(configs.length);
+    for (String[] config : configs) {
+      Map<String, String> map = new HashMap<String, String>();
+      for (int i = 0; i < config.length; i += 2) {
+        map.put(config[i], config[i + 1]);
+      }
+      maps.add(map);
+    }
+    return maps;
+  }
+
+  /**
+   * @param literals per rule, null when unknown
+   */
+  static List<Set<String>> literals(String[][] literals) {
+    List<Set<String>> sets = new ArrayList<Set<String>>(literals.length);
+    for (String[] rule : literals) {
+      sets.add(rule == null ? null : new LinkedHashSet<String>(Arrays.asList(rule)));
+    }
+    return sets;
+  }
+
+  static Set<String> set(String... strings) {
+    return new LinkedHashSet<String>(Arrays.asList(strings));
+  }
+
+  /**
+   * Where the generated code would read a surrogate pair as two chars while the Pattern reads one
+   * code point. The generated parser then matches the rule with the Pattern.
+   */
+  static final class Fallback extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private Fallback() {
+      super("surrogate pair", null, false, false);
+    }
+  }
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package ua_parser;
+
+/**
+ * A {@link Client} whose user agent, OS and device are each parsed on first access, see
+ * {@link Parser#parseLazy}. Every component is parsed at most once, and what was parsed is written
+ * back to the parser's cache for later parses of the same user agent. A component running out of
+ * the parse budget is that of {@link Parser#TIMEOUT} and is not cached.
+ *
+ * @author Adrian Muraru (@adimuraru)
+ */
+public final class LazyClient {
+  private final Parser parser;
+  /** those of the parser when the client was created, even if it reloads since */
+  private final CompiledRules rules;
+  private final String agentString;
+  private volatile UserAgent userAgent;
+  private volatile OS os;
+  private volatile Device device;
+
+  LazyClient(Parser parser, CompiledRules rules, String agentString, Client cached) {
+    this.parser = parser;
+    this.rules = rules;
+    this.agentString = agentString;
+    if (cached != null) {
+      this.userAgent = cached.userAgent;
+      this.os = cached.os;
+      this.device = cached.device;
+    }
+  }
+
+  public String agentString() {
+    return agentString;
+  }
+
+  public UserAgent userAgent() {
+    UserAgent ua = userAgent;
+    if (ua == null) {
+      synchronized (this) {
+        ua = userAgent;
+        if (ua == null) {
+          try {
+            userAgent = ua = rules.uaParser.parse(parser.input(agentString), null);
+            resolved();
+          } catch (BudgetedChars.Exceeded e) {
+            parser.timedOut();
+            userAgent = ua = Parser.TIMEOUT.userAgent;
+          }
+        }
+      }
+    }
+    return ua;
+  }
+
+  public OS os() {
+    OS os = this.os;
+    if (os == null) {
+      synchronized (this) {
+        os = this.os;
+        if (os == null) {
+          try {
+            this.os = os = rules.osParser.parse(parser.input(agentString), null);
+            resolved();
+          } catch (BudgetedChars.Exceeded e) {
+            parser.timedOut();
+            this.os = os = Parser.TIMEOUT.os;
+          }
+        }
+      }
+    }
+    return os;
+  }
+
+  /**
+   * Also parses the user agent, which the device rules depend on
+   */
+  public Device device() {
+    Device device = this.device;
+    if (device == null) {
+      synchronized (this) {
+        device = this.device;
+        if (device == null) {
+          UserAgent ua = userAgent();
+          if (ua == Parser.TIMEOUT.userAgent) {
+            // the device flags depend on the user agent family
+            return this.device = Parser.TIMEOUT.device;
+          }
+          try {
+            this.device = device = rules.deviceParser.parse(parser.input(agentString), ua.family,
+                null);
+            resolved();
+          } catch (BudgetedChars.Exceeded e) {
+            parser.timedOut();
+            this.device = device = Parser.TIMEOUT.device;
+          }
+        }
+      }
+    }
+    return device;
+  }
+
+  /**
+   * Hands what is parsed so far to the parser for caching, leaving out components over budget
+   */
+  private void resolved() {
+    UserAgent ua = userAgent == Parser.TIMEOUT.userAgent ? null : userAgent;
+    OS os = this.os == Parser.TIMEOUT.os ? null : this.os;
+    Device device = this.device == Parser.TIMEOUT.device ? null : this.device;
+    parser.resolved(agentString, new Client(ua, os, device), rules);
+  }
+
+  public boolean isSpider() {
+    return device().isSpider || userAgent().isSpider;
+  }
+
+  /**
+   * @return the fully parsed client
+   */
+  public Client toClient() {
+    return new Client(userAgent(), os(), device());
+  }
+
+  @Override
+  public String toString() {
+    return String.format("{user_agent: %s, os: %s, device: %s}", userAgent, os, device);
+  }
+}
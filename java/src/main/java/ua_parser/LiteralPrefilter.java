@@ -0,0 +1,226 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package ua_parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Aho-Corasick automaton over the literals each rule of a parser needs (see {@link RegexLiterals}).
+ * A single pass over a user agent yields the rules that can possibly match it; the caller still
+ * evaluates those in file order, so first-match results are the same as trying every rule.
+ *
+ * Matching is case-insensitive ({@link #fold(char)} on both sides), which only ever adds candidates.
+ *
+ * @author Adrian Muraru (@adimuraru)
+ */
+final class LiteralPrefilter {
+  private static final char[] ASCII_FOLD = new char[128];
+
+  static {
+    for (char c = 0; c < ASCII_FOLD.length; c++) {
+      ASCII_FOLD[c] = Character.toLowerCase(c);
+    }
+  }
+
+  /** rules without a usable literal, candidates for every input */
+  private final long[] always;
+
+  // trie nodes, node 0 is the root
+  private final int[] rootNext = new int[128];
+  private final char[][] keys;
+  private final int[][] next;
+  private final int[] fail;
+  /** rules whose literal ends at a node */
+  private final int[][] rules;
+  /** nearest node on the fail chain that has rules, -1 if none */
+  private final int[] outputLink;
+
+  /**
+   * @param literals per rule, null for a rule that can match anything and an empty set for a rule
+   *        that matches nothing
+   */
+  LiteralPrefilter(List<Set<String>> literals) {
+    int ruleCount = literals.size();
+    this.always = new long[words(ruleCount)];
+
+    List<TreeMap<Character, Integer>> trie = new ArrayList<TreeMap<Character, Integer>>();
+    List<List<Integer>> ends = new ArrayList<List<Integer>>();
+    trie.add(new TreeMap<Character, Integer>());
+    ends.add(new ArrayList<Integer>());
+    for (int rule = 0; rule < ruleCount; rule++) {
+      Set<String> ruleLiterals = literals.get(rule);
+      if (ruleLiterals == null || ruleLiterals.contains("")) {
+        always[rule >>> 6] |= 1L << rule;
+        continue;
+      }
+      for (String literal : ruleLiterals) {
+        int node = 0;
+        for (int i = 0; i < literal.length(); i++) {
+          char c = fold(literal.charAt(i));
+          Integer child = trie.get(node).get(c);
+          if (child == null) {
+            child = trie.size();
+            trie.add(new TreeMap<Character, Integer>());
+            ends.add(new ArrayList<Integer>());
+            trie.get(node).put(c, child);
+          }
+          node = child;
+        }
+        ends.get(node).add(rule);
+      }
+    }
+
+    int size = trie.size();
+    keys = new char[size][];
+    next = new int[size][];
+    rules = new int[size][];
+    for (int node = 0; node < size; node++) {
+      TreeMap<Character, Integer> children = trie.get(node);
+      keys[node] = new char[children.size()];
+      next[node] = new int[children.size()];
+      int i = 0;
+      for (java.util.Map.Entry<Character, Integer> child : children.entrySet()) {
+        keys[node][i] = child.getKey();
+        next[node][i++] = child.getValue();
+      }
+      List<Integer> nodeRules = ends.get(node);
+      rules[node] = new int[nodeRules.size()];
+      for (i = 0; i < rules[node].length; i++) {
+        rules[node][i] = nodeRules.get(i);
+      }
+    }
+
+    for (int i = 0; i < keys[0].length; i++) {
+      if (keys[0][i] < 128) {
+        rootNext[keys[0][i]] = next[0][i];
+      }
+    }
+
+    // breadth first, so the fail target of a node is always resolved before the node itself
+    fail = new int[size];
+    outputLink = new int[size];
+    outputLink[0] = -1;
+    LinkedList<Integer> queue = new LinkedList<Integer>();
+    for (int child : next[0]) {
+      fail[child] = 0;
+      outputLink[child] = -1;
+      queue.add(child);
+    }
+    while (!queue.isEmpty()) {
+      int node = queue.removeFirst();
+      for (int i = 0; i < keys[node].length; i++) {
+        char c = keys[node][i];
+        int child = next[node][i];
+        int f = fail[node];
+        int target;
+        while ((target = child(f, c)) < 0 && f != 0) {
+          f = fail[f];
+        }
+        fail[child] = target < 0 ? 0 : target;
+        outputLink[child] = rules[fail[child]].length > 0 ? fail[child] : outputLink[fail[child]];
+        queue.add(child);
+      }
+    }
+  }
+
+  /**
+   * Case folding used on both literals and input: maps upper and title case (and the Turkish
+   * dotted/dotless i) onto the same lower case char.
+   */
+  static char fold(char c) {
+    return c < 128 ? ASCII_FOLD[c] : Character.toLowerCase(Character.toUpperCase(c));
+  }
+
+  /**
+   * @return bit set (see {@link #nextCandidate}) of the rules that may match agentString
+   */
+  long[] candidates(CharSequence agentString) {
+    long[] candidates = always.clone();
+    int node = 0;
+    for (int i = 0, length = agentString.length(); i < length; i++) {
+      char c = fold(agentString.charAt(i));
+      int target;
+      while ((target = child(node, c)) < 0 && node != 0) {
+        node = fail[node];
+      }
+      node = target < 0 ? 0 : target;
+      for (int out = rules[node].length > 0 ? node : outputLink[node]; out > 0;
+          out = outputLink[out]) {
+        for (int rule : rules[out]) {
+          candidates[rule >>> 6] |= 1L << rule;
+        }
+      }
+    }
+    return candidates;
+  }
+
+  /**
+   * @return the first candidate rule at or after from, -1 if none
+   */
+  static int nextCandidate(long[] candidates, int from) {
+    int word = from >>> 6;
+    if (word >= candidates.length) {
+      return -1;
+    }
+    long bits = candidates[word] & (-1L << from);
+    while (true) {
+      if (bits != 0) {
+        return (word << 6) + Long.numberOfTrailingZeros(bits);
+      }
+      if (++word == candidates.length) {
+        return -1;
+      }
+      bits = candidates[word];
+    }
+  }
+
+  /**
+   * @return the bits from, from + 1, ... from + count - 1 of a candidate set, shifted down to 0
+   */
+  static long[] slice(long[] candidates, int from, int count) {
+    long[] slice = new long[words(count)];
+    for (int i = 0; i < slice.length; i++) {
+      int bit = from + (i << 6);
+      int word = bit >>> 6, shift = bit & 63;
+      long bits = word < candidates.length ? candidates[word] >>> shift : 0;
+      if (shift != 0 && word + 1 < candidates.length) {
+        bits |= candidates[word + 1] << (64 - shift);
+      }
+      slice[i] = bits;
+    }
+    if ((count & 63) != 0) {
+      slice[slice.length - 1] &= (1L << (count & 63)) - 1;
+    }
+    return slice;
+  }
+
+  private int child(int node, char c) {
+    if (node == 0 && c < 128) {
+      int target = rootNext[c];
+      return target == 0 ? -1 : target;
+    }
+    int i = Arrays.binarySearch(keys[node], c);
+    return i < 0 ? -1 : next[node][i];
+  }
+
+  private static int words(int bits) {
+    return (bits + 63) >>> 6;
+  }
+}
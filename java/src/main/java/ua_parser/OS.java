@@ -26,15 +26,15 @@ import java.util.Map;
 public class OS {
   private static final String UNKNOWN = "unknown";
 
-  private final String family;
+  final String family;
 
-  private final String major;
+  final String major;
 
-  private final String minor;
+  final String minor;
 
-  private final String patch;
+  final String patch;
 
-  private final String patchMinor;
+  final String patchMinor;
 
   public OS(String family, String major, String minor, String patch, String patchMinor) {
     this.family = family;
@@ -16,11 +16,13 @@
 
 package ua_parser;
 
+import java.util.regex.MatchResult;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Operating System parser using ua-parser. Extracts OS information from user agent strings.
@@ -28,29 +30,84 @@ import java.util.Map;
  * @author Steve Jiang (@sjiang) <gh at iamsteve com>
  */
 public class OSParser {
+  /** distinct results shared rather than copied, see {@link BoundedInterner} */
+  private static final int INTERNED_RESULTS = 8192;
+
   private final List<OSPattern> patterns;
+  private final BoundedInterner<OS> interner = new BoundedInterner<OS>(INTERNED_RESULTS);
+  final RuleChain<OS> rules;
 
   public OSParser(List<OSPattern> patterns) {
+    this(patterns, null);
+  }
+
+  /**
+   * @param literals per pattern, see {@link RegexLiterals}, null to extract them here
+   */
+  OSParser(List<OSPattern> patterns, List<Set<String>> literals) {
     this.patterns = patterns;
+    List<Pattern> regexes = new ArrayList<Pattern>(patterns.size());
+    for (OSPattern pattern : patterns) {
+      regexes.add(pattern.pattern);
+    }
+    if (literals == null) {
+      literals = new ArrayList<Set<String>>(patterns.size());
+      for (OSPattern pattern : patterns) {
+        literals.add(RegexLiterals.required(pattern.pattern));
+      }
+    }
+    this.rules = new RuleChain<OS>(regexes, literals) {
+      @Override
+      OS match(int rule, ParseInput input) {
+        MatchResult match = find(rule, input.agentString);
+        return match == null ? null : OSParser.this.patterns.get(rule).result(match);
+      }
+    };
+    // few, short rules that almost every user agent goes through: always worth the set
+    rules.setRegexSetEnabled(true);
   }
 
   public static OSParser fromList(List<Map> configList) {
+    return fromList(configList, null);
+  }
+
+  static OSParser fromList(List<Map> configList, List<Set<String>> literals) {
     List<OSPattern> configPatterns = new ArrayList<OSPattern>();
 
     for (Map<String,String> configMap : configList) {
       configPatterns.add(OSParser.patternFromMap(configMap));
     }
-    return new OSParser(configPatterns);
+    return new OSParser(configPatterns, literals);
   }
 
   public OS parse(String agentString) {
-    OS os;
-    for (OSPattern p : patterns) {
-      if ((os = p.match(agentString)) != null) {
-        return os;
-      }
-    }
-    return new OS("Other", null, null, null, null);
+    return parse(new ParseInput(agentString), null);
+  }
+
+  /**
+   * @param candidates prefilter candidates computed by the caller, or null
+   */
+  OS parse(ParseInput input, long[] candidates) {
+    OS os = rules.first(input, candidates);
+    return interner.intern(os == null ? new OS("Other", null, null, null, null) : os);
+  }
+
+  /**
+   * Tries every pattern in order, without the literal prefilter or the regex set
+   */
+  OS parseUnfiltered(String agentString) {
+    OS os = rules.firstUnfiltered(new ParseInput(agentString));
+    return os == null ? new OS("Other", null, null, null, null) : os;
+  }
+
+  /**
+   * @return where the regex of the given rule first matches, null if nowhere, valid until the next
+   *         find of the rule on the same thread; overridden by the parsers {@link ParserGenerator}
+   *         generates
+   */
+  MatchResult find(int rule, CharSequence agentString) {
+    Matcher matcher = rules.matcher(rule, agentString);
+    return matcher.find() ? matcher : null;
   }
 
   protected static OSPattern patternFromMap(Map<String, String> configMap) {
@@ -77,13 +134,16 @@ public class OSParser {
     }
 
     public OS match(String agentString) {
-      String family = null, v1 = null, v2 = null, v3 = null, v4 = null;
-      Matcher matcher = pattern.matcher(agentString);
+      return match((CharSequence) agentString);
+    }
 
-      if (!matcher.find()) {
-        return null;
-      }
+    public OS match(CharSequence agentString) {
+      Matcher matcher = pattern.matcher(agentString);
+      return matcher.find() ? result(matcher) : null;
+    }
 
+    OS result(MatchResult matcher) {
+      String family = null, v1 = null, v2 = null, v3 = null, v4 = null;
       int groupCount = matcher.groupCount();
 
       if (osReplacement != null) {
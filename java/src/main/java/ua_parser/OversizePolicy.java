@@ -0,0 +1,29 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package ua_parser;
+
+/**
+ * What {@link Parser} does with a user agent longer than its maximum length, see
+ * {@link Parser#setMaxLength}
+ *
+ * @author Adrian Muraru (@adimuraru)
+ */
+public enum OversizePolicy {
+  /** parses and caches the first maximum length chars only */
+  TRUNCATE,
+  /** parses nothing and returns {@link Parser#OVERSIZE} */
+  REJECT
+}
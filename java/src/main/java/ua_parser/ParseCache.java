@@ -0,0 +1,113 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package ua_parser;
+
+import java.util.List;
+
+/**
+ * Cache of parse results used by {@link Parser}, see {@link TinyLfuCache} for the default one.
+ * Implementations are called concurrently by all the threads sharing a parser. Keys are user agents,
+ * prefixed for the results of {@link Parser#parse(String, java.util.EnumSet)}.
+ *
+ * @author Adrian Muraru (@adimuraru)
+ */
+public interface ParseCache {
+
+  /**
+   * @return the cached client for agentString, null if none. Its components not parsed yet by a
+   *         {@link LazyClient} are null. agentString is not always a String, e.g. when parsing from
+   *         bytes, and matches the key put with the same content.
+   */
+  Client get(CharSequence agentString);
+
+  void put(String agentString, Client client);
+
+  long size();
+
+  /**
+   * @return up to count cached keys, those most likely to be asked for again first, see
+   *         {@link Parser#reload}
+   */
+  List<String> hottestKeys(int count);
+
+  void clear();
+
+  /**
+   * @return counters since creation, all zero if the cache does not record them
+   */
+  Stats stats();
+
+  /**
+   * Snapshot of the cache counters
+   */
+  public static final class Stats {
+    private final long hitCount, missCount, evictionCount, rejectionCount;
+
+    public Stats(long hitCount, long missCount, long evictionCount) {
+      this(hitCount, missCount, evictionCount, 0);
+    }
+
+    /**
+     * @param rejectionCount new entries the cache left out rather than evict another one for
+     */
+    public Stats(long hitCount, long missCount, long evictionCount, long rejectionCount) {
+      this.hitCount = hitCount;
+      this.missCount = missCount;
+      this.evictionCount = evictionCount;
+      this.rejectionCount = rejectionCount;
+    }
+
+    public long hitCount() {
+      return hitCount;
+    }
+
+    public long missCount() {
+      return missCount;
+    }
+
+    /**
+     * @return entries removed to make room for new ones, rejections excluded
+     */
+    public long evictionCount() {
+      return evictionCount;
+    }
+
+    /**
+     * @return new entries left out by an admission policy, see {@link TinyLfuCache}
+     */
+    public long rejectionCount() {
+      return rejectionCount;
+    }
+
+    public long requestCount() {
+      return hitCount + missCount;
+    }
+
+    /**
+     * @return hits over requests, 1 when there was no request
+     */
+    public double hitRate() {
+      long requests = requestCount();
+      return requests == 0 ? 1.0 : (double) hitCount / requests;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("{hits: %d, misses: %d, evictions: %d, rejections: %d}", hitCount,
+          missCount, evictionCount, rejectionCount);
+    }
+  }
+}
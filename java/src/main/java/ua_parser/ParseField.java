@@ -0,0 +1,58 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package ua_parser;
+
+import java.util.EnumSet;
+
+/**
+ * The outputs a caller of {@link Parser#parse(String, EnumSet)} needs, so that only the rule lists
+ * they depend on run
+ *
+ * @author Adrian Muraru (@adimuraru)
+ */
+public enum ParseField {
+  /** {@link Client#userAgent} */
+  USER_AGENT,
+  /** {@link Client#os} */
+  OS,
+  /** {@link Client#device}, family and flags */
+  DEVICE,
+  /** {@link Device#isMobile} alone */
+  MOBILE,
+  /** {@link Device#isSpider} alone */
+  SPIDER;
+
+  /**
+   * @return a bit per field, never 0, see {@link #fromMask}
+   */
+  static int mask(EnumSet<ParseField> fields) {
+    int mask = 1 << values().length;
+    for (ParseField field : fields) {
+      mask |= 1 << field.ordinal();
+    }
+    return mask;
+  }
+
+  static EnumSet<ParseField> fromMask(int mask) {
+    EnumSet<ParseField> fields = EnumSet.noneOf(ParseField.class);
+    for (ParseField field : values()) {
+      if ((mask & 1 << field.ordinal()) != 0) {
+        fields.add(field);
+      }
+    }
+    return fields;
+  }
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package ua_parser;
+
+/**
+ * A user agent being parsed, with the derived forms the rules share so they are computed at most
+ * once per parse
+ *
+ * @author Adrian Muraru (@adimuraru)
+ */
+final class ParseInput {
+  final CharSequence agentString;
+  private String lowerCase;
+
+  ParseInput(CharSequence agentString) {
+    this.agentString = agentString;
+  }
+
+  /**
+   * @return agentString.toLowerCase(), null for a null agentString
+   */
+  String lowerCase() {
+    if (lowerCase == null && agentString != null) {
+      lowerCase = agentString.toString().toLowerCase();
+    }
+    return lowerCase;
+  }
+
+  boolean isEmpty() {
+    return agentString == null || agentString.length() == 0;
+  }
+}
@@ -14,19 +14,24 @@
 
 package ua_parser;
 
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
-
-import org.yaml.snakeyaml.Yaml;
-import org.yaml.snakeyaml.constructor.SafeConstructor;
-
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 /**
  * Java implementation of <a href="https://github.com/tobie/ua-parser">UA Parser</a>
@@ -36,17 +41,52 @@ import java.util.Set;
  */
 public class Parser {
 
-  private static final int MIN_CACHE_SIZE = 1000;
   private static final int MAX_CACHE_SIZE = 150000;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  /** distinct clients shared rather than copied, see {@link BoundedInterner} */
+  private static final int INTERNED_CLIENTS = 32768;
+  /** distinct user agents a batch task parses itself rather than splitting further */
+  private static final int BATCH_SPLIT_SIZE = 256;
   //precise set of detection rules but slower, based on regexes exclusively
   public static final String REGEX_YAML_PATH_FULL = "/ua_parser/regexes.yaml";
   //faster but less precise set of detection rules
   public static final String REGEX_YAML_PATH_MINIMAL = "/ua_parser/regexes.minimal.yaml";
-  private UserAgentParser uaParser;
-  private OSParser osParser;
-  private DeviceParser deviceParser;
-  Cache<String, Client> uaCache;
-  private boolean disableCache = true;
+  //the same rules precompiled, see RuleSnapshot
+  public static final String SNAPSHOT_PATH_FULL = "/ua_parser/regexes.snapshot";
+  public static final String SNAPSHOT_PATH_MINIMAL = "/ua_parser/regexes.minimal.snapshot";
+  //results of the most frequent user agents under the full rules, see AgentTable; only in jars
+  //built with the agent-table profile from a sample of real traffic
+  public static final String AGENT_TABLE_PATH_FULL = "/ua_parser/regexes.agents";
+  /**
+   * Result of a parse running out of its budget, see {@link #setParseBudget}. Its families are all
+   * "Other" and it equals a genuine "Other" result: identity is the only way to tell it apart, so
+   * equality keyed consumers such as {@link AccessLogParser#count} and {@link ClientAggregator}
+   * count it as Other. Never cached.
+   */
+  public static final Client TIMEOUT = other();
+  /** Result of a user agent rejected by {@link OversizePolicy#REJECT}, same as {@link #TIMEOUT} */
+  public static final Client OVERSIZE = other();
+  private static final int TIMEOUTS = 0, OVERSIZED = 1;
+  /** swapped as a whole by {@link #reload}, each parse sticks to the one it started with */
+  volatile CompiledRules rules;
+  // settings applied to reloaded rules too, guarded by this
+  private boolean regexSetEnabled;
+  private final BoundedInterner<Client> clients = new BoundedInterner<Client>(INTERNED_CLIENTS);
+  /** null when caching is disabled */
+  ParseCache uaCache;
+  /** null unless set, consulted ahead of the cache */
+  private volatile AgentTable agentTable;
+  private final ClientDictionary dictionary = new ClientDictionary();
+  /** null for the shared default pool */
+  private volatile ForkJoinPool batchPool;
+  /** null unless metrics are enabled */
+  private volatile ParserStats stats;
+  // see setParseBudget and setMaxLength
+  private volatile long maxSteps, timeoutNanos;
+  private volatile int maxLength = Integer.MAX_VALUE;
+  private volatile OversizePolicy oversizePolicy = OversizePolicy.TRUNCATE;
+  /** timeouts and rejected user agents since creation */
+  private final StripedCounters guards = new StripedCounters(2);
 
   public Parser() {
     this(Parser.class.getResourceAsStream(REGEX_YAML_PATH_MINIMAL), false);
@@ -57,81 +97,742 @@ public class Parser {
   }
 
   public Parser(InputStream regexYaml, boolean disableCache) {
-    initialize(regexYaml, disableCache);
+    this(regexYaml, disableCache ? null : new TinyLfuCache(MAX_CACHE_SIZE));
+  }
+
+  /**
+   * @param cache where parse results are kept, null to disable caching
+   */
+  public Parser(InputStream regexYaml, ParseCache cache) {
+    this(RuleSnapshot.fromYaml(regexYaml), cache);
+  }
+
+  /**
+   * Sets the parser up from precompiled rules, faster than reading the yaml, e.g.
+   * <code>new Parser(RuleSnapshot.read(Parser.class.getResourceAsStream(SNAPSHOT_PATH_FULL)))</code>
+   */
+  public Parser(RuleSnapshot rules) {
+    this(rules, new TinyLfuCache(MAX_CACHE_SIZE));
+  }
+
+  /**
+   * @param cache where parse results are kept, null to disable caching
+   */
+  public Parser(RuleSnapshot rules, ParseCache cache) {
+    this.rules = new CompiledRules(rules);
+    this.uaCache = cache;
+    dictionary.addRules(rules);
+  }
+
+  /**
+   * Parses with the given parsers, e.g. those {@link ParserGenerator} generates:
+   * <code>new Parser(ua, new GeneratedOSParser(), new GeneratedDeviceParser(ua), cache)</code> with
+   * <code>ua = new GeneratedUserAgentParser()</code>. {@link #reload} replaces them with parsers
+   * interpreting the new rules.
+   *
+   * @param deviceParser set up with the given uaParser
+   * @param cache where parse results are kept, null to disable caching
+   */
+  public Parser(UserAgentParser uaParser, OSParser osParser, DeviceParser deviceParser,
+      ParseCache cache) {
+    this.rules = new CompiledRules(uaParser, osParser, deviceParser);
+    this.uaCache = cache;
   }
 
   public Client parse(String agentString) {
+    agentString = (String) limit(agentString);
+    if (agentString == null) {
+      return OVERSIZE;
+    }
+    Client tabled = tabled(agentString);
+    if (tabled != null) {
+      return tabled;
+    }
 
     // lookup cache if enabled
-    if (!disableCache) {
-      Client client = uaCache.getIfPresent(agentString);
+    String key = null;
+    Client cached = null;
+    if (uaCache != null) {
+      key = cacheKey(agentString);
+      cached = uaCache.get(key);
+      if (cached != null && isComplete(cached)) {
+        return cached;
+      }
+    }
+    CompiledRules rules = this.rules;
+    Client client = load(rules, agentString, cached);
+    if (uaCache != null && client != TIMEOUT) {
+      cache(key, client, rules);
+    }
+    return client;
+  }
+
+  /**
+   * Same as {@link #parse(String)} for a user agent held in another char sequence, which is only
+   * copied to a string when its result gets cached. The sequence must not change while parsing.
+   */
+  public Client parse(CharSequence agentString) {
+    if (agentString instanceof String
+        || (agentString.length() > 0 && agentString.charAt(0) == '\0')) {
+      return parse(agentString.toString());
+    }
+    agentString = limit(agentString);
+    if (agentString == null) {
+      return OVERSIZE;
+    }
+    Client tabled = tabled(agentString);
+    if (tabled != null) {
+      return tabled;
+    }
+    if (uaCache == null) {
+      return load(this.rules, agentString, (Client) null);
+    }
+    Client cached = uaCache.get(agentString);
+    if (cached != null && isComplete(cached)) {
+      return cached;
+    }
+    CompiledRules rules = this.rules;
+    Client client = load(rules, agentString, cached);
+    if (client != TIMEOUT) {
+      cache(agentString.toString(), client, rules);
+    }
+    return client;
+  }
+
+  /**
+   * Parses the user agent in the UTF-8 bytes buf[off, off + len), without decoding them when they
+   * are all ASCII as user agents usually are. The bytes must not change while parsing,
+   * and are no longer referenced once it returns.
+   */
+  public Client parse(byte[] buf, int off, int len) {
+    if (off < 0 || len < 0 || off > buf.length - len) {
+      throw new IndexOutOfBoundsException("off " + off + ", len " + len + ", length " + buf.length);
+    }
+    if (AsciiBytes.isAscii(buf, off, len)) {
+      return parse(new AsciiBytes(buf, off, len));
+    }
+    return parse(new String(buf, off, len, UTF_8));
+  }
+
+  /**
+   * Same as {@link #parse(String)}, returning the ids of the result in {@link #getDictionary()}
+   * rather than the result. Results of cached user agents are not copied or built at all.
+   */
+  public long parseIds(String agentString) {
+    return dictionary.ids(parse(agentString));
+  }
+
+  /**
+   * Same as {@link #parseIds(String)} for the user agent of {@link #parse(byte[], int, int)}
+   */
+  public long parseIds(byte[] buf, int off, int len) {
+    return dictionary.ids(parse(buf, off, len));
+  }
+
+  /**
+   * @return the ids of the families and versions this parser parsed or knows from its rules, kept
+   *         across reloads
+   */
+  public ClientDictionary getDictionary() {
+    return dictionary;
+  }
+
+  /**
+   * Bounds the work of each parse, so that hostile user agents making the regexes backtrack
+   * catastrophically cannot hold a thread for long. A parse over budget returns {@link #TIMEOUT}
+   * and is counted, see {@link ParserMetrics#getTimeoutCount()}. Off by default.
+   *
+   * @param maxSteps chars the rules of a parse may read, about the regex steps, 0 for no limit
+   * @param timeoutNanos time a parse may take, checked every thousand or so steps, 0 for no limit
+   */
+  public void setParseBudget(long maxSteps, long timeoutNanos) {
+    if (maxSteps < 0 || timeoutNanos < 0) {
+      throw new IllegalArgumentException(
+          "negative parse budget: " + maxSteps + " steps, " + timeoutNanos + "ns");
+    }
+    this.maxSteps = maxSteps;
+    this.timeoutNanos = timeoutNanos;
+  }
+
+  /**
+   * Sets what to do with user agents longer than maxLength chars, kept whole by default. Rejected
+   * ones are counted, see {@link ParserMetrics#getOversizeCount()}.
+   */
+  public void setMaxLength(int maxLength, OversizePolicy policy) {
+    if (maxLength <= 0) {
+      throw new IllegalArgumentException("maxLength must be positive: " + maxLength);
+    }
+    this.oversizePolicy = policy;
+    this.maxLength = maxLength;
+  }
+
+  /**
+   * @return the user agent cut to the maximum length, null if over it and rejected
+   * @throws NullPointerException if agentString is null, as before limits existed
+   */
+  private CharSequence limit(CharSequence agentString) {
+    if (agentString == null) {
+      throw new NullPointerException("agentString");
+    }
+    int maxLength = this.maxLength;
+    if (agentString.length() <= maxLength) {
+      return agentString;
+    }
+    if (oversizePolicy == OversizePolicy.REJECT) {
+      guards.increment(OVERSIZED);
+      return null;
+    }
+    return agentString.subSequence(0, maxLength);
+  }
+
+  /**
+   * @return the input of a parse, reading the user agent within the budget
+   */
+  ParseInput input(CharSequence agentString) {
+    long maxSteps = this.maxSteps, timeoutNanos = this.timeoutNanos;
+    return new ParseInput(maxSteps == 0 && timeoutNanos == 0 ? agentString
+        : new BudgetedChars(agentString, maxSteps, timeoutNanos));
+  }
+
+  void timedOut() {
+    guards.increment(TIMEOUTS);
+  }
+
+  long timeoutCount() {
+    return guards.get(TIMEOUTS);
+  }
+
+  long oversizeCount() {
+    return guards.get(OVERSIZED);
+  }
+
+  private static Client other() {
+    return new Client(new UserAgent("Other", null, null, null),
+        new OS("Other", null, null, null, null), new Device("Other", false, false));
+  }
+
+  /**
+   * @param cached what a lazy client parsed already, or null
+   * @return the client, {@link #TIMEOUT} if over budget
+   */
+  private Client load(CompiledRules rules, CharSequence agentString, Client cached) {
+    ParserStats stats = this.stats;
+    long start = stats == null ? 0 : System.nanoTime();
+    ParseInput input = input(agentString);
+    UserAgent ua;
+    OS os;
+    Device device;
+    try {
+      long[] candidates = rules.candidates(input);
+      ua = cached != null && cached.userAgent != null ? cached.userAgent
+          : rules.uaParser.parse(input, rules.uaCandidates(candidates));
+      os = cached != null && cached.os != null ? cached.os
+          : rules.osParser.parse(input, rules.osCandidates(candidates));
+      device = cached != null && cached.device != null ? cached.device
+          : rules.deviceParser.parse(input, ua.family, rules.deviceCandidates(candidates));
+    } catch (BudgetedChars.Exceeded e) {
+      timedOut();
+      return TIMEOUT;
+    }
+    Client client = clients.intern(new Client(ua, os, device));
+    if (stats != null) {
+      stats.recordLoad(System.nanoTime() - start);
+    }
+    return client;
+  }
+
+  /**
+   * Caches a result of the given rules. Should a reload have swapped them meanwhile, maybe after it
+   * cleared the cache, the entry is overwritten with a result of the current rules, or left as is
+   * if that parse runs out of budget.
+   */
+  private void cache(String key, Client client, CompiledRules rules) {
+    uaCache.put(key, client);
+    for (CompiledRules current = this.rules; current != rules; current = this.rules) {
+      rules = current;
+      client = reparse(rules, key);
+      if (client == TIMEOUT) {
+        return;
+      }
+      uaCache.put(key, client);
+    }
+  }
+
+  /**
+   * Runs only the rules the given fields depend on: the user agent ones for any of them but OS,
+   * the OS ones for {@link ParseField#OS} alone, and the device ones for {@link ParseField#DEVICE},
+   * or for {@link ParseField#MOBILE} and {@link ParseField#SPIDER} unless the user agent family
+   * settles them. Results are cached apart from those of {@link #parse(String)}.
+   *
+   * @return a client whose components the fields do not ask for may be null; when only flags are
+   *         asked for, the device family and the other flags are unreliable
+   */
+  public Client parse(String agentString, EnumSet<ParseField> fields) {
+    if (fields.contains(ParseField.USER_AGENT) && fields.contains(ParseField.OS)
+        && fields.contains(ParseField.DEVICE)) {
+      return parse(agentString);
+    }
+    agentString = (String) limit(agentString);
+    if (agentString == null) {
+      return OVERSIZE;
+    }
+    Client tabled = tabled(agentString);
+    if (tabled != null) {
+      return tabled;
+    }
+    String key = null;
+    if (uaCache != null) {
+      key = cacheKey(agentString, fields);
+      Client client = uaCache.get(key);
       if (client != null) {
         return client;
       }
     }
-    UserAgent ua = parseUserAgent(agentString);
-    OS os = parseOS(agentString);
-    Device device = deviceParser.parse(agentString, (ua == null ? null : ua.family));
-    Client client = new Client(ua, os, device);
-    if (!disableCache) {
-      uaCache.put(agentString, client);
+    CompiledRules rules = this.rules;
+    Client client = load(rules, agentString, fields);
+    if (uaCache != null && client != TIMEOUT) {
+      cache(key, client, rules);
+    }
+    return client;
+  }
+
+  private Client load(CompiledRules rules, String agentString, EnumSet<ParseField> fields) {
+    ParserStats stats = this.stats;
+    long start = stats == null ? 0 : System.nanoTime();
+    ParseInput input = input(agentString);
+    boolean mobile = fields.contains(ParseField.MOBILE), spider = fields.contains(ParseField.SPIDER);
+    UserAgent ua = null;
+    OS os;
+    Device device = null;
+    try {
+      if (fields.contains(ParseField.USER_AGENT) || fields.contains(ParseField.DEVICE) || mobile
+          || spider) {
+        ua = rules.uaParser.parse(input, null);
+      }
+      os = fields.contains(ParseField.OS) ? rules.osParser.parse(input, null) : null;
+      if (fields.contains(ParseField.DEVICE)) {
+        device = rules.deviceParser.parse(input, ua.family, null);
+      } else if (mobile || spider) {
+        device = rules.deviceParser.flags(input, ua.family, mobile, spider, null);
+      }
+    } catch (BudgetedChars.Exceeded e) {
+      timedOut();
+      return TIMEOUT;
+    }
+    Client client = clients.intern(new Client(ua, os, device));
+    if (stats != null) {
+      stats.recordLoad(System.nanoTime() - start);
     }
     return client;
   }
 
+  /**
+   * Full results are keyed by the user agent itself and field selective ones by the user agent
+   * prefixed with '\0' and the field mask. User agents starting with '\0' get a second one, so
+   * that no two keys collide.
+   */
+  private static String cacheKey(String agentString) {
+    if (agentString != null && agentString.length() > 0 && agentString.charAt(0) == '\0') {
+      return "\0\0" + agentString;
+    }
+    return agentString;
+  }
+
+  private static String cacheKey(String agentString, EnumSet<ParseField> fields) {
+    return "\0" + (char) ParseField.mask(fields) + agentString;
+  }
+
+  /**
+   * Parses the user agent of a cache key again, asking for the same fields
+   */
+  private Client reparse(CompiledRules rules, String key) {
+    if (key.length() >= 2 && key.charAt(0) == '\0') {
+      if (key.charAt(1) == '\0') {
+        return load(rules, key.substring(2), (Client) null);
+      }
+      return load(rules, key.substring(2), ParseField.fromMask(key.charAt(1)));
+    }
+    return load(rules, key, (Client) null);
+  }
+
+  /**
+   * Parses nothing up front: the user agent, OS and device of the returned client are each parsed
+   * when first asked for. Cheaper than {@link #parse} for callers needing only some of them.
+   */
+  public LazyClient parseLazy(String agentString) {
+    CompiledRules rules = this.rules;
+    String limited = (String) limit(agentString);
+    if (limited == null) {
+      return new LazyClient(this, rules, agentString, OVERSIZE);
+    }
+    Client tabled = tabled(limited);
+    if (tabled != null) {
+      return new LazyClient(this, rules, limited, tabled);
+    }
+    return new LazyClient(this, rules, limited,
+        uaCache == null ? null : uaCache.get(cacheKey(limited)));
+  }
+
+  /**
+   * @return the result of the agent table, null without a table or if not in it
+   */
+  private Client tabled(CharSequence agentString) {
+    AgentTable table = agentTable;
+    return table == null ? null : table.get(agentString);
+  }
+
+  /**
+   * Answers the user agents of the table from it, ahead of the cache and the rules, e.g. with
+   * <code>AgentTable.read(Parser.class.getResourceAsStream(AGENT_TABLE_PATH_FULL))</code> for a
+   * parser of the full rules. {@link #reload} drops the table if the new rules differ.
+   *
+   * @param table null to stop using one
+   * @throws IllegalArgumentException if the table was built with other rules than the parser's
+   */
+  public synchronized void setAgentTable(AgentTable table) {
+    if (table != null && table.ruleHash != rules.ruleHash) {
+      throw new IllegalArgumentException("agent table of other rules");
+    }
+    agentTable = table;
+  }
+
+  /**
+   * Caches what a lazy client parsed so far with the given rules, components not parsed yet being
+   * null. Components other threads cached meanwhile with the same rules are kept.
+   */
+  void resolved(String agentString, Client client, CompiledRules rules) {
+    if (uaCache == null) {
+      return;
+    }
+    String key = cacheKey(agentString);
+    Client cached = rules == this.rules ? uaCache.get(key) : null;
+    if (cached != null) {
+      if (isComplete(cached)) {
+        return;
+      }
+      client = new Client(client.userAgent != null ? client.userAgent : cached.userAgent,
+          client.os != null ? client.os : cached.os,
+          client.device != null ? client.device : cached.device);
+    }
+    cache(key, isComplete(client) ? clients.intern(client) : client, rules);
+  }
+
+  private static boolean isComplete(Client client) {
+    return client.userAgent != null && client.os != null && client.device != null;
+  }
+
+  /**
+   * Parses a batch of user agents on the {@link #setBatchPool batch pool}. Each distinct user agent
+   * is parsed (and cached) once.
+   *
+   * @return the clients, in the order of agentStrings
+   */
+  public List<Client> parseBatch(List<String> agentStrings) {
+    return Arrays.asList(parseBatch(agentStrings.toArray(new String[agentStrings.size()])));
+  }
+
+  /**
+   * Same as {@link #parseBatch(List)}
+   */
+  public Client[] parseBatch(String[] agentStrings) {
+    Map<String, Integer> distinctIndex = new HashMap<String, Integer>();
+    int[] slots = new int[agentStrings.length];
+    List<String> distinct = new ArrayList<String>();
+    for (int i = 0; i < agentStrings.length; i++) {
+      Integer slot = distinctIndex.get(agentStrings[i]);
+      if (slot == null) {
+        slot = distinct.size();
+        distinctIndex.put(agentStrings[i], slot);
+        distinct.add(agentStrings[i]);
+      }
+      slots[i] = slot;
+    }
+
+    BatchTask task = new BatchTask(distinct.toArray(new String[distinct.size()]),
+        new Client[distinct.size()], 0, distinct.size());
+    if (distinct.size() <= BATCH_SPLIT_SIZE) {
+      task.compute();
+    } else {
+      ForkJoinPool pool = batchPool;
+      (pool == null ? DefaultBatchPool.POOL : pool).invoke(task);
+    }
+
+    Client[] clients = new Client[agentStrings.length];
+    for (int i = 0; i < clients.length; i++) {
+      clients[i] = task.clients[slots[i]];
+    }
+    return clients;
+  }
+
+  /**
+   * Parses a batch of user agents on the {@link #setBatchPool batch pool} into columns of
+   * {@link #getDictionary()} ids, reusing the arrays of the columns. Repeated user agents are
+   * answered by the cache rather than parsed once per batch, so that no result or lookup table is
+   * made per row.
+   *
+   * @param columns filled with a row per user agent, in order, replacing the previous batch
+   */
+  public void parseBatch(List<String> agentStrings, ClientColumns columns) {
+    columns.reset(agentStrings.size());
+    ColumnsTask task = new ColumnsTask(agentStrings, columns, 0, agentStrings.size());
+    if (agentStrings.size() <= BATCH_SPLIT_SIZE) {
+      task.compute();
+    } else {
+      ForkJoinPool pool = batchPool;
+      (pool == null ? DefaultBatchPool.POOL : pool).invoke(task);
+    }
+    columns.finish();
+  }
+
+  /**
+   * @param pool where batches are parsed, null for a pool shared by all parsers with one thread
+   *        per core
+   */
+  public void setBatchPool(ForkJoinPool pool) {
+    this.batchPool = pool;
+  }
+
+  private static final class DefaultBatchPool {
+    static final ForkJoinPool POOL = new ForkJoinPool();
+  }
+
+  private final class BatchTask extends RecursiveAction {
+    final String[] agentStrings;
+    final Client[] clients;
+    final int from, to;
+
+    BatchTask(String[] agentStrings, Client[] clients, int from, int to) {
+      this.agentStrings = agentStrings;
+      this.clients = clients;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= BATCH_SPLIT_SIZE) {
+        for (int i = from; i < to; i++) {
+          clients[i] = parse(agentStrings[i]);
+        }
+        return;
+      }
+      int middle = (from + to) >>> 1;
+      invokeAll(new BatchTask(agentStrings, clients, from, middle),
+          new BatchTask(agentStrings, clients, middle, to));
+    }
+  }
+
+  private final class ColumnsTask extends RecursiveAction {
+    final List<String> agentStrings;
+    final ClientColumns columns;
+    final int from, to;
+
+    ColumnsTask(List<String> agentStrings, ClientColumns columns, int from, int to) {
+      this.agentStrings = agentStrings;
+      this.columns = columns;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= BATCH_SPLIT_SIZE) {
+        for (int i = from; i < to; i++) {
+          columns.set(i, parse(agentStrings.get(i)), dictionary);
+        }
+        return;
+      }
+      int middle = (from + to) >>> 1;
+      invokeAll(new ColumnsTask(agentStrings, columns, from, middle),
+          new ColumnsTask(agentStrings, columns, middle, to));
+    }
+  }
+
   public UserAgent parseUserAgent(String agentString) {
-    return uaParser.parse(agentString);
+    CharSequence limited = limit(agentString);
+    if (limited == null) {
+      return OVERSIZE.userAgent;
+    }
+    try {
+      return rules.uaParser.parse(input(limited), null);
+    } catch (BudgetedChars.Exceeded e) {
+      timedOut();
+      return TIMEOUT.userAgent;
+    }
   }
 
   public Device parseDevice(String agentString) {
-    return deviceParser.parse(agentString);
+    CharSequence limited = limit(agentString);
+    if (limited == null) {
+      return OVERSIZE.device;
+    }
+    CompiledRules rules = this.rules;
+    ParseInput input = input(limited);
+    try {
+      long[] candidates = rules.candidates(input);
+      UserAgent ua = rules.uaParser.parse(input, rules.uaCandidates(candidates));
+      return rules.deviceParser.parse(input, ua.family, rules.deviceCandidates(candidates));
+    } catch (BudgetedChars.Exceeded e) {
+      timedOut();
+      return TIMEOUT.device;
+    }
   }
 
   public OS parseOS(String agentString) {
-    return osParser.parse(agentString);
+    CharSequence limited = limit(agentString);
+    if (limited == null) {
+      return OVERSIZE.os;
+    }
+    try {
+      return rules.osParser.parse(input(limited), null);
+    } catch (BudgetedChars.Exceeded e) {
+      timedOut();
+      return TIMEOUT.os;
+    }
   }
 
-  private void initialize(InputStream regexYaml, boolean disableCache) {
-    Yaml yaml = new Yaml(new SafeConstructor());
-    Map<String, List> regexConfig = (Map<String, List>) yaml.load(regexYaml);
+  /**
+   * Parses with each of the three parsers scanning the user agent on its own, the reference for
+   * {@link #parse(String)}
+   */
+  Client parseSeparately(String agentString) {
+    CompiledRules rules = this.rules;
+    UserAgent ua = rules.uaParser.parse(agentString);
+    OS os = rules.osParser.parse(agentString);
+    Device device = rules.deviceParser.parse(agentString, (ua == null ? null : ua.family));
+    return new Client(ua, os, device);
+  }
 
-    List<Map> uaParserConfigs = regexConfig.get("user_agent_parsers");
-    if (uaParserConfigs == null) {
-      throw new IllegalArgumentException("user_agent_parsers is missing from yaml");
-    }
-    uaParser = UserAgentParser.fromList(uaParserConfigs);
+  /**
+   * Also matches the user agent and device rules with a single automaton each instead of one regex
+   * after the other; OS rules always are. Results are the same either way.
+   */
+  public synchronized void setRegexSetEnabled(boolean enabled) {
+    regexSetEnabled = enabled;
+    configure(rules);
+  }
 
-    List<Map> osParserConfigs = regexConfig.get("os_parsers");
-    if (osParserConfigs == null) {
-      throw new IllegalArgumentException("os_parsers is missing from yaml");
+  /**
+   * Starts or stops collecting {@link ParserMetrics}. Disabling drops the counts, and so does a
+   * {@link #reload} for the rule hits.
+   */
+  public synchronized void setMetricsEnabled(boolean enabled) {
+    if (!enabled) {
+      stats = null;
+    } else if (stats == null) {
+      stats = new ParserStats(this);
     }
-    osParser = OSParser.fromList(osParserConfigs);
+    configure(rules);
+  }
 
-    List<Map> deviceParserConfigs = regexConfig.get("device_parsers");
-    if (deviceParserConfigs == null) {
-      throw new IllegalArgumentException("device_parsers is missing from yaml");
-    }
-    List<String> mobileUAFamiliesList = regexConfig.get("mobile_user_agent_families");
-    List<String> mobileOSFamiliesList = regexConfig.get("mobile_os_families");
-    Set<String> mobileUAFamilies =
-        (mobileUAFamiliesList == null ? Collections.EMPTY_SET : new HashSet<String>(
-            mobileUAFamiliesList));
-    Set<String> mobileOSFamilies =
-        (mobileOSFamiliesList == null ? Collections.EMPTY_SET : new HashSet<String>(
-            mobileOSFamiliesList));
+  /**
+   * @return the metrics, null unless enabled
+   */
+  public ParserMetrics getMetrics() {
+    return stats;
+  }
+
+  /**
+   * Enables metrics and registers them with the platform MBean server as
+   * <code>ua_parser:type=Parser,name=&lt;name&gt;</code>
+   */
+  public ObjectName registerMetrics(String name) throws JMException {
+    setMetricsEnabled(true);
+    ObjectName objectName =
+        new ObjectName("ua_parser:type=Parser,name=" + ObjectName.quote(name));
+    ManagementFactory.getPlatformMBeanServer().registerMBean(stats, objectName);
+    return objectName;
+  }
+
+  private void configure(CompiledRules rules) {
+    rules.configure(regexSetEnabled, stats != null);
+  }
 
-    deviceParser =
-        DeviceParser.fromList(deviceParserConfigs, uaParser, mobileUAFamilies, mobileOSFamilies);
+  /**
+   * Same as {@link #reload(RuleSnapshot, int)}, with the rules of a regexes.yaml
+   */
+  public void reload(InputStream regexYaml, int warmCount) {
+    reload(RuleSnapshot.fromYaml(regexYaml), warmCount);
+  }
 
-    this.disableCache = disableCache;
-    if (!disableCache) {
-      uaCache =
-          CacheBuilder.newBuilder().maximumSize(MAX_CACHE_SIZE).initialCapacity(MIN_CACHE_SIZE)
-              .concurrencyLevel(1).build();
+  /**
+   * Replaces the rules all at once: each parse runs either the old rules or the new ones, never some
+   * of each. The new rules are set up on the calling thread while others keep parsing with the old
+   * ones. Cached results are dropped, except that the warmCount hottest cached user agents are
+   * parsed again with the new rules first and cached again right after the swap.
+   */
+  public synchronized void reload(RuleSnapshot snapshot, int warmCount) {
+    CompiledRules rules = new CompiledRules(snapshot);
+    configure(rules);
+    dictionary.addRules(snapshot);
+    List<String> keys = uaCache == null || warmCount <= 0 ? Collections.<String>emptyList()
+        : uaCache.hottestKeys(warmCount);
+    List<Client> warm = new ArrayList<Client>(keys.size());
+    for (String key : keys) {
+      warm.add(reparse(rules, key));
+    }
+
+    if (uaCache != null) {
+      uaCache.clear();
+    }
+    AgentTable table = agentTable;
+    if (table != null && table.ruleHash != rules.ruleHash) {
+      agentTable = null;
+    }
+    this.rules = rules;
+    if (uaCache != null) {
+      // again, for what was cached with the old rules in the meantime
+      uaCache.clear();
+      for (int i = 0; i < keys.size(); i++) {
+        if (warm.get(i) != TIMEOUT) {
+          uaCache.put(keys.get(i), warm.get(i));
+        }
+      }
     }
   }
 
-  public Cache<String, Client> getUaCache() {
+  /**
+   * @return the result cache, null when disabled
+   */
+  public ParseCache getUaCache() {
     return uaCache;
   }
+
+  /**
+   * Writes the cached results to a file, for {@link #importCache} to fill the cache of a parser
+   * with the same rules on its start, e.g. on shutdown. The file is replaced at once, never left
+   * half written.
+   *
+   * @return the number of results written
+   * @throws IllegalStateException if caching is disabled, or the parser was set up from parsers
+   *         rather than rules
+   */
+  public synchronized int exportCache(File file) throws IOException {
+    long ruleHash = ruleHash();
+    return CacheSnapshot.write(file, ruleHash, uaCache,
+        uaCache.hottestKeys((int) Math.min(uaCache.size(), Integer.MAX_VALUE)));
+  }
+
+  /**
+   * Caches the results {@link #exportCache} wrote, if they come from the same rules. The file is
+   * memory mapped and read in one pass.
+   *
+   * @return the number of results cached, 0 if the file was written with other rules
+   * @throws IOException if the file is not a complete export
+   * @throws IllegalStateException same as {@link #exportCache}
+   */
+  public synchronized int importCache(File file) throws IOException {
+    return CacheSnapshot.read(file, ruleHash(), uaCache);
+  }
+
+  private long ruleHash() {
+    if (uaCache == null) {
+      throw new IllegalStateException("caching is disabled");
+    }
+    long ruleHash = rules.ruleHash;
+    if (ruleHash == CompiledRules.UNKNOWN_HASH) {
+      throw new IllegalStateException("rules set up from parsers have no known hash");
+    }
+    return ruleHash;
+  }
 }
@@ -0,0 +1,805 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package ua_parser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Build step generating the Java source of GeneratedUserAgentParser, GeneratedOSParser and
+ * GeneratedDeviceParser from a regexes.yaml. Their rules are those of the yaml, but instead of
+ * interpreting a {@link Pattern} each regex is compiled to plain Java: literal prefixes are looked
+ * for with indexOf, alternatives are picked by a switch on the next char, char classes are tested
+ * with comparisons and quantified classes are loops, backtracking in the same order as the
+ * Pattern. Regexes using syntax {@link RegexNode} does not model, and quantified groups that can
+ * match the empty string, keep their Pattern. See {@link Parser#Parser(UserAgentParser, OSParser,
+ * DeviceParser, ParseCache)} to parse with the generated parsers.
+ *
+ * <code>ParserGenerator regexes.yaml outputDirectory</code>
+ *
+ * @author Adrian Muraru (@adimuraru)
+ */
+public final class ParserGenerator {
+  /** a complex group repeated more often than this keeps the Pattern */
+  private static final int MAX_UNROLLED = 8;
+  /** alternatives are only dispatched by a switch on at most this many first chars */
+  private static final int MAX_SWITCH_CHARS = 64;
+  /** char classes of more ranges are tested with a lookup */
+  private static final int MAX_INLINE_RANGES = 4;
+
+  private final List<Map> uaConfigs, osConfigs, deviceConfigs;
+  private final List<String> mobileUAFamilies, mobileOSFamilies;
+  private final List<Set<String>> uaLiterals, osLiterals, deviceLiterals;
+  /** rules whose regex was compiled to Java, per parser */
+  private int uaCompiled, osCompiled, deviceCompiled;
+
+  ParserGenerator(RuleSnapshot rules) {
+    this.uaConfigs = rules.uaParserConfigs;
+    this.osConfigs = rules.osParserConfigs;
+    this.deviceConfigs = rules.deviceParserConfigs;
+    this.mobileUAFamilies = rules.mobileUAFamilies;
+    this.mobileOSFamilies = rules.mobileOSFamilies;
+    this.uaLiterals = UserAgentParser.fromList(uaConfigs).rules.literals();
+    this.osLiterals = OSParser.fromList(osConfigs).rules.literals();
+    this.deviceLiterals = DeviceParser.fromList(deviceConfigs, null, null, null).rules.literals();
+  }
+
+  String userAgentParser() {
+    StringBuilder out = new StringBuilder();
+    header(out, "GeneratedUserAgentParser", "UserAgentParser", "user agent");
+    out.append("  public GeneratedUserAgentParser() {\n")
+        .append("    super(matchers(), GeneratedMatch.literals(LITERALS));\n")
+        .append("  }\n\n")
+        .append("  private static List<UAMatcher> matchers() {\n")
+        .append("    List<UAMatcher> matchers = new ArrayList<UAMatcher>();\n")
+        .append("    for (Map config : GeneratedMatch.configs(CONFIGS)) {\n")
+        .append("      matchers.add(patternFromMap(config));\n")
+        .append("    }\n")
+        .append("    return matchers;\n")
+        .append("  }\n\n");
+    Rules rules = rules(uaConfigs, uaLiterals, "UserAgent");
+    uaCompiled = rules.compiled;
+    out.append(rules.source).append("}\n");
+    return out.toString();
+  }
+
+  String osParser() {
+    StringBuilder out = new StringBuilder();
+    header(out, "GeneratedOSParser", "OSParser", "OS");
+    out.append("  public GeneratedOSParser() {\n")
+        .append("    super(patterns(), GeneratedMatch.literals(LITERALS));\n")
+        .append("  }\n\n")
+        .append("  private static List<OSPattern> patterns() {\n")
+        .append("    List<OSPattern> patterns = new ArrayList<OSPattern>();\n")
+        .append("    for (Map config : GeneratedMatch.configs(CONFIGS)) {\n")
+        .append("      patterns.add(patternFromMap(config));\n")
+        .append("    }\n")
+        .append("    return patterns;\n")
+        .append("  }\n\n");
+    Rules rules = rules(osConfigs, osLiterals, "OS");
+    osCompiled = rules.compiled;
+    out.append(rules.source).append("}\n");
+    return out.toString();
+  }
+
+  String deviceParser() {
+    StringBuilder out = new StringBuilder();
+    header(out, "GeneratedDeviceParser", "DeviceParser", "device");
+    out.append("  public GeneratedDeviceParser(UserAgentParser uaParser) {\n")
+        .append("    super(patterns(), GeneratedMatch.literals(LITERALS), uaParser,\n")
+        .append("        GeneratedMatch.set(").append(strings(mobileUAFamilies)).append("),\n")
+        .append("        GeneratedMatch.set(").append(strings(mobileOSFamilies)).append("));\n")
+        .append("  }\n\n")
+        .append("  private static List<DevicePattern> patterns() {\n")
+        .append("    List<DevicePattern> patterns = new ArrayList<DevicePattern>();\n")
+        .append("    for (Map config : GeneratedMatch.configs(CONFIGS)) {\n")
+        .append("      patterns.add(patternFromMap(config));\n")
+        .append("    }\n")
+        .append("    return patterns;\n")
+        .append("  }\n\n");
+    Rules rules = rules(deviceConfigs, deviceLiterals, "Device");
+    deviceCompiled = rules.compiled;
+    out.append(rules.source).append("}\n");
+    return out.toString();
+  }
+
+  private static void header(StringBuilder out, String name, String parent, String what) {
+    out.append("// Generated by ua_parser.ParserGenerator from regexes.yaml, do not edit\n\n")
+        .append("package ua_parser;\n\n")
+        .append("import java.util.ArrayList;\n")
+        .append("import java.util.List;\n")
+        .append("import java.util.Map;\n")
+        .append("import java.util.regex.MatchResult;\n\n")
+        .append("/**\n")
+        .append(" * The ").append(what)
+        .append(" rules of regexes.yaml with their regexes compiled to Java, see\n")
+        .append(" * {@link ParserGenerator}\n")
+        .append(" */\n")
+        .append("public class ").append(name).append(" extends ").append(parent).append(" {\n");
+  }
+
+  private static final class Rules {
+    final String source;
+    final int compiled;
+
+    Rules(String source, int compiled) {
+      this.source = source;
+      this.compiled = compiled;
+    }
+  }
+
+  /**
+   * @return the rule data, the find override dispatching to the compiled rules and their methods
+   */
+  private static Rules rules(List<Map> configs, List<Set<String>> literals, String kind) {
+    StringBuilder data = new StringBuilder();
+    data.append("  private static final String[][] CONFIGS = {\n");
+    for (Map<String, String> config : configs) {
+      List<String> pairs = new ArrayList<String>();
+      for (Map.Entry<String, String> entry : new TreeMap<String, String>(config).entrySet()) {
+        pairs.add(entry.getKey());
+        pairs.add(entry.getValue());
+      }
+      data.append("    {").append(strings(pairs)).append("},\n");
+    }
+    data.append("  };\n\n");
+    data.append("  private static final String[][] LITERALS = {\n");
+    for (Set<String> set : literals) {
+      data.append("    ").append(set == null ? "null" : "{" + strings(set) + "}").append(",\n");
+    }
+    data.append("  };\n\n");
+
+    StringBuilder dispatch = new StringBuilder();
+    StringBuilder methods = new StringBuilder();
+    int compiled = 0;
+    for (int rule = 0; rule < configs.size(); rule++) {
+      String regex = (String) configs.get(rule).get("regex");
+      if (regex == null) {
+        continue;
+      }
+      String source = new RuleCompiler(rule, Pattern.compile(regex)).compile();
+      if (source == null) {
+        continue;
+      }
+      compiled++;
+      dispatch.append("        case ").append(rule).append(":\n")
+          .append("          return find").append(rule).append("(agentString);\n");
+      methods.append(source);
+    }
+
+    StringBuilder out = new StringBuilder(data);
+    out.append("  @Override\n")
+        .append("  MatchResult find(int rule, CharSequence agentString) {\n")
+        .append("    try {\n")
+        .append("      switch (rule) {\n")
+        .append(dispatch)
+        .append("        default:\n")
+        .append("          return super.find(rule, agentString);\n")
+        .append("      }\n")
+        .append("    } catch (GeneratedMatch.Fallback e) {\n")
+        .append("      return super.find(rule, agentString);\n")
+        .append("    }\n")
+        .append("  }\n\n")
+        .append(methods)
+        .append("  private static boolean accept(CharSequence s, int n, int i, int[] g) {\n")
+        .append("    g[1] = i;\n")
+        .append("    return true;\n")
+        .append("  }\n");
+    return new Rules(out.toString(), compiled);
+  }
+
+  private static final class Unsupported extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+  }
+
+  /**
+   * Compiles the regex of one rule to a find method and one method per regex node. Each node method
+   * matches its node at i and then calls the method of what follows the node in the regex, its
+   * continuation, so that failing continuations backtrack into the node like in the Pattern.
+   */
+  private static final class RuleCompiler {
+    private final int rule;
+    private final Pattern pattern;
+    private final int groupCount;
+    /** index in g of the start of group 0 being matched, see {@link GeneratedMatch#groups} */
+    private final int locals;
+    private final StringBuilder methods = new StringBuilder();
+    private final StringBuilder fields = new StringBuilder();
+    private int names;
+
+    RuleCompiler(int rule, Pattern pattern) {
+      this.rule = rule;
+      this.pattern = pattern;
+      this.groupCount = pattern.matcher("").groupCount();
+      this.locals = 2 * (groupCount + 1);
+    }
+
+    /**
+     * @return the source of the find method and the methods it calls, null if unsupported
+     */
+    String compile() {
+      RegexNode node = RegexNode.parse(pattern);
+      if (node == null) {
+        return null;
+      }
+      String start;
+      try {
+        start = compile(node, "accept");
+      } catch (Unsupported e) {
+        return null;
+      }
+      StringBuilder out = new StringBuilder();
+      out.append("  // ").append(comment(pattern.pattern())).append("\n");
+      out.append(fields);
+      out.append("  private static MatchResult find").append(rule).append("(CharSequence s) {\n")
+          .append("    int n = s.length();\n")
+          .append("    int[] g = GeneratedMatch.groups(").append(groupCount).append(");\n");
+      String prefix = prefix(node);
+      RegexNode.Chars first = firstChars(node);
+      String matched = "    if (" + call(start, "i") + ") {\n"
+          + "      g[0] = i;\n"
+          + "      return new GeneratedMatch(s, g, " + groupCount + ");\n"
+          + "    }\n";
+      if (anchored(node)) {
+        out.append("    int i = 0;\n").append(matched);
+      } else if (prefix.length() > 0) {
+        String literal = literal(prefix);
+        out.append("    for (int i = GeneratedMatch.indexOf(s, n, ").append(literal)
+            .append(", 0); i >= 0;\n")
+            .append("        i = GeneratedMatch.indexOf(s, n, ").append(literal)
+            .append(", i + 1)) {\n")
+            .append(indent(matched))
+            .append("    }\n");
+      } else if (first != null && !hasHighSurrogate(first)
+          && first.ranges.length / 2 <= MAX_INLINE_RANGES) {
+        out.append("    for (int i = 0; i < n; i++) {\n")
+            .append("      char c = s.charAt(i);\n")
+            .append("      if (!").append(test(first, "c")).append(") {\n")
+            .append("        continue;\n")
+            .append("      }\n")
+            .append(indent(matched))
+            .append("    }\n");
+      } else {
+        out.append("    for (int i = 0; i <= n; i++) {\n").append(indent(matched)).append("    }\n");
+      }
+      out.append("    return null;\n").append("  }\n\n");
+      out.append(methods);
+      return out.toString();
+    }
+
+    private static String indent(String lines) {
+      return lines.replaceAll("(?m)^(?=.)", "  ");
+    }
+
+    private String reserve() {
+      return "r" + rule + "_" + names++;
+    }
+
+    private String define(String name, String body) {
+      methods.append("  private static boolean ").append(name)
+          .append("(CharSequence s, int n, int i, int[] g) {\n")
+          .append(body)
+          .append("  }\n\n");
+      return name;
+    }
+
+    private String method(String body) {
+      return define(reserve(), body);
+    }
+
+    private static String call(String method, String at) {
+      return method + "(s, n, " + at + ", g)";
+    }
+
+    /**
+     * @return the name of the method matching node at i and then next
+     */
+    private String compile(RegexNode node, String next) {
+      if (node instanceof RegexNode.Chars) {
+        RegexNode.Chars chars = (RegexNode.Chars) node;
+        return method("    if (i >= n) {\n"
+            + "      return false;\n"
+            + "    }\n"
+            + "    char c = s.charAt(i);\n"
+            + surrogateCheck(chars, "    ")
+            + "    return " + test(chars, "c") + " && " + call(next, "i + 1") + ";\n");
+      }
+      if (node instanceof RegexNode.Concat) {
+        RegexNode[] items = ((RegexNode.Concat) node).items;
+        for (int end = items.length; end > 0;) {
+          // runs of literal chars are matched at once
+          int begin = end;
+          while (begin > 0 && literalChar(items[begin - 1]) >= 0) {
+            begin--;
+          }
+          if (end - begin >= 2) {
+            StringBuilder literal = new StringBuilder();
+            for (int i = begin; i < end; i++) {
+              literal.append((char) literalChar(items[i]));
+            }
+            next = method("    return GeneratedMatch.regionMatches(s, n, i, "
+                + literal(literal.toString()) + ") && "
+                + call(next, "i + " + literal.length()) + ";\n");
+            end = begin;
+          } else {
+            next = compile(items[--end], next);
+          }
+        }
+        return next;
+      }
+      if (node instanceof RegexNode.Alternation) {
+        return alternation(((RegexNode.Alternation) node).alternatives, next);
+      }
+      if (node instanceof RegexNode.Group) {
+        RegexNode.Group group = (RegexNode.Group) node;
+        if (group.capture == 0) {
+          return compile(group.body, next);
+        }
+        int k = group.capture;
+        String start = "g[" + (2 * k) + "]", end = "g[" + (2 * k + 1) + "]";
+        String local = "g[" + (locals + k) + "]";
+        String close = method("    int start = " + start + ", end = " + end + ";\n"
+            + "    " + start + " = " + local + ";\n"
+            + "    " + end + " = i;\n"
+            + "    if (" + call(next, "i") + ") {\n"
+            + "      return true;\n"
+            + "    }\n"
+            + "    " + start + " = start;\n"
+            + "    " + end + " = end;\n"
+            + "    return false;\n");
+        String body = compile(group.body, close);
+        return method("    int save = " + local + ";\n"
+            + "    " + local + " = i;\n"
+            + "    if (" + call(body, "i") + ") {\n"
+            + "      return true;\n"
+            + "    }\n"
+            + "    " + local + " = save;\n"
+            + "    return false;\n");
+      }
+      if (node instanceof RegexNode.Repeat) {
+        return repeat((RegexNode.Repeat) node, next);
+      }
+      if (node instanceof RegexNode.Anchor) {
+        return method(((RegexNode.Anchor) node).begin
+            ? "    return i == 0 && " + call(next, "i") + ";\n"
+            : "    return GeneratedMatch.dollar(s, n, i) && " + call(next, "i") + ";\n");
+      }
+      throw new Unsupported();
+    }
+
+    private String alternation(RegexNode[] alternatives, String next) {
+      String[] methods = new String[alternatives.length];
+      for (int i = 0; i < alternatives.length; i++) {
+        methods[i] = compile(alternatives[i], next);
+      }
+      // alternatives by first char, in their order
+      Map<Character, List<Integer>> byChar = new TreeMap<Character, List<Integer>>();
+      for (int i = 0; i < alternatives.length && byChar != null; i++) {
+        RegexNode.Chars first = firstChars(alternatives[i]);
+        if (first == null || first.size() > MAX_SWITCH_CHARS) {
+          byChar = null;
+          break;
+        }
+        for (int r = 0; r < first.ranges.length; r += 2) {
+          for (int c = first.ranges[r]; c <= first.ranges[r + 1]; c++) {
+            List<Integer> list = byChar.get((char) c);
+            if (list == null) {
+              byChar.put((char) c, list = new ArrayList<Integer>());
+            }
+            list.add(i);
+          }
+        }
+        if (byChar.size() > MAX_SWITCH_CHARS) {
+          byChar = null;
+        }
+      }
+      if (byChar == null) {
+        StringBuilder body = new StringBuilder("    return ");
+        for (int i = 0; i < methods.length; i++) {
+          body.append(i == 0 ? "" : "\n        || ").append(call(methods[i], "i"));
+        }
+        return method(body.append(";\n").toString());
+      }
+      Map<List<Integer>, List<Character>> cases = new LinkedHashMap<List<Integer>, List<Character>>();
+      for (Map.Entry<Character, List<Integer>> entry : byChar.entrySet()) {
+        List<Character> chars = cases.get(entry.getValue());
+        if (chars == null) {
+          cases.put(entry.getValue(), chars = new ArrayList<Character>());
+        }
+        chars.add(entry.getKey());
+      }
+      StringBuilder body = new StringBuilder();
+      body.append("    if (i >= n) {\n")
+          .append("      return false;\n")
+          .append("    }\n")
+          .append("    switch (s.charAt(i)) {\n");
+      for (Map.Entry<List<Integer>, List<Character>> entry : cases.entrySet()) {
+        for (char c : entry.getValue()) {
+          body.append("      case ").append(charLiteral(c)).append(":\n");
+        }
+        body.append("        return ");
+        List<Integer> indexes = entry.getKey();
+        for (int i = 0; i < indexes.size(); i++) {
+          body.append(i == 0 ? "" : " || ").append(call(methods[indexes.get(i)], "i"));
+        }
+        body.append(";\n");
+      }
+      body.append("      default:\n")
+          .append("        return false;\n")
+          .append("    }\n");
+      return method(body.toString());
+    }
+
+    private String repeat(RegexNode.Repeat repeat, String next) {
+      int min = repeat.min, max = repeat.max;
+      if (repeat.body instanceof RegexNode.Chars) {
+        RegexNode.Chars chars = (RegexNode.Chars) repeat.body;
+        String test = test(chars, "c");
+        String limit = max == RegexNode.UNBOUNDED ? "n" : "Math.min(n, i + " + max + ")";
+        if (repeat.greedy) {
+          return method("    int limit = " + limit + ";\n"
+              + "    int j = i;\n"
+              + "    while (j < limit) {\n"
+              + "      char c = s.charAt(j);\n"
+              + surrogateCheck(chars, "      ")
+              + "      if (!" + test + ") {\n"
+              + "        break;\n"
+              + "      }\n"
+              + "      j++;\n"
+              + "    }\n"
+              + "    for (; j >= i + " + min + "; j--) {\n"
+              + "      if (" + call(next, "j") + ") {\n"
+              + "        return true;\n"
+              + "      }\n"
+              + "    }\n"
+              + "    return false;\n");
+        }
+        return method("    int limit = " + limit + ";\n"
+            + "    for (int j = i; ; j++) {\n"
+            + "      if (j >= i + " + min + " && " + call(next, "j") + ") {\n"
+            + "        return true;\n"
+            + "      }\n"
+            + "      if (j >= limit) {\n"
+            + "        return false;\n"
+            + "      }\n"
+            + "      char c = s.charAt(j);\n"
+            + surrogateCheck(chars, "      ")
+            + "      if (!" + test + ") {\n"
+            + "        return false;\n"
+            + "      }\n"
+            + "    }\n");
+      }
+      // a body matching nothing would need the Pattern's guard against empty iterations
+      if (minLength(repeat.body) == 0 || min > MAX_UNROLLED
+          || (max != RegexNode.UNBOUNDED && max > MAX_UNROLLED)) {
+        throw new Unsupported();
+      }
+      String rest;
+      if (max == RegexNode.UNBOUNDED) {
+        String loop = reserve();
+        String body = compile(repeat.body, loop);
+        define(loop, repeat.greedy
+            ? "    return " + call(body, "i") + " || " + call(next, "i") + ";\n"
+            : "    return " + call(next, "i") + " || " + call(body, "i") + ";\n");
+        rest = loop;
+      } else {
+        rest = next;
+        for (int i = min; i < max; i++) {
+          String body = compile(repeat.body, rest);
+          rest = method(repeat.greedy
+              ? "    return " + call(body, "i") + " || " + call(next, "i") + ";\n"
+              : "    return " + call(next, "i") + " || " + call(body, "i") + ";\n");
+        }
+      }
+      for (int i = 0; i < min; i++) {
+        rest = compile(repeat.body, rest);
+      }
+      return rest;
+    }
+
+    /**
+     * The Pattern reads a code point where a class may hold high surrogates, bail out on those
+     */
+    private static String surrogateCheck(RegexNode.Chars chars, String indent) {
+      return hasHighSurrogate(chars)
+          ? indent + "if (Character.isHighSurrogate(c)) {\n"
+              + indent + "  throw GeneratedMatch.FALLBACK;\n"
+              + indent + "}\n"
+          : "";
+    }
+
+    /**
+     * @return a boolean expression testing whether the char variable is in chars
+     */
+    private String test(RegexNode.Chars chars, String variable) {
+      if (chars.ranges.length / 2 <= MAX_INLINE_RANGES) {
+        return ranges(chars.ranges, variable);
+      }
+      RegexNode.Chars complement = chars.complement();
+      if (complement.ranges.length / 2 <= MAX_INLINE_RANGES) {
+        return "!" + ranges(complement.ranges, variable);
+      }
+      String field = "CHARS" + rule + "_" + names++;
+      fields.append("  private static final char[] ").append(field).append(" = {");
+      for (int i = 0; i < chars.ranges.length; i++) {
+        fields.append(i == 0 ? "" : ", ").append(charLiteral(chars.ranges[i]));
+      }
+      fields.append("};\n");
+      return "GeneratedMatch.inRanges(" + field + ", " + variable + ")";
+    }
+
+    private static String ranges(char[] ranges, String variable) {
+      if (ranges.length == 0) {
+        return "false";
+      }
+      StringBuilder test = new StringBuilder("(");
+      for (int i = 0; i < ranges.length; i += 2) {
+        char lo = ranges[i], hi = ranges[i + 1];
+        test.append(i == 0 ? "" : " || ");
+        if (lo == hi) {
+          test.append(variable).append(" == ").append(charLiteral(lo));
+        } else if (lo == Character.MIN_VALUE && hi == Character.MAX_VALUE) {
+          test.append("true");
+        } else if (lo == Character.MIN_VALUE) {
+          test.append(variable).append(" <= ").append(charLiteral(hi));
+        } else if (hi == Character.MAX_VALUE) {
+          test.append(variable).append(" >= ").append(charLiteral(lo));
+        } else {
+          test.append(variable).append(" >= ").append(charLiteral(lo)).append(" && ")
+              .append(variable).append(" <= ").append(charLiteral(hi));
+        }
+      }
+      return test.append(")").toString();
+    }
+  }
+
+  private static boolean hasHighSurrogate(RegexNode.Chars chars) {
+    for (int i = 0; i < chars.ranges.length; i += 2) {
+      if (chars.ranges[i] <= Character.MAX_HIGH_SURROGATE
+          && chars.ranges[i + 1] >= Character.MIN_HIGH_SURROGATE) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the char a node matches if it matches exactly one, -1 otherwise
+   */
+  private static int literalChar(RegexNode node) {
+    if (node instanceof RegexNode.Chars) {
+      char[] ranges = ((RegexNode.Chars) node).ranges;
+      if (ranges.length == 2 && ranges[0] == ranges[1]) {
+        return ranges[0];
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return the shortest length of what the node matches
+   */
+  static int minLength(RegexNode node) {
+    if (node instanceof RegexNode.Chars) {
+      return 1;
+    }
+    if (node instanceof RegexNode.Concat) {
+      int length = 0;
+      for (RegexNode item : ((RegexNode.Concat) node).items) {
+        length += minLength(item);
+      }
+      return length;
+    }
+    if (node instanceof RegexNode.Alternation) {
+      int length = Integer.MAX_VALUE;
+      for (RegexNode alternative : ((RegexNode.Alternation) node).alternatives) {
+        length = Math.min(length, minLength(alternative));
+      }
+      return length;
+    }
+    if (node instanceof RegexNode.Group) {
+      return minLength(((RegexNode.Group) node).body);
+    }
+    if (node instanceof RegexNode.Repeat) {
+      RegexNode.Repeat repeat = (RegexNode.Repeat) node;
+      return repeat.min * minLength(repeat.body);
+    }
+    return 0;
+  }
+
+  /**
+   * @return the chars any match starts with, null if unknown or if it can be empty
+   */
+  static RegexNode.Chars firstChars(RegexNode node) {
+    if (node instanceof RegexNode.Chars) {
+      return (RegexNode.Chars) node;
+    }
+    if (node instanceof RegexNode.Concat) {
+      RegexNode[] items = ((RegexNode.Concat) node).items;
+      return items.length > 0 && minLength(items[0]) > 0 ? firstChars(items[0]) : null;
+    }
+    if (node instanceof RegexNode.Alternation) {
+      List<RegexNode.Chars> sets = new ArrayList<RegexNode.Chars>();
+      for (RegexNode alternative : ((RegexNode.Alternation) node).alternatives) {
+        RegexNode.Chars set = firstChars(alternative);
+        if (set == null) {
+          return null;
+        }
+        sets.add(set);
+      }
+      return RegexNode.Chars.union(sets);
+    }
+    if (node instanceof RegexNode.Group) {
+      return firstChars(((RegexNode.Group) node).body);
+    }
+    if (node instanceof RegexNode.Repeat && ((RegexNode.Repeat) node).min > 0) {
+      return firstChars(((RegexNode.Repeat) node).body);
+    }
+    return null;
+  }
+
+  /**
+   * @return whether every match starts with ^
+   */
+  static boolean anchored(RegexNode node) {
+    if (node instanceof RegexNode.Anchor) {
+      return ((RegexNode.Anchor) node).begin;
+    }
+    if (node instanceof RegexNode.Concat) {
+      RegexNode[] items = ((RegexNode.Concat) node).items;
+      return items.length > 0 && anchored(items[0]);
+    }
+    if (node instanceof RegexNode.Group) {
+      return anchored(((RegexNode.Group) node).body);
+    }
+    if (node instanceof RegexNode.Alternation) {
+      for (RegexNode alternative : ((RegexNode.Alternation) node).alternatives) {
+        if (!anchored(alternative)) {
+          return false;
+        }
+      }
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return literal text every match starts with, maybe empty
+   */
+  static String prefix(RegexNode node) {
+    StringBuilder prefix = new StringBuilder();
+    prefix(node, prefix);
+    return prefix.toString();
+  }
+
+  /**
+   * @return whether the node matches exactly what it appended
+   */
+  private static boolean prefix(RegexNode node, StringBuilder prefix) {
+    int c = literalChar(node);
+    if (c >= 0) {
+      prefix.append((char) c);
+      return true;
+    }
+    if (node instanceof RegexNode.Concat) {
+      for (RegexNode item : ((RegexNode.Concat) node).items) {
+        if (!prefix(item, prefix)) {
+          return false;
+        }
+      }
+      return true;
+    }
+    if (node instanceof RegexNode.Group) {
+      return prefix(((RegexNode.Group) node).body, prefix);
+    }
+    return false;
+  }
+
+  private static String strings(Iterable<String> strings) {
+    StringBuilder out = new StringBuilder();
+    if (strings != null) {
+      for (String string : strings) {
+        out.append(out.length() == 0 ? "" : ", ").append(literal(string));
+      }
+    }
+    return out.toString();
+  }
+
+  /**
+   * @return a Java string literal, escaping all but printable ASCII so that no unicode escape can
+   *         end up a quote, backslash or line break
+   */
+  static String literal(String string) {
+    if (string == null) {
+      return "null";
+    }
+    StringBuilder out = new StringBuilder("\"");
+    for (int i = 0; i < string.length(); i++) {
+      char c = string.charAt(i);
+      if (c == '"' || c == '\\') {
+        out.append('\\').append(c);
+      } else if (c >= 0x20 && c < 0x7f) {
+        out.append(c);
+      } else if (c < 0x20) {
+        out.append(String.format("\\%03o", (int) c));
+      } else {
+        out.append(String.format("\\u%04x", (int) c));
+      }
+    }
+    return out.append('"').toString();
+  }
+
+  private static String charLiteral(char c) {
+    if (c == '\'' || c == '\\') {
+      return "'\\" + c + "'";
+    }
+    return c >= 0x20 && c < 0x7f ? "'" + c + "'" : String.format("0x%04x", (int) c);
+  }
+
+  /**
+   * @return the regex for a line comment, where \\u must not start a unicode escape
+   */
+  private static String comment(String regex) {
+    return regex.replace("\\u", "\\\\u").replace('\n', ' ').replace('\r', ' ');
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      System.err.println("usage: ParserGenerator <regexes yaml> <output directory>");
+      System.exit(1);
+    }
+    RuleSnapshot rules;
+    InputStream yaml = new FileInputStream(args[0]);
+    try {
+      rules = RuleSnapshot.fromYaml(yaml);
+    } finally {
+      yaml.close();
+    }
+    ParserGenerator generator = new ParserGenerator(rules);
+    File directory = new File(args[1], "ua_parser");
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("cannot create " + directory);
+    }
+    write(new File(directory, "GeneratedUserAgentParser.java"), generator.userAgentParser());
+    write(new File(directory, "GeneratedOSParser.java"), generator.osParser());
+    write(new File(directory, "GeneratedDeviceParser.java"), generator.deviceParser());
+    System.out.println(String.format(
+        "compiled %d/%d user agent, %d/%d OS and %d/%d device regexes to Java",
+        generator.uaCompiled, generator.uaConfigs.size(), generator.osCompiled,
+        generator.osConfigs.size(), generator.deviceCompiled, generator.deviceConfigs.size()));
+  }
+
+  private static void write(File file, String source) throws IOException {
+    Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+    try {
+      out.write(source);
+    } finally {
+      out.close();
+    }
+  }
+}
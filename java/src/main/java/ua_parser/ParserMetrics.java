@@ -0,0 +1,90 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package ua_parser;
+
+import javax.management.MXBean;
+
+/**
+ * Counters of a {@link Parser}, see {@link Parser#setMetricsEnabled}. Also an MXBean, see
+ * {@link Parser#registerMetrics}. Counts start when metrics are enabled; cache counts come from the
+ * {@link ParseCache} itself, so they are zero for a cache not recording stats.
+ *
+ * Latency histograms hold at index i the number of parses of a rule list that took from 2^(i-1)
+ * to 2^i - 1 ns, at 0 those under a ns. Rule hits hold how often each rule of a list produced the
+ * result; cache hits run no rule.
+ *
+ * @author Adrian Muraru (@adimuraru)
+ */
+@MXBean
+public interface ParserMetrics {
+
+  long getCacheHitCount();
+
+  long getCacheMissCount();
+
+  long getCacheEvictionCount();
+
+  /**
+   * @return new entries the cache left out rather than evict another one
+   */
+  long getCacheRejectionCount();
+
+  double getCacheHitRate();
+
+  long getCacheSize();
+
+  /**
+   * @return user agents parsed, as opposed to found in the cache
+   */
+  long getLoadCount();
+
+  /**
+   * @return ns spent parsing the {@link #getLoadCount() loaded} user agents
+   */
+  long getTotalLoadTime();
+
+  long[] getUserAgentLatencyHistogram();
+
+  long[] getOSLatencyHistogram();
+
+  long[] getDeviceLatencyHistogram();
+
+  long[] getUserAgentRuleHits();
+
+  long[] getOSRuleHits();
+
+  long[] getDeviceRuleHits();
+
+  /**
+   * @return parses no user agent rule applied to, the "Other" user agents
+   */
+  long getUserAgentOtherCount();
+
+  long getOSOtherCount();
+
+  long getDeviceOtherCount();
+
+  /**
+   * @return parses over the {@link Parser#setParseBudget budget}, since the parser was created
+   */
+  long getTimeoutCount();
+
+  /**
+   * @return user agents rejected as over the {@link Parser#setMaxLength maximum length}, since the
+   *         parser was created
+   */
+  long getOversizeCount();
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package ua_parser;
+
+/**
+ * The {@link ParserMetrics} of a parser, reading the counters of its rule chains and cache
+ *
+ * @author Adrian Muraru (@adimuraru)
+ */
+final class ParserStats implements ParserMetrics {
+  private static final int LOAD_COUNT = 0, LOAD_TIME = 1;
+
+  private final Parser parser;
+  private final StripedCounters loads = new StripedCounters(2);
+
+  ParserStats(Parser parser) {
+    this.parser = parser;
+  }
+
+  void recordLoad(long nanos) {
+    loads.increment(LOAD_COUNT);
+    loads.add(LOAD_TIME, nanos);
+  }
+
+  private ParseCache.Stats cacheStats() {
+    ParseCache cache = parser.uaCache;
+    return cache == null ? new ParseCache.Stats(0, 0, 0) : cache.stats();
+  }
+
+  @Override
+  public long getCacheHitCount() {
+    return cacheStats().hitCount();
+  }
+
+  @Override
+  public long getCacheMissCount() {
+    return cacheStats().missCount();
+  }
+
+  @Override
+  public long getCacheEvictionCount() {
+    return cacheStats().evictionCount();
+  }
+
+  @Override
+  public long getCacheRejectionCount() {
+    return cacheStats().rejectionCount();
+  }
+
+  @Override
+  public double getCacheHitRate() {
+    return cacheStats().hitRate();
+  }
+
+  @Override
+  public long getCacheSize() {
+    ParseCache cache = parser.uaCache;
+    return cache == null ? 0 : cache.size();
+  }
+
+  @Override
+  public long getLoadCount() {
+    return loads.get(LOAD_COUNT);
+  }
+
+  @Override
+  public long getTotalLoadTime() {
+    return loads.get(LOAD_TIME);
+  }
+
+  @Override
+  public long[] getUserAgentLatencyHistogram() {
+    return parser.rules.uaParser.rules.latencies();
+  }
+
+  @Override
+  public long[] getOSLatencyHistogram() {
+    return parser.rules.osParser.rules.latencies();
+  }
+
+  @Override
+  public long[] getDeviceLatencyHistogram() {
+    return parser.rules.deviceParser.rules.latencies();
+  }
+
+  @Override
+  public long[] getUserAgentRuleHits() {
+    return parser.rules.uaParser.rules.hits();
+  }
+
+  @Override
+  public long[] getOSRuleHits() {
+    return parser.rules.osParser.rules.hits();
+  }
+
+  @Override
+  public long[] getDeviceRuleHits() {
+    return parser.rules.deviceParser.rules.hits();
+  }
+
+  @Override
+  public long getUserAgentOtherCount() {
+    return parser.rules.uaParser.rules.misses();
+  }
+
+  @Override
+  public long getOSOtherCount() {
+    return parser.rules.osParser.rules.misses();
+  }
+
+  @Override
+  public long getDeviceOtherCount() {
+    return parser.rules.deviceParser.rules.misses();
+  }
+
+  @Override
+  public long getTimeoutCount() {
+    return parser.timeoutCount();
+  }
+
+  @Override
+  public long getOversizeCount() {
+    return parser.oversizeCount();
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "{cache: %s, loads: %d, load time: %dns, other: %d/%d/%d, timeouts: %d, oversize: %d}",
+        cacheStats(), getLoadCount(), getTotalLoadTime(), getUserAgentOtherCount(),
+        getOSOtherCount(), getDeviceOtherCount(), getTimeoutCount(), getOversizeCount());
+  }
+}
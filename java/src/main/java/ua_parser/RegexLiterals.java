@@ -0,0 +1,216 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package ua_parser;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Pulls the literal fragments a regex cannot match without out of its {@link RegexNode} tree, e.g.
+ * <code>(Fennec)/(\d+)\.(\d+)</code> needs "fennec/" and <code>(Namoroka|Shiretoko)/(\d+)</code>
+ * needs one of "namoroka/", "shiretoko/". Literals are case folded with
+ * {@link LiteralPrefilter#fold(char)}.
+ *
+ * @author Adrian Muraru (@adimuraru)
+ */
+final class RegexLiterals {
+  /** cap on the alternatives tracked for a node before giving up on exactness */
+  private static final int MAX_ALTERNATIVES = 256;
+  /** cap on the size of a char class expanded into single char literals */
+  private static final int MAX_CLASS_CHARS = 8;
+
+  private RegexLiterals() {
+  }
+
+  /**
+   * @return literals of which every match contains at least one, or null when no such set is known
+   */
+  static Set<String> required(Pattern pattern) {
+    RegexNode node = RegexNode.parse(pattern);
+    return node == null ? null : required(node);
+  }
+
+  static Set<String> required(RegexNode node) {
+    Info info = analyze(node);
+    return usable(info.exact) ? info.exact : info.required;
+  }
+
+  /**
+   * exact: every string the node can match, if few enough; required: at least one of these occurs
+   * in any match. Either can be null when unknown.
+   */
+  private static final class Info {
+    final Set<String> exact, required;
+
+    Info(Set<String> exact, Set<String> required) {
+      this.exact = exact;
+      this.required = required;
+    }
+  }
+
+  private static final Info ANYTHING = new Info(null, null);
+  private static final Info EMPTY = new Info(Collections.singleton(""), null);
+
+  private static Info analyze(RegexNode node) {
+    if (node instanceof RegexNode.Chars) {
+      return new Info(chars((RegexNode.Chars) node), null);
+    }
+    if (node instanceof RegexNode.Anchor) {
+      return EMPTY;
+    }
+    if (node instanceof RegexNode.Group) {
+      return analyze(((RegexNode.Group) node).body);
+    }
+    if (node instanceof RegexNode.Alternation) {
+      return alternation(((RegexNode.Alternation) node).alternatives);
+    }
+    if (node instanceof RegexNode.Concat) {
+      return concat(((RegexNode.Concat) node).items);
+    }
+    if (node instanceof RegexNode.Repeat) {
+      return repeat((RegexNode.Repeat) node);
+    }
+    return ANYTHING;
+  }
+
+  private static Set<String> chars(RegexNode.Chars chars) {
+    if (chars.size() > MAX_CLASS_CHARS * 4) {
+      return null;
+    }
+    Set<String> folded = new LinkedHashSet<String>();
+    for (int i = 0; i < chars.ranges.length; i += 2) {
+      for (int c = chars.ranges[i]; c <= chars.ranges[i + 1]; c++) {
+        folded.add(String.valueOf(LiteralPrefilter.fold((char) c)));
+      }
+    }
+    return folded.size() > MAX_CLASS_CHARS ? null : folded;
+  }
+
+  private static Info alternation(RegexNode[] alternatives) {
+    Set<String> exact = new LinkedHashSet<String>();
+    Set<String> required = new LinkedHashSet<String>();
+    for (RegexNode alternative : alternatives) {
+      Info info = analyze(alternative);
+      if (exact != null) {
+        if (info.exact == null) {
+          exact = null;
+        } else {
+          exact.addAll(info.exact);
+          if (exact.size() > MAX_ALTERNATIVES) {
+            exact = null;
+          }
+        }
+      }
+      if (required != null) {
+        Set<String> needed = usable(info.exact) ? info.exact : info.required;
+        if (needed == null) {
+          required = null;
+        } else {
+          required.addAll(needed);
+        }
+      }
+    }
+    return new Info(exact, required);
+  }
+
+  private static Info concat(RegexNode[] items) {
+    // exact strings of the current run of exact items, null once an item is not exact
+    Set<String> run = Collections.singleton("");
+    Set<String> best = null;
+    boolean exact = true;
+    for (RegexNode item : items) {
+      Info info = analyze(item);
+      if (info.exact != null) {
+        Set<String> product = product(run, info.exact);
+        if (product == null) {
+          exact = false;
+          best = better(best, run);
+          run = info.exact;
+        } else {
+          run = product;
+        }
+      } else {
+        exact = false;
+        best = better(better(best, run), info.required);
+        run = Collections.singleton("");
+      }
+    }
+    return exact ? new Info(run, null) : new Info(null, better(best, run));
+  }
+
+  private static Info repeat(RegexNode.Repeat repeat) {
+    Info body = analyze(repeat.body);
+    if (repeat.min == 0) {
+      if (repeat.max == 1 && body.exact != null) {
+        Set<String> optional = new LinkedHashSet<String>(body.exact);
+        optional.add("");
+        return new Info(optional, null);
+      }
+      return ANYTHING;
+    }
+    Set<String> needed = usable(body.exact) ? body.exact : body.required;
+    if (repeat.min == repeat.max && body.exact != null) {
+      Set<String> power = Collections.singleton("");
+      for (int i = 0; i < repeat.min && power != null; i++) {
+        power = product(power, body.exact);
+      }
+      if (power != null) {
+        return new Info(power, null);
+      }
+    }
+    return new Info(null, needed);
+  }
+
+  private static Set<String> product(Set<String> prefixes, Set<String> suffixes) {
+    if ((long) prefixes.size() * suffixes.size() > MAX_ALTERNATIVES) {
+      return null;
+    }
+    Set<String> product = new LinkedHashSet<String>();
+    for (String prefix : prefixes) {
+      for (String suffix : suffixes) {
+        product.add(prefix + suffix);
+      }
+    }
+    return product;
+  }
+
+  private static boolean usable(Set<String> literals) {
+    return literals != null && !literals.isEmpty() && !literals.contains("");
+  }
+
+  /**
+   * Prefers the set whose shortest literal is longest, it is the most selective one
+   */
+  private static Set<String> better(Set<String> current, Set<String> candidate) {
+    if (!usable(candidate)) {
+      return current;
+    }
+    if (current == null || shortest(candidate) > shortest(current)
+        || (shortest(candidate) == shortest(current) && candidate.size() < current.size())) {
+      return candidate;
+    }
+    return current;
+  }
+
+  private static int shortest(Set<String> literals) {
+    int shortest = Integer.MAX_VALUE;
+    for (String literal : literals) {
+      shortest = Math.min(shortest, literal.length());
+    }
+    return shortest;
+  }
+}
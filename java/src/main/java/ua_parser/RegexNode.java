@@ -0,0 +1,466 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package ua_parser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Syntax tree for the subset of {@link Pattern} syntax used by regexes.yaml: literals, character
+ * classes, groups, alternation, greedy/lazy quantifiers and the ^ $ anchors. Anything else
+ * (back references, lookaround, inline flags, \b, \p{..}, ...) is not modelled and makes
+ * {@link #parse} return null, so callers have to keep treating such a rule as an opaque Pattern.
+ *
+ * @author Adrian Muraru (@adimuraru)
+ */
+abstract class RegexNode {
+  static final int UNBOUNDED = -1;
+
+  /**
+   * Parses a regex compiled with the given {@link Pattern#flags()}, null if unsupported
+   */
+  static RegexNode parse(String regex, int flags) {
+    if (flags != 0) {
+      return null;
+    }
+    try {
+      Reader reader = new Reader(regex);
+      RegexNode node = reader.alternation();
+      return reader.pos == regex.length() ? node : null;
+    } catch (Unsupported e) {
+      return null;
+    }
+  }
+
+  static RegexNode parse(Pattern pattern) {
+    return parse(pattern.pattern(), pattern.flags());
+  }
+
+  /**
+   * A set of chars stored as sorted, non-overlapping inclusive ranges: lo0, hi0, lo1, hi1, ...
+   */
+  static final class Chars extends RegexNode {
+    /** What '.' matches without DOTALL: everything but the line terminators */
+    static final Chars DOT = new Chars(new char[] {
+        0x0000, 0x0009, 0x000B, 0x000C, 0x000E, 0x0084, 0x0086, 0x2027, 0x202A, 0xFFFF
+    });
+    static final Chars DIGIT = new Chars(new char[] {'0', '9'});
+    static final Chars WORD = new Chars(new char[] {'0', '9', 'A', 'Z', '_', '_', 'a', 'z'});
+    static final Chars SPACE = new Chars(new char[] {'\t', '\r', ' ', ' '});
+
+    final char[] ranges;
+
+    Chars(char[] ranges) {
+      this.ranges = ranges;
+    }
+
+    static Chars of(char c) {
+      return new Chars(new char[] {c, c});
+    }
+
+    boolean contains(char c) {
+      for (int i = 0; i < ranges.length; i += 2) {
+        if (c < ranges[i]) {
+          return false;
+        }
+        if (c <= ranges[i + 1]) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /** Number of chars in the set */
+    int size() {
+      int size = 0;
+      for (int i = 0; i < ranges.length; i += 2) {
+        size += ranges[i + 1] - ranges[i] + 1;
+      }
+      return size;
+    }
+
+    Chars complement() {
+      List<Character> out = new ArrayList<Character>();
+      int next = 0;
+      for (int i = 0; i < ranges.length; i += 2) {
+        if (ranges[i] > next) {
+          out.add((char) next);
+          out.add((char) (ranges[i] - 1));
+        }
+        next = ranges[i + 1] + 1;
+      }
+      if (next <= Character.MAX_VALUE) {
+        out.add((char) next);
+        out.add(Character.MAX_VALUE);
+      }
+      return new Chars(toArray(out));
+    }
+
+    static Chars union(List<Chars> sets) {
+      List<int[]> all = new ArrayList<int[]>();
+      for (Chars set : sets) {
+        for (int i = 0; i < set.ranges.length; i += 2) {
+          all.add(new int[] {set.ranges[i], set.ranges[i + 1]});
+        }
+      }
+      java.util.Collections.sort(all, new java.util.Comparator<int[]>() {
+        @Override
+        public int compare(int[] a, int[] b) {
+          return a[0] - b[0];
+        }
+      });
+      List<Character> out = new ArrayList<Character>();
+      int lo = -1, hi = -2;
+      for (int[] range : all) {
+        if (range[0] > hi + 1) {
+          if (lo >= 0) {
+            out.add((char) lo);
+            out.add((char) hi);
+          }
+          lo = range[0];
+          hi = range[1];
+        } else if (range[1] > hi) {
+          hi = range[1];
+        }
+      }
+      if (lo >= 0) {
+        out.add((char) lo);
+        out.add((char) hi);
+      }
+      return new Chars(toArray(out));
+    }
+
+    private static char[] toArray(List<Character> chars) {
+      char[] array = new char[chars.size()];
+      for (int i = 0; i < array.length; i++) {
+        array[i] = chars.get(i);
+      }
+      return array;
+    }
+  }
+
+  static final class Concat extends RegexNode {
+    final RegexNode[] items;
+
+    Concat(RegexNode[] items) {
+      this.items = items;
+    }
+  }
+
+  static final class Alternation extends RegexNode {
+    final RegexNode[] alternatives;
+
+    Alternation(RegexNode[] alternatives) {
+      this.alternatives = alternatives;
+    }
+  }
+
+  static final class Group extends RegexNode {
+    final RegexNode body;
+    /** capturing group number, 0 for (?:...) */
+    final int capture;
+
+    Group(RegexNode body, int capture) {
+      this.body = body;
+      this.capture = capture;
+    }
+  }
+
+  static final class Repeat extends RegexNode {
+    final RegexNode body;
+    final int min, max;
+    final boolean greedy;
+
+    Repeat(RegexNode body, int min, int max, boolean greedy) {
+      this.body = body;
+      this.min = min;
+      this.max = max;
+      this.greedy = greedy;
+    }
+  }
+
+  /**
+   * ^ (beginning of input) or $ (end of input, or before a final line terminator)
+   */
+  static final class Anchor extends RegexNode {
+    final boolean begin;
+
+    Anchor(boolean begin) {
+      this.begin = begin;
+    }
+  }
+
+  private static final class Unsupported extends RuntimeException {
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+      return this;
+    }
+  }
+
+  private static final class Reader {
+    private final String regex;
+    private int pos;
+    private int groups;
+
+    Reader(String regex) {
+      this.regex = regex;
+    }
+
+    private boolean more() {
+      return pos < regex.length();
+    }
+
+    private char peek() {
+      return regex.charAt(pos);
+    }
+
+    RegexNode alternation() {
+      List<RegexNode> alternatives = new ArrayList<RegexNode>();
+      alternatives.add(concat());
+      while (more() && peek() == '|') {
+        pos++;
+        alternatives.add(concat());
+      }
+      return alternatives.size() == 1 ? alternatives.get(0)
+          : new Alternation(alternatives.toArray(new RegexNode[alternatives.size()]));
+    }
+
+    private RegexNode concat() {
+      List<RegexNode> items = new ArrayList<RegexNode>();
+      while (more() && peek() != '|' && peek() != ')') {
+        items.add(quantified(atom()));
+      }
+      return items.size() == 1 ? items.get(0)
+          : new Concat(items.toArray(new RegexNode[items.size()]));
+    }
+
+    private RegexNode quantified(RegexNode atom) {
+      if (!more()) {
+        return atom;
+      }
+      int min, max;
+      switch (peek()) {
+        case '?':
+          min = 0;
+          max = 1;
+          pos++;
+          break;
+        case '*':
+          min = 0;
+          max = UNBOUNDED;
+          pos++;
+          break;
+        case '+':
+          min = 1;
+          max = UNBOUNDED;
+          pos++;
+          break;
+        case '{':
+          int close = regex.indexOf('}', pos);
+          if (close < 0) {
+            throw new Unsupported();
+          }
+          String[] bounds = regex.substring(pos + 1, close).split(",", -1);
+          try {
+            min = Integer.parseInt(bounds[0]);
+            max = bounds.length == 1 ? min
+                : bounds[1].length() == 0 ? UNBOUNDED : Integer.parseInt(bounds[1]);
+          } catch (NumberFormatException e) {
+            throw new Unsupported();
+          }
+          if (bounds.length > 2) {
+            throw new Unsupported();
+          }
+          pos = close + 1;
+          break;
+        default:
+          return atom;
+      }
+      boolean greedy = true;
+      if (more() && peek() == '?') {
+        greedy = false;
+        pos++;
+      } else if (more() && peek() == '+') {
+        // possessive quantifiers change what can match
+        throw new Unsupported();
+      }
+      if (more() && "?*+{".indexOf(peek()) >= 0) {
+        throw new Unsupported();
+      }
+      return new Repeat(atom, min, max, greedy);
+    }
+
+    private RegexNode atom() {
+      char c = regex.charAt(pos++);
+      switch (c) {
+        case '(':
+          int capture;
+          if (regex.startsWith("?:", pos)) {
+            pos += 2;
+            capture = 0;
+          } else if (more() && peek() == '?') {
+            // lookaround, atomic, named groups and inline flags
+            throw new Unsupported();
+          } else {
+            capture = ++groups;
+          }
+          RegexNode body = alternation();
+          if (!more() || peek() != ')') {
+            throw new Unsupported();
+          }
+          pos++;
+          return new Group(body, capture);
+        case '[':
+          return charClass();
+        case '.':
+          return Chars.DOT;
+        case '^':
+          return new Anchor(true);
+        case '$':
+          return new Anchor(false);
+        case '\\':
+          return escape(false);
+        case '*':
+        case '+':
+        case '?':
+        case '{':
+          throw new Unsupported();
+        default:
+          return literal(c);
+      }
+    }
+
+    private Chars literal(char c) {
+      if (Character.isHighSurrogate(c) || Character.isLowSurrogate(c)) {
+        // Pattern matches supplementary code points, not chars
+        throw new Unsupported();
+      }
+      return Chars.of(c);
+    }
+
+    /**
+     * Parses the escape after a backslash, a single char or a predefined class
+     */
+    private Chars escape(boolean inClass) {
+      if (!more()) {
+        throw new Unsupported();
+      }
+      char c = regex.charAt(pos++);
+      switch (c) {
+        case 'd':
+          return Chars.DIGIT;
+        case 'D':
+          return Chars.DIGIT.complement();
+        case 'w':
+          return Chars.WORD;
+        case 'W':
+          return Chars.WORD.complement();
+        case 's':
+          return Chars.SPACE;
+        case 'S':
+          return Chars.SPACE.complement();
+        case 't':
+          return Chars.of('\t');
+        case 'n':
+          return Chars.of('\n');
+        case 'r':
+          return Chars.of('\r');
+        case 'f':
+          return Chars.of('\f');
+        case 'a':
+          return Chars.of('\u0007');
+        case 'e':
+          return Chars.of('\u001B');
+        case 'x':
+          return literal(hex(2));
+        case 'u':
+          return literal(hex(4));
+        case 'Q':
+          if (inClass) {
+            throw new Unsupported();
+          }
+          int end = regex.indexOf("\\E", pos);
+          String quoted = end < 0 ? regex.substring(pos) : regex.substring(pos, end);
+          if (quoted.length() != 1) {
+            // only single quoted chars fit a Chars node, longer runs are rare enough
+            throw new Unsupported();
+          }
+          pos = end < 0 ? regex.length() : end + 2;
+          return literal(quoted.charAt(0));
+        default:
+          if (Character.isLetterOrDigit(c)) {
+            // back references, octal, assertions, \p{..} and JDK specific classes
+            throw new Unsupported();
+          }
+          return literal(c);
+      }
+    }
+
+    private char hex(int digits) {
+      if (pos + digits > regex.length()) {
+        throw new Unsupported();
+      }
+      try {
+        char c = (char) Integer.parseInt(regex.substring(pos, pos + digits), 16);
+        pos += digits;
+        return c;
+      } catch (NumberFormatException e) {
+        throw new Unsupported();
+      }
+    }
+
+    private Chars charClass() {
+      boolean negated = false;
+      if (more() && peek() == '^') {
+        negated = true;
+        pos++;
+      }
+      List<Chars> members = new ArrayList<Chars>();
+      boolean first = true;
+      while (true) {
+        if (!more()) {
+          throw new Unsupported();
+        }
+        char c = regex.charAt(pos++);
+        if (c == ']' && !first) {
+          break;
+        }
+        if (c == '[' || c == ']' || (c == '&' && more() && peek() == '&')) {
+          // nested classes and intersections
+          throw new Unsupported();
+        }
+        first = false;
+        Chars member = c == '\\' ? escape(true) : literal(c);
+        if (more() && peek() == '-' && pos + 1 < regex.length() && regex.charAt(pos + 1) != ']') {
+          pos++;
+          if (member.ranges.length != 2 || member.ranges[0] != member.ranges[1]) {
+            throw new Unsupported();
+          }
+          char to = regex.charAt(pos++);
+          Chars upper = to == '\\' ? escape(true) : literal(to);
+          if (upper.ranges.length != 2 || upper.ranges[0] != upper.ranges[1]
+              || upper.ranges[0] < member.ranges[0]) {
+            throw new Unsupported();
+          }
+          member = new Chars(new char[] {member.ranges[0], upper.ranges[0]});
+        }
+        members.add(member);
+      }
+      Chars set = Chars.union(members);
+      return negated ? set.complement() : set;
+    }
+  }
+}
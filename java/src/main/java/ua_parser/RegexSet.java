@@ -0,0 +1,514 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package ua_parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * All rules of a parser list compiled into one automaton: a single linear pass over a user agent
+ * tells the lowest numbered rule whose regex finds a match, so {@link java.util.regex.Pattern} only
+ * has to run on that rule to extract the groups.
+ *
+ * The rules are turned into one Thompson NFA (see {@link RegexNode} for the supported syntax),
+ * which is simulated through a DFA built lazily, one transition at a time, and shared by all
+ * threads. Once a rule has matched, the states of the rules after it are dropped, so the scan
+ * usually stops early. Rules the NFA cannot express are "opaque" and left to the caller.
+ *
+ * @author Adrian Muraru (@adimuraru)
+ */
+final class RegexSet {
+  /** firstMatch result when the automaton cannot tell, the caller has to try the rules itself */
+  static final int UNKNOWN = -1;
+
+  /** DFA states kept before the cache is thrown away and rebuilt */
+  private static final int MAX_DFA_STATES = 4096;
+  /** bounded repeats are unrolled, larger bounds make the rule opaque */
+  private static final int MAX_REPEAT = 16;
+
+  // NFA state kinds
+  private static final int CHARS = 0, SPLIT = 1, BEGIN = 2, MATCH = 3;
+
+  private final int ruleCount;
+  private final boolean[] opaque;
+  /** number of opaque rules before index i, ruleCount + 1 entries */
+  private final int[] opaqueBefore;
+
+  // NFA, one entry per state
+  private final int[] kind, out1, out2, rule;
+  /** for CHARS states: the char classes (see classOf) accepted */
+  private final long[][] accepts;
+  /** start state per rule, -1 for opaque rules */
+  private final int[] starts;
+  /** start states of the rules not anchored with a leading ^, in rule order */
+  private final int[] unanchoredStarts, unanchoredRules;
+
+  // char -> class mapping, classes are the intervals between consecutive boundaries
+  private final char[] boundaries;
+  private final byte[] asciiClass = new byte[128];
+  private final int classCount;
+
+  // lazily built DFA
+  private final Object lock = new Object();
+  private Map<StateKey, DfaState> states;
+  private volatile DfaState start;
+  // scratch space for closures, guarded by lock
+  private final int[] marks;
+  private int mark;
+
+  RegexSet(List<RegexNode> regexes) {
+    ruleCount = regexes.size();
+    opaque = new boolean[ruleCount];
+    opaqueBefore = new int[ruleCount + 1];
+    starts = new int[ruleCount];
+
+    Builder builder = new Builder();
+    List<Integer> unanchored = new ArrayList<Integer>();
+    for (int i = 0; i < ruleCount; i++) {
+      RegexNode regex = regexes.get(i);
+      int start = regex == null ? -1 : builder.rule(regex, i);
+      starts[i] = start;
+      opaque[i] = start < 0;
+      opaqueBefore[i + 1] = opaqueBefore[i] + (opaque[i] ? 1 : 0);
+      if (start >= 0 && !anchored(regex)) {
+        unanchored.add(i);
+      }
+    }
+    unanchoredRules = new int[unanchored.size()];
+    unanchoredStarts = new int[unanchored.size()];
+    for (int i = 0; i < unanchoredRules.length; i++) {
+      unanchoredRules[i] = unanchored.get(i);
+      unanchoredStarts[i] = starts[unanchored.get(i)];
+    }
+
+    // split the char space at every range boundary used by the rules
+    TreeSet<Integer> cuts = new TreeSet<Integer>();
+    cuts.add(0);
+    for (RegexNode.Chars chars : builder.chars) {
+      for (int i = 0; i < chars.ranges.length; i += 2) {
+        cuts.add((int) chars.ranges[i]);
+        if (chars.ranges[i + 1] < Character.MAX_VALUE) {
+          cuts.add(chars.ranges[i + 1] + 1);
+        }
+      }
+    }
+    boundaries = new char[cuts.size()];
+    int b = 0;
+    for (int cut : cuts) {
+      boundaries[b++] = (char) cut;
+    }
+    classCount = boundaries.length;
+    for (char c = 0; c < asciiClass.length; c++) {
+      asciiClass[c] = (byte) search(c);
+    }
+
+    int size = builder.kind.size();
+    kind = new int[size];
+    out1 = new int[size];
+    out2 = new int[size];
+    rule = new int[size];
+    accepts = new long[size][];
+    for (int s = 0; s < size; s++) {
+      kind[s] = builder.kind.get(s);
+      out1[s] = builder.out1.get(s);
+      out2[s] = builder.out2.get(s);
+      rule[s] = builder.rule.get(s);
+      RegexNode.Chars chars = builder.stateChars.get(s);
+      if (chars != null) {
+        accepts[s] = new long[(classCount + 63) >>> 6];
+        for (int cls = 0; cls < classCount; cls++) {
+          if (chars.contains(boundaries[cls])) {
+            accepts[s][cls >>> 6] |= 1L << cls;
+          }
+        }
+      }
+    }
+    marks = new int[size];
+    reset();
+  }
+
+  boolean isOpaque(int rule) {
+    return opaque[rule];
+  }
+
+  /**
+   * @return true if any rule before the given index is opaque
+   */
+  boolean hasOpaqueBefore(int rule) {
+    return opaqueBefore[rule] > 0;
+  }
+
+  /**
+   * @return the lowest non-opaque rule matching somewhere in agentString, the rule count if none
+   *         does, or {@link #UNKNOWN}
+   */
+  int firstMatch(CharSequence agentString) {
+    DfaState state = start;
+    for (int i = 0, length = agentString.length(); i < length && !state.done; i++) {
+      char c = agentString.charAt(i);
+      if (Character.isHighSurrogate(c) || Character.isLowSurrogate(c)) {
+        // Pattern matches code points, e.g. '.' consumes a whole surrogate pair
+        return UNKNOWN;
+      }
+      int cls = c < 128 ? asciiClass[c] : search(c);
+      DfaState next = state.next[cls];
+      if (next == null) {
+        next = transition(state, cls);
+      }
+      state = next;
+    }
+    return state.matched;
+  }
+
+  private int search(char c) {
+    int i = Arrays.binarySearch(boundaries, c);
+    return i >= 0 ? i : -i - 2;
+  }
+
+  private static boolean anchored(RegexNode regex) {
+    while (true) {
+      if (regex instanceof RegexNode.Anchor) {
+        return ((RegexNode.Anchor) regex).begin;
+      } else if (regex instanceof RegexNode.Concat && ((RegexNode.Concat) regex).items.length > 0) {
+        regex = ((RegexNode.Concat) regex).items[0];
+      } else if (regex instanceof RegexNode.Group) {
+        regex = ((RegexNode.Group) regex).body;
+      } else {
+        return false;
+      }
+    }
+  }
+
+  private void reset() {
+    synchronized (lock) {
+      states = new HashMap<StateKey, DfaState>();
+      int[] seeds = new int[ruleCount];
+      int count = 0;
+      for (int s : starts) {
+        if (s >= 0) {
+          seeds[count++] = s;
+        }
+      }
+      start = state(Arrays.copyOf(seeds, count), ruleCount, true);
+    }
+  }
+
+  private DfaState transition(DfaState from, int cls) {
+    synchronized (lock) {
+      DfaState next = from.next[cls];
+      if (next != null) {
+        return next;
+      }
+      if (states.size() >= MAX_DFA_STATES) {
+        // keep going with a fresh cache, scans holding old states simply finish on them
+        reset();
+      }
+      int[] seeds = new int[from.nfaStates.length + unanchoredStarts.length];
+      int count = 0;
+      for (int s : from.nfaStates) {
+        if (kind[s] == CHARS && (accepts[s][cls >>> 6] & (1L << cls)) != 0) {
+          seeds[count++] = out1[s];
+        }
+      }
+      for (int i = 0; i < unanchoredRules.length && unanchoredRules[i] < from.matched; i++) {
+        seeds[count++] = unanchoredStarts[i];
+      }
+      next = state(Arrays.copyOf(seeds, count), from.matched, false);
+      from.next[cls] = next;
+      return next;
+    }
+  }
+
+  /**
+   * Epsilon closure of the seeds, restricted to rules before the best match so far
+   */
+  private DfaState state(int[] seeds, int matched, boolean atStart) {
+    if (++mark == 0) {
+      Arrays.fill(marks, 0);
+      mark = 1;
+    }
+    int[] stack = new int[marks.length];
+    int[] found = new int[marks.length];
+    int top = 0, count = 0;
+    for (int i = seeds.length - 1; i >= 0; i--) {
+      stack[top++] = seeds[i];
+    }
+    while (top > 0) {
+      int s = stack[--top];
+      if (marks[s] == mark || rule[s] >= matched) {
+        continue;
+      }
+      marks[s] = mark;
+      switch (kind[s]) {
+        case CHARS:
+          found[count++] = s;
+          break;
+        case SPLIT:
+          if (out2[s] >= 0) {
+            stack[top++] = out2[s];
+          }
+          stack[top++] = out1[s];
+          break;
+        case BEGIN:
+          if (atStart) {
+            stack[top++] = out1[s];
+          }
+          break;
+        case MATCH:
+          matched = Math.min(matched, rule[s]);
+          break;
+      }
+    }
+
+    int[] nfaStates = new int[count];
+    int kept = 0;
+    for (int i = 0; i < count; i++) {
+      if (rule[found[i]] < matched) {
+        nfaStates[kept++] = found[i];
+      }
+    }
+    nfaStates = Arrays.copyOf(nfaStates, kept);
+    Arrays.sort(nfaStates);
+
+    StateKey key = new StateKey(nfaStates, matched);
+    DfaState state = states.get(key);
+    if (state == null) {
+      boolean done = matched == 0
+          || (kept == 0 && (unanchoredRules.length == 0 || unanchoredRules[0] >= matched));
+      state = new DfaState(nfaStates, matched, done, classCount);
+      states.put(key, state);
+    }
+    return state;
+  }
+
+  private static final class StateKey {
+    private final int[] nfaStates;
+    private final int matched;
+    private final int hash;
+
+    StateKey(int[] nfaStates, int matched) {
+      this.nfaStates = nfaStates;
+      this.matched = matched;
+      this.hash = Arrays.hashCode(nfaStates) * 31 + matched;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof StateKey)) return false;
+      StateKey o = (StateKey) other;
+      return matched == o.matched && Arrays.equals(nfaStates, o.nfaStates);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  /**
+   * Only final fields: a state seen through a racy read of another state's next array is fully
+   * initialized, its own next entries are at worst still null and get recomputed under the lock.
+   */
+  private static final class DfaState {
+    final int[] nfaStates;
+    /** lowest rule matched so far, ruleCount if none */
+    final int matched;
+    /** no later input can change matched */
+    final boolean done;
+    final DfaState[] next;
+
+    DfaState(int[] nfaStates, int matched, boolean done, int classCount) {
+      this.nfaStates = nfaStates;
+      this.matched = matched;
+      this.done = done;
+      this.next = new DfaState[classCount];
+    }
+  }
+
+  /**
+   * Thompson construction; a fragment is a start state plus the dangling exits to patch
+   */
+  private static final class Builder {
+    final List<Integer> kind = new ArrayList<Integer>();
+    final List<Integer> out1 = new ArrayList<Integer>();
+    final List<Integer> out2 = new ArrayList<Integer>();
+    final List<Integer> rule = new ArrayList<Integer>();
+    final List<RegexNode.Chars> stateChars = new ArrayList<RegexNode.Chars>();
+    final List<RegexNode.Chars> chars = new ArrayList<RegexNode.Chars>();
+    private int currentRule;
+
+    private static final class Opaque extends RuntimeException {
+      @Override
+      public synchronized Throwable fillInStackTrace() {
+        return this;
+      }
+    }
+
+    private static final class Fragment {
+      final int start;
+      /** exits as state * 2 + (0 for out1, 1 for out2) */
+      final List<Integer> exits;
+
+      Fragment(int start, List<Integer> exits) {
+        this.start = start;
+        this.exits = exits;
+      }
+    }
+
+    /**
+     * @return the start state of the rule, -1 if it cannot be expressed
+     */
+    int rule(RegexNode regex, int index) {
+      int mark = kind.size();
+      int charsMark = chars.size();
+      currentRule = index;
+      try {
+        Fragment fragment = fragment(regex);
+        int match = add(MATCH, -1, -1, null);
+        patch(fragment, match);
+        return fragment.start;
+      } catch (Opaque e) {
+        truncate(kind, mark);
+        truncate(out1, mark);
+        truncate(out2, mark);
+        truncate(rule, mark);
+        truncate(stateChars, mark);
+        truncate(chars, charsMark);
+        return -1;
+      }
+    }
+
+    private static <T> void truncate(List<T> list, int size) {
+      list.subList(size, list.size()).clear();
+    }
+
+    private int add(int stateKind, int o1, int o2, RegexNode.Chars stateCharSet) {
+      kind.add(stateKind);
+      out1.add(o1);
+      out2.add(o2);
+      rule.add(currentRule);
+      stateChars.add(stateCharSet);
+      if (stateCharSet != null) {
+        chars.add(stateCharSet);
+      }
+      return kind.size() - 1;
+    }
+
+    private void patch(Fragment fragment, int target) {
+      for (int exit : fragment.exits) {
+        (exit % 2 == 0 ? out1 : out2).set(exit / 2, target);
+      }
+    }
+
+    private static List<Integer> exits(int... exits) {
+      List<Integer> list = new ArrayList<Integer>();
+      for (int exit : exits) {
+        list.add(exit);
+      }
+      return list;
+    }
+
+    private Fragment fragment(RegexNode node) {
+      if (node instanceof RegexNode.Chars) {
+        int s = add(CHARS, -1, -1, (RegexNode.Chars) node);
+        return new Fragment(s, exits(s * 2));
+      }
+      if (node instanceof RegexNode.Anchor) {
+        if (!((RegexNode.Anchor) node).begin) {
+          // $ also matches before a final line terminator, not worth modelling
+          throw new Opaque();
+        }
+        int s = add(BEGIN, -1, -1, null);
+        return new Fragment(s, exits(s * 2));
+      }
+      if (node instanceof RegexNode.Group) {
+        return fragment(((RegexNode.Group) node).body);
+      }
+      if (node instanceof RegexNode.Concat) {
+        RegexNode[] items = ((RegexNode.Concat) node).items;
+        if (items.length == 0) {
+          return empty();
+        }
+        Fragment first = fragment(items[0]);
+        Fragment last = first;
+        for (int i = 1; i < items.length; i++) {
+          Fragment next = fragment(items[i]);
+          patch(last, next.start);
+          last = next;
+        }
+        return new Fragment(first.start, last.exits);
+      }
+      if (node instanceof RegexNode.Alternation) {
+        RegexNode[] alternatives = ((RegexNode.Alternation) node).alternatives;
+        Fragment result = fragment(alternatives[alternatives.length - 1]);
+        for (int i = alternatives.length - 2; i >= 0; i--) {
+          Fragment alternative = fragment(alternatives[i]);
+          int s = add(SPLIT, alternative.start, result.start, null);
+          List<Integer> exits = new ArrayList<Integer>(alternative.exits);
+          exits.addAll(result.exits);
+          result = new Fragment(s, exits);
+        }
+        return result;
+      }
+      if (node instanceof RegexNode.Repeat) {
+        return repeat((RegexNode.Repeat) node);
+      }
+      throw new Opaque();
+    }
+
+    private Fragment empty() {
+      int s = add(SPLIT, -1, -1, null);
+      return new Fragment(s, exits(s * 2));
+    }
+
+    private Fragment repeat(RegexNode.Repeat repeat) {
+      if (repeat.min > MAX_REPEAT || repeat.max > MAX_REPEAT) {
+        throw new Opaque();
+      }
+      // greediness does not change whether a match exists
+      Fragment result = null;
+      for (int i = 0; i < repeat.min; i++) {
+        result = append(result, fragment(repeat.body));
+      }
+      if (repeat.max == RegexNode.UNBOUNDED) {
+        Fragment body = fragment(repeat.body);
+        int loop = add(SPLIT, body.start, -1, null);
+        patch(body, loop);
+        result = append(result, new Fragment(loop, exits(loop * 2 + 1)));
+      } else {
+        for (int i = repeat.min; i < repeat.max; i++) {
+          Fragment body = fragment(repeat.body);
+          int optional = add(SPLIT, body.start, -1, null);
+          List<Integer> exits = new ArrayList<Integer>(body.exits);
+          exits.add(optional * 2 + 1);
+          result = append(result, new Fragment(optional, exits));
+        }
+      }
+      return result == null ? empty() : result;
+    }
+
+    private Fragment append(Fragment first, Fragment second) {
+      if (first == null) {
+        return second;
+      }
+      patch(first, second.start);
+      return new Fragment(first.start, second.exits);
+    }
+  }
+}
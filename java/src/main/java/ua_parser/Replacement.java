@@ -0,0 +1,52 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package ua_parser;
+
+import java.util.regex.MatchResult;
+
+/**
+ * A family replacement of regexes.yaml, split once around its first <code>$1</code> so that
+ * applying it only builds the result
+ *
+ * @author Adrian Muraru (@adimuraru)
+ */
+final class Replacement {
+  private final String template;
+  /** the text around the first $1, null without one */
+  private final String prefix, suffix;
+
+  Replacement(String template) {
+    this.template = template;
+    int reference = template.indexOf("$1");
+    this.prefix = reference < 0 ? null : template.substring(0, reference);
+    this.suffix = reference < 0 ? null : template.substring(reference + 2);
+  }
+
+  /**
+   * @return the template with its first $1 replaced by group 1, as is without a $1 or group 1
+   */
+  String apply(MatchResult match) {
+    if (prefix == null || match.groupCount() < 1) {
+      return template;
+    }
+    String group = match.group(1);
+    if (group == null) {
+      return template;
+    }
+    return new StringBuilder(prefix.length() + group.length() + suffix.length())
+        .append(prefix).append(group).append(suffix).toString();
+  }
+}
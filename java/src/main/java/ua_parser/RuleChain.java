@@ -0,0 +1,282 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package ua_parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Ordered list of rules of which the first one producing a result wins. Narrows the rules to try
+ * with the {@link LiteralPrefilter} and, when enabled, with a {@link RegexSet} that names the first
+ * matching regex in a single pass.
+ *
+ * @author Adrian Muraru (@adimuraru)
+ */
+abstract class RuleChain<T> {
+  private final int ruleCount;
+  private final List<Set<String>> literals;
+  /** the rule regexes, null entries for rules that are not plain regexes */
+  private final List<Pattern> patterns;
+  // both built on first use, so that setting a parser up stays cheap
+  private volatile LiteralPrefilter prefilter;
+  private volatile boolean regexSetEnabled;
+  private volatile RegexSet regexSet;
+  /** how often each rule won, and last how often none did, null unless counting */
+  private volatile StripedCounters hits;
+  /** histogram of the time taken by {@link #first}, null unless timing */
+  private volatile StripedCounters latency;
+  /**
+   * per thread, the matcher of each rule regex it used, reset for each input and back to an empty
+   * one once the rule ran, so that no thread keeps the last input (or the buffer it views) reachable
+   */
+  private final ThreadLocal<Matcher[]> matchers = new ThreadLocal<Matcher[]>() {
+    @Override
+    protected Matcher[] initialValue() {
+      return new Matcher[ruleCount];
+    }
+  };
+
+  /**
+   * @param patterns per rule, the regex or null when the set has to leave the rule alone
+   * @param literals per rule, see {@link RegexLiterals#required(Pattern)}
+   */
+  RuleChain(List<Pattern> patterns, List<Set<String>> literals) {
+    this.ruleCount = patterns.size();
+    this.patterns = new ArrayList<Pattern>(patterns);
+    this.literals = new ArrayList<Set<String>>(literals);
+  }
+
+  /**
+   * @return the result of the given rule, null if it does not apply to the input
+   */
+  abstract T match(int rule, ParseInput input);
+
+  /**
+   * @return the calling thread's matcher of the rule regex reset to the input, valid until the rule
+   *         is done with the input
+   */
+  Matcher matcher(int rule, CharSequence input) {
+    Matcher[] matchers = this.matchers.get();
+    Matcher matcher = matchers[rule];
+    if (matcher == null) {
+      return matchers[rule] = patterns.get(rule).matcher(input);
+    }
+    return matcher.reset(input);
+  }
+
+  /**
+   * Runs the rule, then lets go of the input its matcher was reset to
+   */
+  private T apply(int rule, ParseInput input) {
+    try {
+      return match(rule, input);
+    } finally {
+      Matcher matcher = matchers.get()[rule];
+      if (matcher != null) {
+        matcher.reset("");
+      }
+    }
+  }
+
+  int size() {
+    return ruleCount;
+  }
+
+  /**
+   * @return the literals the prefilter was built from, one entry per rule
+   */
+  List<Set<String>> literals() {
+    return literals;
+  }
+
+  boolean isRegexSetEnabled() {
+    return regexSetEnabled;
+  }
+
+  /**
+   * Counts how often each rule produces the result, see {@link #hits()}
+   */
+  void setCounting(boolean enabled) {
+    if (!enabled) {
+      hits = null;
+    } else if (hits == null) {
+      hits = new StripedCounters(ruleCount + 1);
+    }
+  }
+
+  /**
+   * @return per rule, how often it produced the result while counting
+   */
+  long[] hits() {
+    StripedCounters hits = this.hits;
+    return hits == null ? new long[ruleCount] : Arrays.copyOf(hits.getAll(), ruleCount);
+  }
+
+  /**
+   * @return how often no rule produced a result while counting
+   */
+  long misses() {
+    StripedCounters hits = this.hits;
+    return hits == null ? 0 : hits.get(ruleCount);
+  }
+
+  private T hit(int rule, T result) {
+    StripedCounters hits = this.hits;
+    if (hits != null) {
+      hits.increment(rule);
+    }
+    return result;
+  }
+
+  /**
+   * Records how long {@link #first} takes, see {@link #latencies()}
+   */
+  void setTiming(boolean enabled) {
+    if (!enabled) {
+      latency = null;
+    } else if (latency == null) {
+      latency = new StripedCounters(Long.SIZE);
+    }
+  }
+
+  /**
+   * @return while timing, at i the number of calls that took from 2^(i-1) to 2^i - 1 ns
+   */
+  long[] latencies() {
+    StripedCounters latency = this.latency;
+    return latency == null ? new long[Long.SIZE] : latency.getAll();
+  }
+
+  /**
+   * The set is compiled on first use, which takes a while for long rule lists.
+   */
+  void setRegexSetEnabled(boolean enabled) {
+    regexSetEnabled = enabled;
+  }
+
+  private LiteralPrefilter prefilter() {
+    LiteralPrefilter prefilter = this.prefilter;
+    if (prefilter == null) {
+      // racing threads may each build one, they are all the same
+      this.prefilter = prefilter = new LiteralPrefilter(literals);
+    }
+    return prefilter;
+  }
+
+  private RegexSet regexSet() {
+    RegexSet set = regexSet;
+    if (set == null) {
+      synchronized (this) {
+        set = regexSet;
+        if (set == null) {
+          List<RegexNode> regexes = new ArrayList<RegexNode>(ruleCount);
+          for (Pattern pattern : patterns) {
+            regexes.add(pattern == null ? null : RegexNode.parse(pattern));
+          }
+          regexSet = set = new RegexSet(regexes);
+        }
+      }
+    }
+    return set;
+  }
+
+  /**
+   * @param candidates the prefilter candidates of the input if already known, as computed from
+   *        {@link #literals()}, or null
+   * @return the result of the first rule that applies, null if none does
+   */
+  T first(ParseInput input, long[] candidates) {
+    StripedCounters latency = this.latency;
+    if (latency == null) {
+      return find(input, candidates);
+    }
+    long start = System.nanoTime();
+    T result = find(input, candidates);
+    long elapsed = Math.max(0L, System.nanoTime() - start);
+    latency.increment(Long.SIZE - Long.numberOfLeadingZeros(elapsed));
+    return result;
+  }
+
+  private T find(ParseInput input, long[] candidates) {
+    if (input.isEmpty()) {
+      T result;
+      for (int i = 0; i < ruleCount; i++) {
+        if ((result = apply(i, input)) != null) {
+          return hit(i, result);
+        }
+      }
+      return hit(ruleCount, null);
+    }
+    CharSequence agentString = input.agentString;
+    RegexSet set = regexSetEnabled ? regexSet() : null;
+    int matched = set == null ? RegexSet.UNKNOWN : set.firstMatch(agentString);
+    if (matched == RegexSet.UNKNOWN) {
+      return first(input, candidates == null ? prefilter().candidates(agentString) : candidates, 0);
+    }
+
+    // no rule before the matched one can apply, except those the set does not know about
+    T result;
+    if (set.hasOpaqueBefore(matched)) {
+      if (candidates == null) {
+        candidates = prefilter().candidates(agentString);
+      }
+      for (int i = LiteralPrefilter.nextCandidate(candidates, 0); i >= 0 && i < matched;
+          i = LiteralPrefilter.nextCandidate(candidates, i + 1)) {
+        if (set.isOpaque(i) && (result = apply(i, input)) != null) {
+          return hit(i, result);
+        }
+      }
+    }
+    if (matched == ruleCount) {
+      return hit(ruleCount, null);
+    }
+    if ((result = apply(matched, input)) != null) {
+      return hit(matched, result);
+    }
+    // the regex matched but the rule produced nothing, e.g. an empty family group
+    if (candidates == null) {
+      candidates = prefilter().candidates(agentString);
+    }
+    return first(input, candidates, matched + 1);
+  }
+
+  private T first(ParseInput input, long[] candidates, int from) {
+    T result;
+    for (int i = LiteralPrefilter.nextCandidate(candidates, from); i >= 0;
+        i = LiteralPrefilter.nextCandidate(candidates, i + 1)) {
+      if ((result = apply(i, input)) != null) {
+        return hit(i, result);
+      }
+    }
+    return hit(ruleCount, null);
+  }
+
+  /**
+   * Tries every rule in order, without the prefilter or the regex set
+   */
+  T firstUnfiltered(ParseInput input) {
+    T result;
+    for (int i = 0; i < ruleCount; i++) {
+      if ((result = apply(i, input)) != null) {
+        return result;
+      }
+    }
+    return null;
+  }
+}
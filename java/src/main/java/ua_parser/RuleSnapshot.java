@@ -0,0 +1,276 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package ua_parser;
+
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The rules of a regexes.yaml file in a compact binary form, along with the literals the parsers
+ * prefilter rules with (see {@link RegexLiterals}), so that a {@link Parser} can be set up without
+ * SnakeYAML or regex analysis. The build writes snapshots of both bundled rule files, see
+ * {@link Parser#SNAPSHOT_PATH_FULL} and {@link Parser#SNAPSHOT_PATH_MINIMAL}.
+ *
+ * @author Adrian Muraru (@adimuraru)
+ */
+public final class RuleSnapshot {
+  private static final int MAGIC = 0x55415053; // "UAPS"
+  private static final int VERSION = 1;
+
+  final List<Map> uaParserConfigs, osParserConfigs, deviceParserConfigs;
+  final List<String> mobileUAFamilies, mobileOSFamilies;
+  /** per rule literals of each list, null when not computed yet */
+  final List<Set<String>> uaLiterals, osLiterals, deviceLiterals;
+
+  private RuleSnapshot(List<Map> uaParserConfigs, List<Map> osParserConfigs,
+      List<Map> deviceParserConfigs, List<String> mobileUAFamilies, List<String> mobileOSFamilies,
+      List<Set<String>> uaLiterals, List<Set<String>> osLiterals,
+      List<Set<String>> deviceLiterals) {
+    this.uaParserConfigs = uaParserConfigs;
+    this.osParserConfigs = osParserConfigs;
+    this.deviceParserConfigs = deviceParserConfigs;
+    this.mobileUAFamilies = mobileUAFamilies;
+    this.mobileOSFamilies = mobileOSFamilies;
+    this.uaLiterals = uaLiterals;
+    this.osLiterals = osLiterals;
+    this.deviceLiterals = deviceLiterals;
+  }
+
+  /**
+   * Loads the rules of a regexes.yaml file, the literals are extracted when the snapshot is used
+   * or written
+   */
+  public static RuleSnapshot fromYaml(InputStream regexYaml) {
+    Yaml yaml = new Yaml(new SafeConstructor());
+    Map<String, List> regexConfig = (Map<String, List>) yaml.load(regexYaml);
+
+    List<Map> uaParserConfigs = regexConfig.get("user_agent_parsers");
+    if (uaParserConfigs == null) {
+      throw new IllegalArgumentException("user_agent_parsers is missing from yaml");
+    }
+    List<Map> osParserConfigs = regexConfig.get("os_parsers");
+    if (osParserConfigs == null) {
+      throw new IllegalArgumentException("os_parsers is missing from yaml");
+    }
+    List<Map> deviceParserConfigs = regexConfig.get("device_parsers");
+    if (deviceParserConfigs == null) {
+      throw new IllegalArgumentException("device_parsers is missing from yaml");
+    }
+    return new RuleSnapshot(uaParserConfigs, osParserConfigs, deviceParserConfigs,
+        regexConfig.get("mobile_user_agent_families"), regexConfig.get("mobile_os_families"),
+        null, null, null);
+  }
+
+  /**
+   * Reads a snapshot written by {@link #write(OutputStream)}
+   */
+  public static RuleSnapshot read(InputStream in) throws IOException {
+    DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+    if (data.readInt() != MAGIC) {
+      throw new IOException("not a rule snapshot");
+    }
+    int version = data.readInt();
+    if (version != VERSION) {
+      throw new IOException("unsupported rule snapshot version " + version);
+    }
+    List<Map> uaParserConfigs = readConfigs(data);
+    List<Set<String>> uaLiterals = readLiterals(data, uaParserConfigs.size());
+    List<Map> osParserConfigs = readConfigs(data);
+    List<Set<String>> osLiterals = readLiterals(data, osParserConfigs.size());
+    List<Map> deviceParserConfigs = readConfigs(data);
+    List<Set<String>> deviceLiterals = readLiterals(data, deviceParserConfigs.size());
+    return new RuleSnapshot(uaParserConfigs, osParserConfigs, deviceParserConfigs,
+        readStrings(data), readStrings(data), uaLiterals, osLiterals, deviceLiterals);
+  }
+
+  /**
+   * Writes the rules and their literals, see {@link #read(InputStream)}
+   */
+  public void write(OutputStream out) throws IOException {
+    List<Set<String>> uaLiterals = this.uaLiterals, osLiterals = this.osLiterals,
+        deviceLiterals = this.deviceLiterals;
+    if (uaLiterals == null) {
+      // the parsers work them out, and check the rules on the way
+      Parser parser = new Parser(this, null);
+      uaLiterals = parser.rules.uaParser.rules.literals();
+      osLiterals = parser.rules.osParser.rules.literals();
+      deviceLiterals = parser.rules.deviceParser.rules.literals();
+    }
+    DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+    data.writeInt(MAGIC);
+    data.writeInt(VERSION);
+    writeConfigs(data, uaParserConfigs);
+    writeLiterals(data, uaLiterals);
+    writeConfigs(data, osParserConfigs);
+    writeLiterals(data, osLiterals);
+    writeConfigs(data, deviceParserConfigs);
+    writeLiterals(data, deviceLiterals);
+    writeStrings(data, mobileUAFamilies);
+    writeStrings(data, mobileOSFamilies);
+    data.flush();
+  }
+
+  /**
+   * @return a hash of the rules, telling apart rule sets that may parse differently, see
+   *         {@link Parser#exportCache}
+   */
+  long hash() {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    DataOutputStream data = new DataOutputStream(new DigestOutputStream(new OutputStream() {
+      @Override
+      public void write(int b) {
+      }
+    }, digest));
+    try {
+      writeConfigs(data, uaParserConfigs);
+      writeConfigs(data, osParserConfigs);
+      writeConfigs(data, deviceParserConfigs);
+      writeStrings(data, mobileUAFamilies);
+      writeStrings(data, mobileOSFamilies);
+      data.flush();
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return ByteBuffer.wrap(digest.digest()).getLong();
+  }
+
+  private static void writeConfigs(DataOutputStream data, List<Map> configs) throws IOException {
+    data.writeInt(configs.size());
+    for (Map<String, String> config : configs) {
+      data.writeInt(config.size());
+      for (Map.Entry<String, String> entry : config.entrySet()) {
+        data.writeUTF(entry.getKey());
+        writeString(data, entry.getValue());
+      }
+    }
+  }
+
+  private static List<Map> readConfigs(DataInputStream data) throws IOException {
+    int count = data.readInt();
+    List<Map> configs = new ArrayList<Map>(count);
+    for (int i = 0; i < count; i++) {
+      int size = data.readInt();
+      Map<String, String> config = new LinkedHashMap<String, String>();
+      for (int entry = 0; entry < size; entry++) {
+        config.put(data.readUTF(), readString(data));
+      }
+      configs.add(config);
+    }
+    return configs;
+  }
+
+  private static void writeLiterals(DataOutputStream data, List<Set<String>> literals)
+      throws IOException {
+    for (Set<String> ruleLiterals : literals) {
+      writeStrings(data, ruleLiterals == null ? null : new ArrayList<String>(ruleLiterals));
+    }
+  }
+
+  private static List<Set<String>> readLiterals(DataInputStream data, int count)
+      throws IOException {
+    List<Set<String>> literals = new ArrayList<Set<String>>(count);
+    for (int i = 0; i < count; i++) {
+      List<String> ruleLiterals = readStrings(data);
+      literals.add(ruleLiterals == null ? null : new LinkedHashSet<String>(ruleLiterals));
+    }
+    return literals;
+  }
+
+  private static void writeStrings(DataOutputStream data, List<String> strings)
+      throws IOException {
+    data.writeInt(strings == null ? -1 : strings.size());
+    if (strings != null) {
+      for (String string : strings) {
+        data.writeUTF(string);
+      }
+    }
+  }
+
+  private static List<String> readStrings(DataInputStream data) throws IOException {
+    int count = data.readInt();
+    if (count < 0) {
+      return null;
+    }
+    List<String> strings = new ArrayList<String>(count);
+    for (int i = 0; i < count; i++) {
+      strings.add(data.readUTF());
+    }
+    return strings;
+  }
+
+  private static void writeString(DataOutputStream data, String string) throws IOException {
+    data.writeBoolean(string != null);
+    if (string != null) {
+      data.writeUTF(string);
+    }
+  }
+
+  private static String readString(DataInputStream data) throws IOException {
+    return data.readBoolean() ? data.readUTF() : null;
+  }
+
+  /**
+   * Build step: turns each regexes yaml file given into a snapshot file
+   *
+   * <code>RuleSnapshot regexes.yaml regexes.snapshot [regexes.minimal.yaml ...]</code>
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length == 0 || args.length % 2 != 0) {
+      System.err.println("usage: RuleSnapshot <regexes yaml> <snapshot> [<yaml> <snapshot> ...]");
+      System.exit(1);
+    }
+    for (int i = 0; i < args.length; i += 2) {
+      RuleSnapshot snapshot;
+      InputStream yaml = new FileInputStream(args[i]);
+      try {
+        snapshot = fromYaml(yaml);
+      } finally {
+        yaml.close();
+      }
+      OutputStream out = new FileOutputStream(args[i + 1]);
+      try {
+        snapshot.write(out);
+      } finally {
+        out.close();
+      }
+    }
+  }
+}
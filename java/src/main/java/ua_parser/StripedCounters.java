@@ -0,0 +1,74 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package ua_parser;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed number of counters incremented by many threads at once: each thread adds to its own stripe
+ * of the counters, picked by thread id, so that threads rarely contend on a cache line. Reads sum
+ * the stripes.
+ *
+ * @author Adrian Muraru (@adimuraru)
+ */
+final class StripedCounters {
+  /** longs per cache line, kept between stripes */
+  private static final int PADDING = 8;
+  private static final int MAX_STRIPES = 64;
+
+  private final int size, stripeLength, stripeMask;
+  private final AtomicLongArray counts;
+
+  StripedCounters(int size) {
+    int stripes = 1;
+    while (stripes < 2 * Runtime.getRuntime().availableProcessors() && stripes < MAX_STRIPES) {
+      stripes *= 2;
+    }
+    this.size = size;
+    this.stripeLength = size + PADDING;
+    this.stripeMask = stripes - 1;
+    this.counts = new AtomicLongArray(stripes * stripeLength);
+  }
+
+  int size() {
+    return size;
+  }
+
+  void add(int counter, long delta) {
+    int stripe = (int) Thread.currentThread().getId() & stripeMask;
+    counts.getAndAdd(stripe * stripeLength + counter, delta);
+  }
+
+  void increment(int counter) {
+    add(counter, 1);
+  }
+
+  long get(int counter) {
+    long sum = 0;
+    for (int i = counter; i < counts.length(); i += stripeLength) {
+      sum += counts.get(i);
+    }
+    return sum;
+  }
+
+  long[] getAll() {
+    long[] sums = new long[size];
+    for (int i = 0; i < size; i++) {
+      sums[i] = get(i);
+    }
+    return sums;
+  }
+}
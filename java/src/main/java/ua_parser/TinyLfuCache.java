@@ -0,0 +1,330 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package ua_parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Default {@link ParseCache}: lock striped LRU segments guarded by a TinyLFU admission policy.
+ *
+ * Every lookup is counted in a small frequency sketch. Once a segment is full, a new entry only
+ * gets in if its key was looked up more often, recently, than the least recently used entry it
+ * would evict. One-off user agents (crawlers, garbage) thus stay out instead of pushing the popular
+ * ones out of the cache.
+ *
+ * @author Adrian Muraru (@adimuraru)
+ */
+public class TinyLfuCache implements ParseCache {
+  private final Segment[] segments;
+  private final int segmentMask;
+  private final boolean recordStats;
+
+  /**
+   * Cache with four segments per core, recording stats
+   */
+  public TinyLfuCache(int maximumSize) {
+    this(maximumSize, 4 * Runtime.getRuntime().availableProcessors(), true);
+  }
+
+  /**
+   * @param concurrencyLevel number of threads expected to use the cache at once, rounded up to a
+   *        power of two segments
+   */
+  public TinyLfuCache(int maximumSize, int concurrencyLevel, boolean recordStats) {
+    if (maximumSize <= 0) {
+      throw new IllegalArgumentException("maximumSize must be positive: " + maximumSize);
+    }
+    if (concurrencyLevel <= 0) {
+      throw new IllegalArgumentException("concurrencyLevel must be positive: " + concurrencyLevel);
+    }
+    // at least a few entries per segment, or the admission policy has nothing to compare
+    int segmentCount = 1;
+    while (segmentCount < concurrencyLevel && segmentCount * 2 * 16 <= maximumSize) {
+      segmentCount *= 2;
+    }
+    this.segments = new Segment[segmentCount];
+    this.segmentMask = segmentCount - 1;
+    int segmentSize = (maximumSize + segmentCount - 1) / segmentCount;
+    for (int i = 0; i < segmentCount; i++) {
+      segments[i] = new Segment(segmentSize);
+    }
+    this.recordStats = recordStats;
+  }
+
+  /**
+   * Looks up other char sequences than strings without copying them to a string
+   */
+  @Override
+  public Client get(CharSequence agentString) {
+    Key key = new Key(agentString);
+    int hash = spread(key.hashCode());
+    Segment segment = segments[hash & segmentMask];
+    synchronized (segment) {
+      segment.sketch.increment(hash);
+      Client client = segment.map.get(key);
+      if (recordStats) {
+        if (client == null) {
+          segment.misses++;
+        } else {
+          segment.hits++;
+        }
+      }
+      return client;
+    }
+  }
+
+  @Override
+  public void put(String agentString, Client client) {
+    Key key = new Key(agentString);
+    int hash = spread(key.hashCode());
+    Segment segment = segments[hash & segmentMask];
+    synchronized (segment) {
+      Map<Key, Client> map = segment.map;
+      if (map.size() < segment.capacity || map.containsKey(key)) {
+        map.put(key, client);
+        return;
+      }
+      Iterator<Key> eldest = map.keySet().iterator();
+      Key victim = eldest.next();
+      boolean admitted =
+          segment.sketch.frequency(hash) > segment.sketch.frequency(spread(victim.hashCode()));
+      if (admitted) {
+        eldest.remove();
+        map.put(key, client);
+      }
+      if (recordStats) {
+        if (admitted) {
+          segment.evictions++;
+        } else {
+          segment.rejections++;
+        }
+      }
+    }
+  }
+
+  @Override
+  public long size() {
+    long size = 0;
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        size += segment.map.size();
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Ranks the keys by their frequency in the sketch, the most recently used first among equals of
+   * a segment
+   */
+  @Override
+  public List<String> hottestKeys(int count) {
+    final List<String> keys = new ArrayList<String>();
+    final List<Integer> frequencies = new ArrayList<Integer>();
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        List<Key> segmentKeys = new ArrayList<Key>(segment.map.keySet());
+        // most recently used first
+        Collections.reverse(segmentKeys);
+        for (Key key : segmentKeys) {
+          keys.add(key.chars.toString());
+          frequencies.add(segment.sketch.frequency(spread(key.hashCode())));
+        }
+      }
+    }
+    Integer[] order = new Integer[keys.size()];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return frequencies.get(b).compareTo(frequencies.get(a));
+      }
+    });
+    List<String> hottest = new ArrayList<String>(Math.min(count, order.length));
+    for (int i = 0; i < order.length && i < count; i++) {
+      hottest.add(keys.get(order[i]));
+    }
+    return hottest;
+  }
+
+  @Override
+  public void clear() {
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        segment.map.clear();
+      }
+    }
+  }
+
+  @Override
+  public Stats stats() {
+    long hits = 0, misses = 0, evictions = 0, rejections = 0;
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        hits += segment.hits;
+        misses += segment.misses;
+        evictions += segment.evictions;
+        rejections += segment.rejections;
+      }
+    }
+    return new Stats(hits, misses, evictions, rejections);
+  }
+
+  /**
+   * Spreads the bits of String.hashCode, which are poor in the low ones for short similar keys
+   */
+  private static int spread(int hash) {
+    hash ^= hash >>> 16;
+    hash *= 0x45d9f3b;
+    return hash ^ (hash >>> 16);
+  }
+
+  /**
+   * Map key of a user agent held in any char sequence, equal to the keys of the same chars and
+   * hashing as String does, so that strings put and other sequences looked up meet. Keys put
+   * always hold strings.
+   */
+  private static final class Key {
+    final CharSequence chars;
+    private final int hash;
+
+    Key(CharSequence chars) {
+      this.chars = chars;
+      if (chars instanceof String) {
+        this.hash = chars.hashCode();
+      } else {
+        // same as String.hashCode
+        int hash = 0;
+        for (int i = 0; i < chars.length(); i++) {
+          hash = 31 * hash + chars.charAt(i);
+        }
+        this.hash = hash;
+      }
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Key)) {
+        return false;
+      }
+      CharSequence otherChars = ((Key) other).chars;
+      if (chars instanceof String && otherChars instanceof String) {
+        return chars.equals(otherChars);
+      }
+      if (hash != ((Key) other).hash || chars.length() != otherChars.length()) {
+        return false;
+      }
+      for (int i = 0; i < chars.length(); i++) {
+        if (chars.charAt(i) != otherChars.charAt(i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  private static final class Segment {
+    final int capacity;
+    final LinkedHashMap<Key, Client> map;
+    final FrequencySketch sketch;
+    long hits, misses, evictions, rejections;
+
+    Segment(int capacity) {
+      this.capacity = capacity;
+      this.map = new LinkedHashMap<Key, Client>(Math.min(capacity, 64), 0.75f, true);
+      this.sketch = new FrequencySketch(capacity);
+    }
+  }
+
+  /**
+   * Count-min sketch of 4 bit counters, 16 per long, halved every 10 * capacity increments so
+   * that frequencies reflect recent traffic
+   */
+  static final class FrequencySketch {
+    private static final int[] SEEDS = {0x97cb3127, 0xb8b0f4b9, 0x6a09e667, 0x3c6ef372};
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int additions;
+
+    FrequencySketch(int capacity) {
+      int length = 8;
+      while (length < capacity && length < (1 << 26)) {
+        length <<= 1;
+      }
+      this.table = new long[length];
+      this.tableMask = length - 1;
+      this.sampleSize = capacity >= Integer.MAX_VALUE / 10 ? Integer.MAX_VALUE : 10 * capacity;
+    }
+
+    int frequency(int hash) {
+      int frequency = 15;
+      for (int i = 0; i < SEEDS.length; i++) {
+        int index = index(hash, i);
+        int shift = offset(index);
+        frequency = Math.min(frequency, (int) (table[index >>> 4] >>> shift) & 15);
+      }
+      return frequency;
+    }
+
+    void increment(int hash) {
+      boolean added = false;
+      for (int i = 0; i < SEEDS.length; i++) {
+        int index = index(hash, i);
+        int shift = offset(index);
+        if (((table[index >>> 4] >>> shift) & 15) < 15) {
+          table[index >>> 4] += 1L << shift;
+          added = true;
+        }
+      }
+      if (added && ++additions >= sampleSize) {
+        for (int i = 0; i < table.length; i++) {
+          table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions /= 2;
+      }
+    }
+
+    /**
+     * @return counter number, the long holding it is index / 16
+     */
+    private int index(int hash, int i) {
+      int h = (hash + SEEDS[i]) * 0x9e3779b9;
+      h ^= h >>> 15;
+      return h & ((tableMask << 4) | 15);
+    }
+
+    private static int offset(int index) {
+      return (index & 15) << 2;
+    }
+  }
+}
@@ -17,14 +17,17 @@ package ua_parser;
 import com.google.common.base.CharMatcher;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Lists;
+import com.google.common.collect.Iterables;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.regex.MatchResult;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -37,29 +40,113 @@ import java.util.regex.Pattern;
 public class UserAgentParser {
   static final String SPIDER = "spider";
 
+  /** distinct results shared rather than copied, see {@link BoundedInterner} */
+  private static final int INTERNED_RESULTS = 8192;
+
   private final List<UAMatcher> matchers;
+  private final BoundedInterner<UserAgent> interner =
+      new BoundedInterner<UserAgent>(INTERNED_RESULTS);
+  final RuleChain<UserAgent> rules;
 
   public UserAgentParser(List<UAMatcher> patterns) {
+    this(patterns, null);
+  }
+
+  /**
+   * @param literals per matcher, see {@link #requiredLiterals(UAMatcher)}, null to get them here
+   */
+  UserAgentParser(List<UAMatcher> patterns, List<Set<String>> literals) {
     this.matchers = patterns;
+    List<Pattern> regexes = new ArrayList<Pattern>(patterns.size());
+    for (UAMatcher matcher : patterns) {
+      regexes.add(matcher instanceof UAPatternMatcher ? ((UAPatternMatcher) matcher).pattern : null);
+    }
+    if (literals == null) {
+      literals = new ArrayList<Set<String>>(patterns.size());
+      for (UAMatcher matcher : patterns) {
+        literals.add(requiredLiterals(matcher));
+      }
+    }
+    this.rules = new RuleChain<UserAgent>(regexes, literals) {
+      @Override
+      UserAgent match(int rule, ParseInput input) {
+        UAMatcher matcher = matchers.get(rule);
+        if (matcher instanceof UAStringMatcher) {
+          return ((UAStringMatcher) matcher).match(input);
+        }
+        if (matcher instanceof UAPatternMatcher) {
+          MatchResult match = find(rule, input.agentString);
+          return match == null ? null : ((UAPatternMatcher) matcher).result(match);
+        }
+        // matchers from elsewhere only know about strings, and read them outside of the budget
+        return matcher.match(input.agentString.toString());
+      }
+    };
+  }
+
+  /**
+   * @return literals one of which any UA the matcher matches contains (case-insensitively), null
+   *         if unknown as for matchers other than those of this class
+   */
+  static Set<String> requiredLiterals(UAMatcher matcher) {
+    if (matcher instanceof UAPatternMatcher) {
+      return ((UAPatternMatcher) matcher).requiredLiterals();
+    }
+    if (matcher instanceof UAStringMatcher) {
+      return ((UAStringMatcher) matcher).requiredLiterals();
+    }
+    return null;
   }
 
   public static UserAgentParser fromList(List<Map> configList) {
+    return fromList(configList, null);
+  }
+
+  static UserAgentParser fromList(List<Map> configList, List<Set<String>> literals) {
     List<UAMatcher> configPatterns = new ArrayList<UAMatcher>();
 
     for (Map<String, String> configMap : configList) {
       configPatterns.add(UserAgentParser.patternFromMap(configMap));
     }
-    return new UserAgentParser(configPatterns);
+    return new UserAgentParser(configPatterns, literals);
   }
 
   public UserAgent parse(String agentString) {
-    UserAgent agent;
-    for (UAMatcher p : matchers) {
-      if ((agent = p.match(agentString)) != null) {
-        return agent;
-      }
-    }
-    return new UserAgent("Other", null, null, null);
+    return parse(new ParseInput(agentString), null);
+  }
+
+  /**
+   * @param candidates prefilter candidates computed by the caller, or null
+   */
+  UserAgent parse(ParseInput input, long[] candidates) {
+    UserAgent agent = rules.first(input, candidates);
+    return interner.intern(agent == null ? new UserAgent("Other", null, null, null) : agent);
+  }
+
+  /**
+   * Tries every matcher in order, without the literal prefilter or the regex set
+   */
+  UserAgent parseUnfiltered(String agentString) {
+    UserAgent agent = rules.firstUnfiltered(new ParseInput(agentString));
+    return agent == null ? new UserAgent("Other", null, null, null) : agent;
+  }
+
+  /**
+   * Matches all regex rules at once with a {@link RegexSet}, off by default as the set of a long
+   * rule list takes time and memory to build
+   */
+  public void setRegexSetEnabled(boolean enabled) {
+    rules.setRegexSetEnabled(enabled);
+  }
+
+  /**
+   * @return where the regex of the given {@link UAPatternMatcher} rule first matches, null if
+   *         nowhere, valid until the next find of the rule on the same thread; overridden by the
+   *         parsers {@link ParserGenerator} generates
+   */
+  MatchResult find(int rule, CharSequence agentString) {
+    Matcher matcher = rules.matcher(rule, agentString);
+    return matcher.find() ? matcher : null;
   }
 
   protected static UAMatcher patternFromMap(Map<String, String> configMap) {
@@ -85,58 +172,86 @@ public class UserAgentParser {
   }
 
   protected static class UAStringMatcher implements UAMatcher {
+    private static final CharMatcher VERSION_END = CharMatcher.anyOf(" ;/,)");
+
     /**
      * List of strings to look for, at least one needs to match the full UA string The strings in
      * this list are also used to find the browser version : i.e. name/VERSION
      */
-    private List<String> names;
+    private String[] names;
+    /**
+     * names followed by the version separator
+     */
+    private String[] versionPrefixes;
     /**
      * additional list of strings that needs to be checked in order to complete the match
      */
-    private List<String> require;
+    private String[] require;
     /**
      * optional exclude
      */
-    private List<String> exclude;
+    private String[] exclude;
 
 
     private final String familyReplacement;
+    private final boolean spider;
     private String versionSeparator = "/";
 
     public UAStringMatcher(String name, String require, String exclude, String familyReplacement,
         String versionSeparator) {
 
+      if (versionSeparator != null)
+        this.versionSeparator = versionSeparator;
       if (name != null) {
-        names = Lists.newLinkedList(Splitter.on("|").trimResults().split(name.toLowerCase()));
+        names = toArray(Splitter.on("|").trimResults().split(name.toLowerCase()));
+        versionPrefixes = new String[names.length];
+        for (int i = 0; i < names.length; i++) {
+          versionPrefixes[i] = names[i] + this.versionSeparator;
+        }
       }
 
       if (require != null) {
-        this.require = Lists.newLinkedList(Splitter.on(",").split(require.toLowerCase()));
+        this.require = toArray(Splitter.on(",").split(require.toLowerCase()));
       }
       if (exclude != null) {
-        this.exclude = Lists.newLinkedList(Splitter.on(",").split(exclude.toLowerCase()));
+        this.exclude = toArray(Splitter.on(",").split(exclude.toLowerCase()));
       }
       this.familyReplacement = familyReplacement;
-      if (versionSeparator != null)
-        this.versionSeparator = versionSeparator;
+      this.spider = familyReplacement != null && familyReplacement.equalsIgnoreCase(SPIDER);
+    }
+
+    private static String[] toArray(Iterable<String> strings) {
+      return Iterables.toArray(strings, String.class);
+    }
+
+    Set<String> requiredLiterals() {
+      return names == null ? Collections.<String>emptySet()
+          : new LinkedHashSet<String>(Arrays.asList(names));
     }
 
     @Override
     public UserAgent match(String agentString) {
-      if (agentString == null || agentString.length() == 0) {
+      return match(new ParseInput(agentString));
+    }
+
+    public UserAgent match(CharSequence agentString) {
+      return match(new ParseInput(agentString));
+    }
+
+    /**
+     * Same as {@link #match(CharSequence)}, reusing the lower case form of the input
+     */
+    UserAgent match(ParseInput input) {
+      if (input.isEmpty()) {
         return new UserAgent(SPIDER, null, null, null);
       }
       if (this.names == null){
         return null;
       }
 
-      int pos, posStart, posEnd;
-      String version;
-      String[] versionComponents;
-
-      agentString = agentString.toLowerCase();
-
-      for (String name : names) {
+      String agentString = input.lowerCase();
+      for (int n = 0; n < names.length; n++) {
+        String name = names[n];
         if (agentString.contains(name)) {
           // main keyword match, check additional names
           if (require != null) {
@@ -153,32 +268,15 @@ public class UserAgentParser {
             }
           }
           // matched! extract version if required
-          if (familyReplacement.equalsIgnoreCase(SPIDER)){
+          if (spider){
             //special case for SPIDER, version is the bot name
             return new UserAgent(familyReplacement, name, null, null);
           }
           //else, not bot
           if (this.versionSeparator.length()>0){
-            versionComponents = new String[3];
-            StringBuilder sb = new StringBuilder(name);
-            pos = agentString.indexOf(sb.append(this.versionSeparator).toString());
+            int pos = agentString.indexOf(versionPrefixes[n]);
             if (pos >= 1) {
-              posStart = pos + name.length() + 1;
-
-              posEnd = CharMatcher.anyOf(" ;/,)").indexIn(agentString, posStart);
-              if (posEnd != -1) {
-                version = agentString.substring(posStart, posEnd);
-              } else {
-                version = agentString.substring(posStart);
-              }
-              if (version != null) {
-                int i = 0;
-                for (String component : Splitter.on(".").limit(3).trimResults().split(version)) {
-                  versionComponents[i++] = component;
-                }
-              }
-              return new UserAgent(familyReplacement, versionComponents[0], versionComponents[1],
-                  versionComponents[2]);
+              return version(agentString, pos + name.length() + 1);
             }
           }
           //version detection disabled
@@ -188,40 +286,79 @@ public class UserAgentParser {
       // no match
       return null;
     }
+
+    /**
+     * Splits the version running from posStart to the next " ;/,)" into up to 3 trimmed,
+     * dot separated components
+     */
+    private UserAgent version(String agentString, int posStart) {
+      int posEnd = VERSION_END.indexIn(agentString, posStart);
+      if (posEnd == -1) {
+        posEnd = agentString.length();
+      }
+      String[] versionComponents = new String[3];
+      int start = posStart;
+      for (int i = 0; i < versionComponents.length; i++) {
+        int end = i < versionComponents.length - 1 ? agentString.indexOf('.', start) : -1;
+        boolean last = end < 0 || end >= posEnd;
+        if (last) {
+          end = posEnd;
+        }
+        versionComponents[i] = trimmed(agentString, start, end);
+        if (last) {
+          break;
+        }
+        start = end + 1;
+      }
+      return new UserAgent(familyReplacement, versionComponents[0], versionComponents[1],
+          versionComponents[2]);
+    }
+
+    private static String trimmed(String string, int start, int end) {
+      while (start < end && CharMatcher.WHITESPACE.matches(string.charAt(start))) {
+        start++;
+      }
+      while (end > start && CharMatcher.WHITESPACE.matches(string.charAt(end - 1))) {
+        end--;
+      }
+      return string.substring(start, end);
+    }
   }
 
   protected static class UAPatternMatcher implements UAMatcher {
     private Pattern pattern;
 
-    private final String familyReplacement, v1Replacement, v2Replacement;
+    private final Replacement familyReplacement;
+    private final String v1Replacement, v2Replacement;
 
     public UAPatternMatcher(Pattern pattern, String familyReplacement, String v1Replacement,
         String v2Replacement) {
       this.pattern = pattern;
-      this.familyReplacement = familyReplacement;
+      this.familyReplacement = familyReplacement == null ? null : new Replacement(familyReplacement);
       this.v1Replacement = v1Replacement;
       this.v2Replacement = v2Replacement;
     }
 
+    Set<String> requiredLiterals() {
+      return RegexLiterals.required(pattern);
+    }
+
     @Override
     public UserAgent match(String agentString) {
+      return match((CharSequence) agentString);
+    }
 
-      String family = null, v1 = null, v2 = null, v3 = null;
+    public UserAgent match(CharSequence agentString) {
       Matcher matcher = pattern.matcher(agentString);
+      return matcher.find() ? result(matcher) : null;
+    }
 
-      if (!matcher.find()) {
-        return null;
-      }
-
+    UserAgent result(MatchResult matcher) {
+      String family = null, v1 = null, v2 = null, v3 = null;
       int groupCount = matcher.groupCount();
 
       if (familyReplacement != null) {
-        if (familyReplacement.contains("$1") && groupCount >= 1 && matcher.group(1) != null) {
-          family =
-              familyReplacement.replaceFirst("\\$1", Matcher.quoteReplacement(matcher.group(1)));
-        } else {
-          family = familyReplacement;
-        }
+        family = familyReplacement.apply(matcher);
       } else if (groupCount >= 1) {
         family = matcher.group(1);
       }
@@ -0,0 +1,125 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ua_parser;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests user agents are read off an access log like parsing them one by one
+ */
+public class AccessLogParserTest {
+
+  @Test
+  public void testParse() throws Exception {
+    List<String> agents = UserAgentCorpus.uas();
+    File log = File.createTempFile("access", ".log");
+    try {
+      Map<Long, String> lines = new HashMap<Long, String>();
+      Writer writer = new OutputStreamWriter(new FileOutputStream(log), "UTF-8");
+      long offset = 0;
+      for (int i = 0; i < agents.size(); i++) {
+        String agent = agents.get(i % 7 == 0 ? 0 : i);
+        String line = "127.0.0.1 - - [10/Oct/2013:13:55:36 -0700] \"GET /a\\\"b HTTP/1.1\" 200 "
+            + i + " \"http://example.com/\" \"" + escape(agent) + "\"" + (i % 2 == 0 ? "\r\n" : "\n");
+        lines.put(offset, agent);
+        writer.write(line);
+        offset += line.getBytes("UTF-8").length;
+      }
+      writer.write("garbage without user agent\n");
+      writer.close();
+
+      Parser parser = new Parser(Parser.class.getResourceAsStream(Parser.REGEX_YAML_PATH_FULL),
+          true);
+      final Map<Long, Client> clients = new ConcurrentHashMap<Long, Client>();
+      new AccessLogParser(parser, 3).parse(log, new AccessLogParser.Handler() {
+        @Override
+        public void handle(long lineOffset, Client client) {
+          assertThat(clients.put(lineOffset, client), is(nullValue()));
+        }
+      });
+      assertThat(clients.size(), is(lines.size()));
+      Map<Client, Long> expected = new HashMap<Client, Long>();
+      for (Map.Entry<Long, String> line : lines.entrySet()) {
+        Client client = parser.parse(line.getValue());
+        assertThat(line.getValue(), clients.get(line.getKey()), is(client));
+        Long count = expected.get(client);
+        expected.put(client, count == null ? 1 : count + 1);
+      }
+
+      assertThat(new AccessLogParser(parser, 2).count(log), is(expected));
+    } finally {
+      log.delete();
+    }
+  }
+
+  @Test
+  public void testTruncatedLine() throws Exception {
+    String agent = "Mozilla/5.0 (Windows NT 6.1; WOW64; rv:10.0) Gecko/20100101 Firefox/10.0";
+    String truncated = "127.0.0.1 - - [10/Oct/2013:13:55:36 -0700] \"GET /a\\\n";
+    File log = File.createTempFile("access", ".log");
+    try {
+      Writer writer = new OutputStreamWriter(new FileOutputStream(log), "UTF-8");
+      writer.write(truncated);
+      writer.write("127.0.0.1 - - \"GET / HTTP/1.1\" 200 0 \"-\" \"" + agent + "\"\n");
+      // so that both lines above fall in the first range
+      for (int i = 0; i < 100; i++) {
+        writer.write("garbage without user agent\n");
+      }
+      writer.close();
+
+      Parser parser = new Parser();
+      final Map<Long, Client> clients = new ConcurrentHashMap<Long, Client>();
+      new AccessLogParser(parser, 1).parse(log, new AccessLogParser.Handler() {
+        @Override
+        public void handle(long lineOffset, Client client) {
+          clients.put(lineOffset, client);
+        }
+      });
+      Map<Long, Client> expected = new HashMap<Long, Client>();
+      expected.put((long) truncated.length(), parser.parse(agent));
+      assertThat(clients, is(expected));
+    } finally {
+      log.delete();
+    }
+  }
+
+  /**
+   * As Apache does, with non ASCII chars left to \xhh escapes
+   */
+  private static String escape(String agent) {
+    StringBuilder escaped = new StringBuilder();
+    for (char c : agent.toCharArray()) {
+      if (c == '"' || c == '\\') {
+        escaped.append('\\');
+      }
+      escaped.append(c);
+    }
+    return escaped.toString();
+  }
+}
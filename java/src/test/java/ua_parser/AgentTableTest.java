@@ -0,0 +1,130 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package ua_parser;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the agent table answers for its user agents only, with the results of its rules
+ */
+public class AgentTableTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * @return the table of the 2000 most frequent user agents of test.uas under the full rules, as
+   *         the agent-table profile builds it from a traffic sample
+   */
+  private AgentTable fullTable() throws Exception {
+    RuleSnapshot rules =
+        RuleSnapshot.read(Parser.class.getResourceAsStream(Parser.SNAPSHOT_PATH_FULL));
+    File file = folder.newFile("full-agents");
+    OutputStream out = new FileOutputStream(file);
+    try {
+      AgentTable.build(rules, getClass().getResourceAsStream("/ua_parser/test.uas"), 2000, out);
+    } finally {
+      out.close();
+    }
+    return AgentTable.map(file);
+  }
+
+  @Test
+  public void testTableOfCorpus() throws Exception {
+    AgentTable table = fullTable();
+    assertThat(table.size(), is(2000));
+    Parser full = new Parser(Parser.class.getResourceAsStream(Parser.REGEX_YAML_PATH_FULL), true);
+    int found = 0;
+    for (String agent : UserAgentCorpus.all()) {
+      Client tabled = table.get(agent);
+      if (tabled != null) {
+        assertThat(agent, tabled, is(full.parse(agent)));
+        found++;
+      }
+      assertThat(table.get(agent + " "), is(nullValue()));
+    }
+    assertThat(found, is(2000));
+  }
+
+  @Test
+  public void testMappedTable() throws Exception {
+    Parser parser = new Parser(Parser.class.getResourceAsStream(Parser.REGEX_YAML_PATH_MINIMAL));
+    List<String> agents = Arrays.asList("", "Mozilla/5.0 (😀; iPhone) Safari/1",
+        "İPHONE Version/5.1 MSIE 8.0", "Opera/9.80 (Windows NT 6.1) Presto/2.12",
+        "Mozilla/5.0 (Windows NT 6.1; rv:24.0) Gecko/20100101 Firefox/24.0", "\0nul");
+    List<Client> clients = new ArrayList<Client>();
+    for (String agent : agents) {
+      clients.add(parser.parse(agent));
+    }
+    File file = folder.newFile("agents");
+    OutputStream out = new FileOutputStream(file);
+    try {
+      AgentTable.write(out, parser.rules.ruleHash, agents, clients);
+    } finally {
+      out.close();
+    }
+    AgentTable table = AgentTable.map(file);
+    for (int i = 0; i < agents.size(); i++) {
+      assertThat(table.get(agents.get(i)), is(clients.get(i)));
+      assertThat(table.get(new StringBuilder(agents.get(i))), is(clients.get(i)));
+    }
+    assertThat(table.get("Opera/9.80"), is(nullValue()));
+    assertThat(table.get("Mozilla/5.0 (😀; iPhone) Safari/2"), is(nullValue()));
+  }
+
+  @Test
+  public void testParserUsesTable() throws Exception {
+    AgentTable table = fullTable();
+    Parser parser = new Parser(
+        RuleSnapshot.read(Parser.class.getResourceAsStream(Parser.SNAPSHOT_PATH_FULL)));
+    parser.setAgentTable(table);
+    String agent = null;
+    for (String uaString : UserAgentCorpus.uas()) {
+      if (uaString.length() > 0 && table.get(uaString) != null) {
+        agent = uaString;
+        break;
+      }
+    }
+    assertThat(parser.parse(agent), is(sameInstance(table.get(agent))));
+    assertThat(parser.parse(agent, EnumSet.of(ParseField.OS)).os, is(table.get(agent).os));
+    assertThat(parser.parseLazy(agent).toClient(), is(table.get(agent)));
+    assertThat(parser.getUaCache().size(), is(0L));
+
+    // the minimal rules parse it differently
+    parser.reload(Parser.class.getResourceAsStream(Parser.REGEX_YAML_PATH_MINIMAL), 0);
+    Parser minimal = new Parser(Parser.class.getResourceAsStream(Parser.REGEX_YAML_PATH_MINIMAL));
+    assertThat(parser.parse(agent), is(minimal.parse(agent)));
+    assertThat(parser.parse(agent), is(not(sameInstance(table.get(agent)))));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testTableOfOtherRules() throws Exception {
+    Parser parser = new Parser();
+    parser.setAgentTable(fullTable());
+  }
+}
@@ -0,0 +1,60 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ua_parser;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests parse results are shared between equal results
+ */
+public class BoundedInternerTest {
+
+  @Test
+  public void testIntern() {
+    BoundedInterner<UserAgent> interner = new BoundedInterner<UserAgent>(4);
+    UserAgent chrome = new UserAgent("Chrome", "30", "0", null);
+    assertThat(interner.intern(chrome), is(sameInstance(chrome)));
+    assertThat(interner.intern(new UserAgent("Chrome", "30", "0", null)), is(sameInstance(chrome)));
+    assertThat(interner.intern(null), is(nullValue()));
+  }
+
+  @Test
+  public void testBounded() {
+    BoundedInterner<String> interner = new BoundedInterner<String>(4);
+    String value = null;
+    for (int i = 0; i < 1000; i++) {
+      value = "value" + i;
+      assertThat(interner.intern(value), is(sameInstance(value)));
+    }
+    assertThat(interner.intern(new String(value)), is(sameInstance(value)));
+  }
+
+  @Test
+  public void testParserSharesResults() {
+    Parser parser = new Parser(Parser.class.getResourceAsStream(Parser.REGEX_YAML_PATH_FULL), true);
+    Client first = parser.parse("Mozilla/5.0 (Windows NT 6.1; WOW64) AppleWebKit/537.36 "
+        + "(KHTML, like Gecko) Chrome/30.0.1599.101 Safari/537.36");
+    Client second = parser.parse("Mozilla/5.0 (Windows NT 6.1) AppleWebKit/537.36 "
+        + "(KHTML, like Gecko) Chrome/30.0.1599.101 Safari/537.36");
+    assertThat(second, is(sameInstance(first)));
+    assertThat(parser.parseUserAgent("Chrome/30.0.1599.101"),
+        is(sameInstance(first.userAgent)));
+  }
+}
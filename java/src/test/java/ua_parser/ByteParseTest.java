@@ -0,0 +1,70 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package ua_parser;
+
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests parsing from bytes and char sequences gives the results of {@link Parser#parse(String)}
+ */
+public class ByteParseTest {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  @Test
+  public void testBytesMatchString() throws Exception {
+    Parser reference = new Parser(Parser.class.getResourceAsStream(Parser.REGEX_YAML_PATH_FULL), true);
+    Parser cached = new Parser(Parser.class.getResourceAsStream(Parser.REGEX_YAML_PATH_FULL));
+    Parser uncached = new Parser(Parser.class.getResourceAsStream(Parser.REGEX_YAML_PATH_FULL), true);
+    for (String agent : UserAgentCorpus.all()) {
+      Client client = reference.parse(agent);
+      byte[] bytes = ("xx" + agent + "yy").getBytes(UTF_8);
+      int length = bytes.length - 4;
+      assertThat(agent, uncached.parse(bytes, 2, length), is(client));
+      assertThat(agent, cached.parse(bytes, 2, length), is(client));
+      // the second time from the cache
+      assertThat(agent, cached.parse(bytes, 2, length), is(sameInstance(cached.parse(agent))));
+    }
+  }
+
+  @Test
+  public void testNonAsciiBytes() {
+    Parser parser = new Parser(Parser.class.getResourceAsStream(Parser.REGEX_YAML_PATH_FULL));
+    String agent = "Mozilla/5.0 (Linux; Android 4.4; Nexus 5 é) AppleWebKit/537.36";
+    byte[] bytes = agent.getBytes(UTF_8);
+    assertThat(parser.parse(bytes, 0, bytes.length), is(parser.parse(agent)));
+  }
+
+  @Test
+  public void testCharSequence() {
+    Parser parser = new Parser(Parser.class.getResourceAsStream(Parser.REGEX_YAML_PATH_FULL));
+    String agent = "Mozilla/5.0 (iPhone; CPU iPhone OS 5_1_1 like Mac OS X) AppleWebKit/534.46";
+    Client client = parser.parse(new StringBuilder(agent));
+    assertThat(parser.uaCache.get(agent), is(sameInstance(client)));
+    assertThat(parser.parse(new StringBuilder(agent)), is(sameInstance(client)));
+    assertThat(parser.parse(new StringBuilder()), is(parser.parse("")));
+    assertThat(parser.parse(new StringBuilder("\0x")), is(parser.parse("\0x")));
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testOutOfBounds() {
+    new Parser().parse(new byte[4], 2, 3);
+  }
+}
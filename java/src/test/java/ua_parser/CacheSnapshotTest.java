@@ -0,0 +1,94 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package ua_parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests a parser imports the cache another one exported, but only from the same rules
+ */
+public class CacheSnapshotTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testExportImport() throws Exception {
+    Parser parser = new Parser(Parser.class.getResourceAsStream(Parser.REGEX_YAML_PATH_MINIMAL));
+    List<String> agents = UserAgentCorpus.all();
+    for (String agent : agents) {
+      parser.parse(agent);
+      parser.parse(agent, EnumSet.of(ParseField.OS));
+    }
+    // a lazy client caches what it parsed so far
+    parser.parseLazy("Mozilla/5.0 lazy").userAgent();
+    File file = folder.newFile("cache");
+    int exported = parser.exportCache(file);
+    assertThat((long) exported, is(parser.getUaCache().size()));
+
+    TinyLfuCache cache = new TinyLfuCache(200000);
+    Parser restarted = new Parser(
+        RuleSnapshot.read(Parser.class.getResourceAsStream(Parser.SNAPSHOT_PATH_MINIMAL)), cache);
+    assertThat(restarted.importCache(file), is(exported));
+    assertThat(cache.size(), is((long) exported));
+    for (String agent : agents) {
+      assertThat(agent, restarted.parse(agent), is(parser.parse(agent)));
+      assertThat(agent, restarted.parse(agent, EnumSet.of(ParseField.OS)),
+          is(parser.parse(agent, EnumSet.of(ParseField.OS))));
+    }
+    assertThat(cache.stats().missCount(), is(0L));
+    Client lazy = cache.get("Mozilla/5.0 lazy");
+    assertThat(lazy.userAgent, is(notNullValue()));
+    assertThat(lazy.os, is(nullValue()));
+  }
+
+  @Test
+  public void testOtherRulesAreRejected() throws Exception {
+    Parser parser = new Parser(Parser.class.getResourceAsStream(Parser.REGEX_YAML_PATH_MINIMAL));
+    parser.parse("Mozilla/5.0 (iPhone; CPU iPhone OS 5_1_1 like Mac OS X)");
+    File file = folder.newFile("cache");
+    assertThat(parser.exportCache(file), is(1));
+
+    Parser full = new Parser(Parser.class.getResourceAsStream(Parser.REGEX_YAML_PATH_FULL));
+    assertThat(full.importCache(file), is(0));
+    assertThat(full.getUaCache().size(), is(0L));
+  }
+
+  @Test(expected = IOException.class)
+  public void testTruncatedFile() throws Exception {
+    Parser parser = new Parser(Parser.class.getResourceAsStream(Parser.REGEX_YAML_PATH_MINIMAL));
+    parser.parse("Mozilla/5.0 (iPhone; CPU iPhone OS 5_1_1 like Mac OS X)");
+    File file = folder.newFile("cache");
+    parser.exportCache(file);
+    RandomAccessFile out = new RandomAccessFile(file, "rw");
+    try {
+      out.setLength(out.length() - 1);
+    } finally {
+      out.close();
+    }
+    parser.importCache(file);
+  }
+}
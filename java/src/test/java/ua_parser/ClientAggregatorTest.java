@@ -0,0 +1,171 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package ua_parser;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests aggregated counts against counting parse results in maps, and merged counts against
+ * counting everything in one aggregator
+ */
+public class ClientAggregatorTest {
+
+  @Test
+  public void testCountsMatchMaps() throws Exception {
+    Parser parser = new Parser();
+    ClientAggregator aggregator = new ClientAggregator(parser.getDictionary());
+    Map<UserAgent, Long> userAgents = new HashMap<UserAgent, Long>();
+    Map<OS, Long> operatingSystems = new HashMap<OS, Long>();
+    Map<String, Long> devices = new HashMap<String, Long>();
+    long total = 0, mobile = 0, spiders = 0;
+    List<String> agents = UserAgentCorpus.all();
+    for (int i = 0; i < agents.size(); i++) {
+      long weight = i % 3 + 1;
+      Client client = parser.parse(agents.get(i));
+      aggregator.add(client, weight);
+      increment(userAgents, client.userAgent, weight);
+      increment(operatingSystems, client.os, weight);
+      increment(devices, client.device.family, weight);
+      total += weight;
+      mobile += client.device.isMobile ? weight : 0;
+      spiders += client.device.isSpider ? weight : 0;
+    }
+
+    assertThat(aggregator.userAgentCounts(), is(userAgents));
+    assertThat(aggregator.osCounts(), is(operatingSystems));
+    assertThat(aggregator.deviceCounts(), is(devices));
+    assertThat(aggregator.total(), is(total));
+    assertThat(aggregator.mobileCount(), is(mobile));
+    assertThat(aggregator.spiderCount(), is(spiders));
+    long previous = Long.MAX_VALUE;
+    for (long count : aggregator.userAgentCounts().values()) {
+      assertThat(count, is(lessThanOrEqualTo(previous)));
+      previous = count;
+    }
+  }
+
+  @Test
+  public void testMergeAcrossDictionaries() throws Exception {
+    Parser parser = new Parser(), first = new Parser(), second = new Parser();
+    ClientAggregator all = new ClientAggregator(parser.getDictionary(), 20);
+    ClientAggregator firstHalf = new ClientAggregator(first.getDictionary(), 20);
+    ClientAggregator secondHalf = new ClientAggregator(second.getDictionary(), 20);
+    List<String> agents = UserAgentCorpus.uas();
+    for (int i = 0; i < agents.size(); i++) {
+      all.add(parser.parseIds(agents.get(i)), 1);
+      if (i % 2 == 0) {
+        firstHalf.add(first.parse(agents.get(i)));
+      } else {
+        secondHalf.add(second.parse(agents.get(i)));
+      }
+    }
+
+    ClientAggregator merged = new ClientAggregator(parser.getDictionary());
+    merged.merge(firstHalf);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    secondHalf.writeTo(out);
+    merged.mergeFrom(new ByteArrayInputStream(out.toByteArray()));
+    assertThat(merged.userAgentCounts(), is(all.userAgentCounts()));
+    assertThat(merged.osCounts(), is(all.osCounts()));
+    assertThat(merged.deviceCounts(), is(all.deviceCounts()));
+    assertThat(merged.total(), is(all.total()));
+    assertThat(merged.spiderCount(), is(all.spiderCount()));
+
+    firstHalf.merge(secondHalf);
+    assertThat(firstHalf.userAgentCounts(), is(all.userAgentCounts()));
+    assertThat(firstHalf.topClients().size(), is(20));
+  }
+
+  @Test
+  public void testTopClientsBounds() {
+    ClientDictionary dictionary = new ClientDictionary();
+    int topClients = 10;
+    ClientAggregator aggregator = new ClientAggregator(dictionary, topClients);
+    Map<Client, Long> counts = new HashMap<Client, Long>();
+    long total = 0;
+    // a few heavy clients in a long tail of light ones
+    for (int i = 0; i < 5000; i++) {
+      String family = i % 2 == 0 ? "heavy " + i % 3 : "light " + i;
+      Client client = client(family);
+      aggregator.add(client, 2);
+      increment(counts, client, 2);
+      total += 2;
+    }
+
+    Map<Client, Long> top = aggregator.topClients();
+    assertThat(top.size(), is(topClients));
+    for (int heavy = 0; heavy < 3; heavy++) {
+      assertThat(top.containsKey(client("heavy " + heavy)), is(true));
+    }
+    for (Map.Entry<Client, Long> entry : top.entrySet()) {
+      long count = counts.get(entry.getKey());
+      assertThat(entry.getValue(), is(greaterThanOrEqualTo(count)));
+      assertThat(entry.getValue(), is(lessThanOrEqualTo(count + total / topClients)));
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testMergeFromGarbage() throws Exception {
+    new ClientAggregator(new ClientDictionary()).mergeFrom(new ByteArrayInputStream(new byte[12]));
+  }
+
+  @Test
+  public void testMergeFromTruncatedLeavesCounts() throws Exception {
+    ClientDictionary dictionary = new ClientDictionary();
+    ClientAggregator written = new ClientAggregator(dictionary, 5);
+    for (int i = 0; i < 10; i++) {
+      written.add(client("family " + i), i + 1);
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    written.writeTo(out);
+    byte[] bytes = out.toByteArray();
+
+    ClientAggregator aggregator = new ClientAggregator(dictionary, 5);
+    aggregator.add(client("family 0"), 3);
+    try {
+      aggregator.mergeFrom(new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 4)));
+      fail("merged truncated counts");
+    } catch (IOException e) {
+      // nothing merged
+    }
+    assertThat(aggregator.total(), is(3L));
+    assertThat(aggregator.userAgentCounts().size(), is(1));
+    assertThat(aggregator.topClients().size(), is(1));
+
+    aggregator.mergeFrom(new ByteArrayInputStream(bytes));
+    assertThat(aggregator.total(), is(58L));
+  }
+
+  private static Client client(String family) {
+    return new Client(new UserAgent(family, null, null, null),
+        new OS("Other", null, null, null, null), new Device("Other", false, false));
+  }
+
+  private static <T> void increment(Map<T, Long> counts, T key, long weight) {
+    Long count = counts.get(key);
+    counts.put(key, count == null ? weight : count + weight);
+  }
+}
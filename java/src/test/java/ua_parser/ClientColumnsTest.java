@@ -0,0 +1,83 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package ua_parser;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests batches parsed into columns decode to the clients parsed one by one
+ */
+public class ClientColumnsTest {
+
+  @Test
+  public void testColumnsMatchParse() throws Exception {
+    Parser parser = new Parser();
+    ClientDictionary dictionary = parser.getDictionary();
+    List<String> agents = new ArrayList<String>(UserAgentCorpus.all());
+    ClientColumns columns = new ClientColumns();
+    parser.parseBatch(agents, columns);
+
+    assertThat(columns.size(), is(agents.size()));
+    for (int row = 0; row < agents.size(); row++) {
+      String agent = agents.get(row);
+      Client client = parser.parse(agent);
+      assertThat(agent, dictionary.userAgentFamily(columns.getUserAgentFamilies()[row]),
+          is(client.userAgent.family));
+      assertThat(agent, dictionary.versionPart(columns.getUserAgentMajors()[row]),
+          is(client.userAgent.major));
+      assertThat(agent, dictionary.versionPart(columns.getUserAgentMinors()[row]),
+          is(client.userAgent.minor));
+      assertThat(agent, dictionary.versionPart(columns.getUserAgentPatches()[row]),
+          is(client.userAgent.patch));
+      assertThat(agent, dictionary.osFamily(columns.getOsFamilies()[row]), is(client.os.family));
+      assertThat(agent, dictionary.versionPart(columns.getOsMajors()[row]), is(client.os.major));
+      assertThat(agent, dictionary.versionPart(columns.getOsMinors()[row]), is(client.os.minor));
+      assertThat(agent, dictionary.versionPart(columns.getOsPatches()[row]), is(client.os.patch));
+      assertThat(agent, dictionary.versionPart(columns.getOsPatchMinors()[row]),
+          is(client.os.patchMinor));
+      assertThat(agent, dictionary.deviceFamily(columns.getDeviceFamilies()[row]),
+          is(client.device.family));
+      assertThat(agent, columns.getMobile().get(row), is(client.device.isMobile));
+      assertThat(agent, columns.getSpider().get(row), is(client.device.isSpider));
+    }
+  }
+
+  @Test
+  public void testColumnsAreReused() {
+    Parser parser = new Parser();
+    String spider = "Mozilla/5.0 (compatible; Googlebot/2.1; +http://www.google.com/bot.html)";
+    String firefox = "Mozilla/5.0 (Windows NT 6.1; rv:15.0) Gecko/20100101 Firefox/15.0";
+    ClientColumns columns = new ClientColumns();
+    parser.parseBatch(Arrays.asList(spider, spider, spider), columns);
+    int[] families = columns.getUserAgentFamilies();
+    assertThat(columns.getSpider().cardinality(), is(3));
+
+    parser.parseBatch(Arrays.asList(firefox, spider), columns);
+    assertThat(columns.size(), is(2));
+    assertThat(columns.getUserAgentFamilies(), is(sameInstance(families)));
+    assertThat(parser.getDictionary().userAgentFamily(families[0]), is("Firefox"));
+    assertThat(parser.getDictionary().versionPart(columns.getUserAgentMajors()[0]), is("15"));
+    assertThat(columns.getSpider().get(0), is(false));
+    assertThat(columns.getSpider().get(1), is(true));
+    assertThat(columns.getSpider().cardinality(), is(1));
+  }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package ua_parser;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests ids map back to the results they were taken from and stay the same
+ */
+public class ClientDictionaryTest {
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    Parser parser = new Parser();
+    ClientDictionary dictionary = parser.getDictionary();
+    for (String agent : UserAgentCorpus.all()) {
+      long ids = parser.parseIds(agent);
+      assertThat(agent, dictionary.client(ids), is(parser.parse(agent)));
+      byte[] bytes = agent.getBytes("UTF-8");
+      assertThat(agent, parser.parseIds(bytes, 0, bytes.length), is(ids));
+    }
+    assertThat(dictionary.userAgentFamilyCount(), is(greaterThan(50)));
+  }
+
+  @Test
+  public void testRuleFamiliesHaveStableIds() throws Exception {
+    Parser parser = new Parser(), other = new Parser();
+    String iPhone = "Mozilla/5.0 (iPhone; CPU iPhone OS 5_1_1 like Mac OS X) AppleWebKit/534.46 "
+        + "(KHTML, like Gecko) Version/5.1 Mobile/9B206 Safari/7534.48.3";
+    // families met earlier in the other parser take ids after those of the rules
+    other.parse("Mozilla/5.0 (Linux; U; Android 4.0.3; HTC One X Build/IML74K)");
+    long ids = parser.parseIds(iPhone), otherIds = other.parseIds(iPhone);
+    assertThat(ClientDictionary.userAgentFamilyId(otherIds),
+        is(ClientDictionary.userAgentFamilyId(ids)));
+    assertThat(ClientDictionary.osFamilyId(otherIds), is(ClientDictionary.osFamilyId(ids)));
+    assertThat(ClientDictionary.deviceFamilyId(otherIds), is(ClientDictionary.deviceFamilyId(ids)));
+    assertThat(ClientDictionary.isMobile(ids), is(parser.parse(iPhone).device.isMobile));
+    assertThat(parser.getDictionary().userAgentFamily(1), is("Other"));
+
+    parser.reload(Parser.class.getResourceAsStream(Parser.REGEX_YAML_PATH_MINIMAL), 0);
+    assertThat(parser.parseIds(iPhone), is(ids));
+  }
+
+  @Test
+  public void testNullsAndOverflow() {
+    ClientDictionary dictionary = new ClientDictionary();
+    assertThat(dictionary.ids(new Client(null, null, null)), is(0L));
+    long ids = 0;
+    for (int i = 0; i < 2000; i++) {
+      ids = dictionary.ids(new Client(null, null, new Device("device " + i, false, false)));
+    }
+    assertThat(ClientDictionary.deviceFamilyId(ids), is(1023));
+    assertThat(dictionary.deviceFamily(1023), is(nullValue()));
+    assertThat(dictionary.deviceFamily(1022), is("device 1020"));
+    assertThat(dictionary.deviceFamilyCount(), is(1023));
+  }
+
+  @Test
+  public void testVersionPartsOverflow() {
+    ClientDictionary dictionary = new ClientDictionary();
+    int id = 0;
+    for (int i = 0; i < 70000; i++) {
+      id = dictionary.versionParts.id(Integer.toString(i));
+    }
+    assertThat(id, is(65535));
+    assertThat(dictionary.versionPart(65535), is(nullValue()));
+    assertThat(dictionary.versionPart(65534), is("65533"));
+  }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package ua_parser;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests lazy clients parse like {@link Parser#parse}, only what is asked for
+ */
+public class LazyClientTest {
+  private static final String IPHONE = "Mozilla/5.0 (iPhone; CPU iPhone OS 5_1_1 like Mac OS X) "
+      + "AppleWebKit/534.46 (KHTML, like Gecko) Version/5.1 Mobile/9B206 Safari/7534.48.3";
+
+  @Test
+  public void testLazyMatchesParse() throws Exception {
+    Parser parser = new Parser(Parser.class.getResourceAsStream(Parser.REGEX_YAML_PATH_FULL), true);
+    for (String agent : UserAgentCorpus.all()) {
+      Client client = parser.parse(agent);
+      assertThat(agent, parser.parseLazy(agent).os(), is(client.os));
+      assertThat(agent, parser.parseLazy(agent).device(), is(client.device));
+      assertThat(agent, parser.parseLazy(agent).toClient(), is(client));
+    }
+  }
+
+  @Test
+  public void testCachesWhatIsParsed() {
+    TinyLfuCache cache = new TinyLfuCache(100);
+    Parser parser = new Parser(Parser.class.getResourceAsStream(Parser.REGEX_YAML_PATH_FULL), cache);
+
+    OS os = parser.parseLazy(IPHONE).os();
+    assertThat(os, is(new OS("iOS", "5", "1", "1", null)));
+    Client cached = cache.get(IPHONE);
+    assertThat(cached.os, is(sameInstance(os)));
+    assertThat(cached.userAgent, is(nullValue()));
+    assertThat(cached.device, is(nullValue()));
+
+    // a later lazy client starts from what is cached
+    LazyClient lazy = parser.parseLazy(IPHONE);
+    assertThat(lazy.os(), is(sameInstance(os)));
+    assertThat(lazy.device().family, is("iPhone"));
+    assertThat(cache.get(IPHONE).userAgent.family, is("Mobile Safari"));
+
+    // parse fills in the rest
+    Client client = parser.parse(IPHONE);
+    assertThat(client.os, is(sameInstance(os)));
+    assertThat(client, is(new Parser(Parser.class.getResourceAsStream(Parser.REGEX_YAML_PATH_FULL),
+        true).parse(IPHONE)));
+    assertThat(parser.parseLazy(IPHONE).toClient(), is(client));
+  }
+
+  @Test
+  public void testKeepsWhatOthersCached() {
+    TinyLfuCache cache = new TinyLfuCache(100);
+    Parser parser = new Parser(Parser.class.getResourceAsStream(Parser.REGEX_YAML_PATH_FULL), cache);
+
+    LazyClient lazy = parser.parseLazy(IPHONE);
+    Client client = parser.parse(IPHONE);
+    lazy.os();
+    assertThat(cache.get(IPHONE), is(sameInstance(client)));
+
+    cache.clear();
+    LazyClient first = parser.parseLazy(IPHONE);
+    LazyClient second = parser.parseLazy(IPHONE);
+    first.os();
+    second.userAgent();
+    Client cached = cache.get(IPHONE);
+    assertThat(cached.os, is(client.os));
+    assertThat(cached.userAgent, is(client.userAgent));
+    assertThat(cached.device, is(nullValue()));
+  }
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ua_parser;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the literal extraction and that prefiltered parsing keeps first-match results
+ */
+public class LiteralPrefilterTest {
+
+  @Test
+  public void testRequiredLiterals() {
+    assertThat(literals("(Fennec)/(\\d+)\\.(\\d+)(pre)"), is(set("fennec/")));
+    assertThat(literals("(Namoroka|Shiretoko|Minefield)/(\\d+)\\.(\\d+)([ab]\\d+[a-z]*)?"),
+        is(set("namoroka/", "shiretoko/", "minefield/")));
+    assertThat(literals("(Windows (?:NT 5\\.2|NT 5\\.1))"),
+        is(set("windows nt 5.2", "windows nt 5.1")));
+    assertThat(literals("Black[Bb]erry([0-9]+)"), is(set("blackberry")));
+    assertThat(literals("(Mandriva)(?: Linux)?/(\\d+)"), is(set("mandriva/", "mandriva linux/")));
+    assertThat(literals("(iPhone).*Version/(\\d+)\\.(\\d+)"), is(set("version/")));
+    assertThat(literals("(\\d+)\\.(\\d+)"), is(set(".")));
+  }
+
+  @Test
+  public void testNoLiterals() {
+    assertThat(literals("(\\d+)[a-z]*"), is(nullValue()));
+    assertThat(literals("(a|\\w+)x?"), is(nullValue()));
+    // back references are not modelled
+    assertThat(literals("(Firefox)\\1"), is(nullValue()));
+  }
+
+  @Test
+  public void testCandidates() {
+    LiteralPrefilter prefilter = new LiteralPrefilter(Arrays.asList(
+        set("firefox"), null, set("windows nt", "win98"), Collections.<String>emptySet(),
+        set("fox")));
+    long[] candidates = prefilter.candidates("Mozilla/5.0 (WINDOWS NT 6.1) Firefox/3.5");
+    assertThat(LiteralPrefilter.nextCandidate(candidates, 0), is(0));
+    assertThat(LiteralPrefilter.nextCandidate(candidates, 1), is(1));
+    assertThat(LiteralPrefilter.nextCandidate(candidates, 2), is(2));
+    assertThat(LiteralPrefilter.nextCandidate(candidates, 3), is(4));
+    assertThat(LiteralPrefilter.nextCandidate(candidates, 5), is(-1));
+  }
+
+  @Test
+  public void testSlice() {
+    long[] candidates = {1L << 63 | 1L << 2, 1L | 1L << 5};
+    long[] slice = LiteralPrefilter.slice(candidates, 62, 5);
+    assertThat(LiteralPrefilter.nextCandidate(slice, 0), is(1));
+    assertThat(LiteralPrefilter.nextCandidate(slice, 2), is(2));
+    assertThat(LiteralPrefilter.nextCandidate(slice, 3), is(-1));
+    assertThat(LiteralPrefilter.nextCandidate(LiteralPrefilter.slice(candidates, 0, 2), 0), is(-1));
+  }
+
+  @Test
+  public void testFullRulesMatchUnfiltered() throws Exception {
+    assertMatchesUnfiltered(Parser.REGEX_YAML_PATH_FULL);
+  }
+
+  @Test
+  public void testMinimalRulesMatchUnfiltered() throws Exception {
+    assertMatchesUnfiltered(Parser.REGEX_YAML_PATH_MINIMAL);
+  }
+
+  private void assertMatchesUnfiltered(String rules) throws Exception {
+    Parser parser = new Parser(Parser.class.getResourceAsStream(rules), true);
+    for (String agent : UserAgentCorpus.all()) {
+      UserAgent ua = parser.parseUserAgent(agent);
+      assertThat(agent, ua, is(parser.rules.uaParser.parseUnfiltered(agent)));
+      assertThat(agent, parser.parseOS(agent), is(parser.rules.osParser.parseUnfiltered(agent)));
+      assertThat(agent, parser.rules.deviceParser.parse(agent, ua.family),
+          is(parser.rules.deviceParser.parseUnfiltered(agent, ua.family)));
+      assertThat(agent, parser.parse(agent), is(parser.parseSeparately(agent)));
+      assertThat(agent, parser.parseDevice(agent), is(parser.rules.deviceParser.parse(agent)));
+    }
+  }
+
+  private static Set<String> literals(String regex) {
+    return RegexLiterals.required(Pattern.compile(regex));
+  }
+
+  private static Set<String> set(String... literals) {
+    return new HashSet<String>(Arrays.asList(literals));
+  }
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ua_parser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests batches parse like one user agent at a time, each distinct one once
+ */
+public class ParseBatchTest {
+
+  @Test
+  public void testBatchMatchesParse() throws Exception {
+    List<String> agents = new ArrayList<String>(UserAgentCorpus.all());
+    agents.addAll(UserAgentCorpus.uas());
+    TinyLfuCache cache = new TinyLfuCache(1000000);
+    Parser parser = new Parser(Parser.class.getResourceAsStream(Parser.REGEX_YAML_PATH_FULL), cache);
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      parser.setBatchPool(pool);
+      List<Client> clients = parser.parseBatch(agents);
+      assertThat(clients.size(), is(agents.size()));
+      Parser reference = new Parser(Parser.class.getResourceAsStream(Parser.REGEX_YAML_PATH_FULL),
+          true);
+      for (int i = 0; i < agents.size(); i++) {
+        assertThat(agents.get(i), clients.get(i), is(reference.parse(agents.get(i))));
+      }
+      assertThat(cache.stats().missCount(), is(cache.size()));
+      assertThat(cache.stats().hitCount(), is(0L));
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testSmallBatch() {
+    Parser parser = new Parser();
+    String firefox = "Mozilla/5.0 (Macintosh; Intel Mac OS X 10.6; rv:2.0b8) Gecko/20100101 Firefox/4.0b8";
+    Client[] clients = parser.parseBatch(new String[] {firefox, "", firefox});
+    assertThat(clients.length, is(3));
+    assertThat(clients[0], is(parser.parse(firefox)));
+    assertThat(clients[1], is(parser.parse("")));
+    assertThat(clients[2], is(sameInstance(clients[0])));
+    assertThat(parser.parseBatch(new String[0]).length, is(0));
+  }
+}
@@ -0,0 +1,190 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package ua_parser;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests parses over budget or over the maximum length give their defined results, uncached
+ */
+public class ParseBudgetTest {
+  private static final String IPHONE = "Mozilla/5.0 (iPhone; CPU iPhone OS 5_1_1 like Mac OS X) "
+      + "AppleWebKit/534.46 (KHTML, like Gecko) Version/5.1 Mobile/9B206 Safari/7534.48.3";
+
+  private static Parser parser() {
+    return new Parser(Parser.class.getResourceAsStream(Parser.REGEX_YAML_PATH_FULL));
+  }
+
+  @Test
+  public void testStepBudget() {
+    Parser parser = parser();
+    parser.setParseBudget(10, 0);
+    assertThat(parser.parse(IPHONE), is(sameInstance(Parser.TIMEOUT)));
+    assertThat(parser.parseOS(IPHONE), is(sameInstance(Parser.TIMEOUT.os)));
+    assertThat(parser.getUaCache().size(), is(0L));
+    assertThat(parser.timeoutCount(), is(2L));
+
+    LazyClient lazy = parser.parseLazy(IPHONE);
+    assertThat(lazy.userAgent(), is(sameInstance(Parser.TIMEOUT.userAgent)));
+    assertThat(lazy.device(), is(sameInstance(Parser.TIMEOUT.device)));
+    assertThat(parser.getUaCache().size(), is(0L));
+
+    parser.setParseBudget(0, 0);
+    assertThat(parser.parse(IPHONE).os, is(new OS("iOS", "5", "1", "1", null)));
+  }
+
+  @Test
+  public void testTimeBudget() {
+    // counted repetitions are not memoized by java.util.regex: polynomial of degree 12 here, far
+    // over the budget on any JDK
+    String config = "user_agent_parsers:\n"
+                  + "  - regex: '(.*a){12}$'\n"
+                  + "    family_replacement: 'Backtracking'\n"
+                  + "os_parsers:\n"
+                  + "  - regex: 'Windows'\n"
+                  + "device_parsers:\n"
+                  + "  - regex: 'iPhone'\n";
+    Parser parser = new Parser(new ByteArrayInputStream(config.getBytes()));
+    parser.setParseBudget(0, 50 * 1000 * 1000);
+    StringBuilder agent = new StringBuilder();
+    for (int i = 0; i < 30; i++) {
+      agent.append('a');
+    }
+    agent.append('!');
+
+    long start = System.nanoTime();
+    assertThat(parser.parse(agent.toString()), is(sameInstance(Parser.TIMEOUT)));
+    assertThat(System.nanoTime() - start, is(lessThan(5000L * 1000 * 1000)));
+    parser.setMetricsEnabled(true);
+    assertThat(parser.getMetrics().getTimeoutCount(), is(1L));
+    assertThat(parser.parse("aaaaaaaaaaaa").userAgent.family, is("Backtracking"));
+  }
+
+  @Test
+  public void testTimeBudgetOfReads() {
+    CharSequence slow = new SlowChars(100 * 1000, TimeUnit.MICROSECONDS.toNanos(20));
+    BudgetedChars budgeted = new BudgetedChars(slow, 0, TimeUnit.MILLISECONDS.toNanos(5));
+    long start = System.nanoTime();
+    try {
+      for (int i = 0; i < slow.length(); i++) {
+        budgeted.charAt(i);
+      }
+      fail("read past the time budget");
+    } catch (BudgetedChars.Exceeded e) {
+      assertThat(e.getMessage(), is("time budget exceeded"));
+    }
+    assertThat(System.nanoTime() - start, is(lessThan(TimeUnit.SECONDS.toNanos(1))));
+
+    BudgetedChars unlimited = new BudgetedChars("abc", 0, TimeUnit.SECONDS.toNanos(10));
+    for (int i = 0; i < 10 * 1000; i++) {
+      unlimited.charAt(i % 3);
+    }
+  }
+
+  /**
+   * Chars taking at least some time to read each
+   */
+  private static final class SlowChars implements CharSequence {
+    private final int length;
+    private final long readNanos;
+
+    SlowChars(int length, long readNanos) {
+      this.length = length;
+      this.readNanos = readNanos;
+    }
+
+    @Override
+    public int length() {
+      return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+      long end = System.nanoTime() + readNanos;
+      while (System.nanoTime() - end < 0) {
+        LockSupport.parkNanos(readNanos);
+      }
+      return 'a';
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+      return new SlowChars(end - start, readNanos);
+    }
+  }
+
+  @Test
+  public void testTruncate() {
+    Parser parser = parser();
+    parser.setMaxLength(40, OversizePolicy.TRUNCATE);
+    Client client = parser.parse(IPHONE);
+    assertThat(parser.getUaCache().get(IPHONE.substring(0, 40)), is(sameInstance(client)));
+    assertThat(client, is(parser().parse(IPHONE.substring(0, 40))));
+    byte[] bytes = IPHONE.getBytes();
+    assertThat(parser.parse(bytes, 0, bytes.length), is(sameInstance(client)));
+  }
+
+  @Test
+  public void testReject() {
+    Parser parser = parser();
+    parser.setMaxLength(40, OversizePolicy.REJECT);
+    assertThat(parser.parse(IPHONE), is(sameInstance(Parser.OVERSIZE)));
+    assertThat(parser.parseLazy(IPHONE).toClient(), is(Parser.OVERSIZE));
+    assertThat(parser.getUaCache().size(), is(0L));
+    assertThat(parser.oversizeCount(), is(2L));
+    assertThat(parser.parse(IPHONE.substring(0, 40)), is(not(sameInstance(Parser.OVERSIZE))));
+  }
+
+  @Test
+  public void testNullIsNotOversize() {
+    Parser parser = parser();
+    parser.setMaxLength(40, OversizePolicy.REJECT);
+    try {
+      parser.parse((String) null);
+      fail("parsed a null user agent");
+    } catch (NullPointerException e) {
+      // as without a maximum length
+    }
+    try {
+      parser.parse((CharSequence) null);
+      fail("parsed a null user agent");
+    } catch (NullPointerException e) {
+    }
+    try {
+      parser.parseLazy(null);
+      fail("parsed a null user agent");
+    } catch (NullPointerException e) {
+    }
+    try {
+      parser.parseOS(null);
+      fail("parsed a null user agent");
+    } catch (NullPointerException e) {
+    }
+    assertThat(parser.oversizeCount(), is(0L));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNegativeBudget() {
+    parser().setParseBudget(-1, 0);
+  }
+}
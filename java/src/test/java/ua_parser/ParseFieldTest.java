@@ -0,0 +1,94 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package ua_parser;
+
+import java.util.EnumSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests field selective parses agree with full ones on the fields asked for
+ */
+public class ParseFieldTest {
+
+  @Test
+  public void testFieldsMatchFullParse() throws Exception {
+    Parser parser = new Parser();
+    Parser reference = new Parser(Parser.class.getResourceAsStream(Parser.REGEX_YAML_PATH_MINIMAL),
+        true);
+    List<String> agents = UserAgentCorpus.uas();
+    agents.addAll(UserAgentCorpus.yaml("test_device.yaml"));
+    ParseField[] all = ParseField.values();
+    for (int mask = 1; mask < 1 << all.length; mask++) {
+      EnumSet<ParseField> fields = EnumSet.noneOf(ParseField.class);
+      for (ParseField field : all) {
+        if ((mask & 1 << field.ordinal()) != 0) {
+          fields.add(field);
+        }
+      }
+      for (String agent : agents) {
+        Client expected = reference.parse(agent);
+        Client client = parser.parse(agent, fields);
+        String reason = agent + " " + fields;
+        if (fields.contains(ParseField.USER_AGENT)) {
+          assertThat(reason, client.userAgent, is(expected.userAgent));
+        }
+        if (fields.contains(ParseField.OS)) {
+          assertThat(reason, client.os, is(expected.os));
+        }
+        if (fields.contains(ParseField.DEVICE)) {
+          assertThat(reason, client.device, is(expected.device));
+        }
+        if (fields.contains(ParseField.MOBILE)) {
+          assertThat(reason, client.device.isMobile, is(expected.device.isMobile));
+        }
+        if (fields.contains(ParseField.SPIDER)) {
+          assertThat(reason, client.device.isSpider, is(expected.device.isSpider));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testSelectiveResultsCachedApart() {
+    TinyLfuCache cache = new TinyLfuCache(100);
+    Parser parser = new Parser(Parser.class.getResourceAsStream(Parser.REGEX_YAML_PATH_MINIMAL),
+        cache);
+    String iphone = "Mozilla/5.0 (iPhone; CPU iPhone OS 5_1_1 like Mac OS X) AppleWebKit/534.46 "
+        + "(KHTML, like Gecko) Version/5.1 Mobile/9B206 Safari/7534.48.3";
+
+    Client mobile = parser.parse(iphone, EnumSet.of(ParseField.MOBILE));
+    assertThat(mobile.device.isMobile, is(parser.parseDevice(iphone).isMobile));
+    assertThat(mobile.os, is(nullValue()));
+    assertThat(cache.get(iphone), is(nullValue()));
+    assertThat(parser.parse(iphone, EnumSet.of(ParseField.MOBILE)), is(sameInstance(mobile)));
+
+    Client full = parser.parse(iphone);
+    assertThat(full.os, is(notNullValue()));
+    assertThat(cache.get(iphone), is(sameInstance(full)));
+    assertThat(parser.parse(iphone, EnumSet.of(ParseField.MOBILE)), is(sameInstance(mobile)));
+    assertThat(cache.size(), is(2L));
+
+    // a user agent that looks like a selective key does not share its entry
+    String lookalike = "\0" + (char) ParseField.mask(EnumSet.of(ParseField.MOBILE)) + iphone;
+    assertThat(parser.parse(lookalike).os, is(notNullValue()));
+    assertThat(parser.parse(iphone, EnumSet.of(ParseField.MOBILE)), is(sameInstance(mobile)));
+  }
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package ua_parser;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the parser metrics add up and are readable over JMX
+ */
+public class ParserMetricsTest {
+
+  @Test
+  public void testCounts() throws Exception {
+    Parser parser = new Parser();
+    assertThat(parser.getMetrics(), is(nullValue()));
+    parser.setMetricsEnabled(true);
+    ParserMetrics metrics = parser.getMetrics();
+
+    List<String> agents = UserAgentCorpus.uas();
+    long hitsBefore = metrics.getCacheHitCount();
+    for (String agent : agents) {
+      parser.parse(agent);
+    }
+    for (String agent : agents) {
+      parser.parse(agent);
+    }
+    long loads = metrics.getLoadCount();
+    assertThat(loads, is(metrics.getCacheSize()));
+    assertThat(metrics.getCacheHitCount() - hitsBefore, is(2L * agents.size() - loads));
+    assertThat(metrics.getTotalLoadTime(), is(greaterThan(0L)));
+
+    assertThat(sum(metrics.getUserAgentRuleHits()) + metrics.getUserAgentOtherCount(), is(loads));
+    assertThat(sum(metrics.getOSRuleHits()) + metrics.getOSOtherCount(), is(loads));
+    assertThat(sum(metrics.getDeviceRuleHits()) + metrics.getDeviceOtherCount(), is(loads));
+    assertThat(metrics.getUserAgentOtherCount(), is(greaterThan(0L)));
+    assertThat(sum(metrics.getUserAgentLatencyHistogram()), is(loads));
+    assertThat(sum(metrics.getOSLatencyHistogram()), is(loads));
+    assertThat(sum(metrics.getDeviceLatencyHistogram()), is(loads));
+
+    parser.setMetricsEnabled(false);
+    assertThat(parser.getMetrics(), is(nullValue()));
+    assertThat(sum(parser.rules.uaParser.rules.hits()), is(0L));
+  }
+
+  @Test
+  public void testMBean() throws Exception {
+    Parser parser = new Parser();
+    ObjectName name = parser.registerMetrics("test");
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      parser.parse("Mozilla/5.0 (Windows NT 6.1; WOW64; rv:10.0) Gecko/20100101 Firefox/10.0");
+      assertThat((Long) server.getAttribute(name, "LoadCount"), is(1L));
+      assertThat(((long[]) server.getAttribute(name, "OSRuleHits")).length,
+          is(parser.rules.osParser.rules.size()));
+    } finally {
+      server.unregisterMBean(name);
+    }
+  }
+
+  private static long sum(long[] counts) {
+    long sum = 0;
+    for (long count : counts) {
+      sum += count;
+    }
+    return sum;
+  }
+}
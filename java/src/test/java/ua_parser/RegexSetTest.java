@@ -0,0 +1,91 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ua_parser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the regex set finds the first matching rule like trying each {@link java.util.regex.Pattern}
+ */
+public class RegexSetTest {
+
+  @Test
+  public void testFirstMatch() {
+    RegexSet set = set("(Fennec)/(\\d+)", "^Opera", "Fire(fox|bird)?/(\\d+)\\.(\\d+)", "\\w+/\\d");
+    assertThat(set.firstMatch("Mozilla/5.0 Firefox/3.5"), is(2));
+    assertThat(set.firstMatch("Mozilla/5.0 Fennec/2.0 Firefox/3.5"), is(0));
+    assertThat(set.firstMatch("Opera/9.80"), is(1));
+    assertThat(set.firstMatch("Mozilla Opera/9.80"), is(3));
+    assertThat(set.firstMatch("Mozilla Fire/"), is(4));
+    assertThat(set.firstMatch(""), is(4));
+  }
+
+  @Test
+  public void testOpaqueRules() {
+    RegexSet set = set("(Firefox)\\1", "a{1,100}b", "Firefox", "x$");
+    assertThat(set.isOpaque(0), is(true));
+    assertThat(set.isOpaque(1), is(true));
+    assertThat(set.isOpaque(2), is(false));
+    assertThat(set.isOpaque(3), is(true));
+    assertThat(set.hasOpaqueBefore(0), is(false));
+    assertThat(set.hasOpaqueBefore(2), is(true));
+    assertThat(set.firstMatch("FirefoxFirefox"), is(2));
+    assertThat(set.firstMatch("x"), is(4));
+  }
+
+  @Test
+  public void testSurrogatesAreUnknown() {
+    RegexSet set = set("a.b");
+    assertThat(set.firstMatch("a😀b"), is(RegexSet.UNKNOWN));
+  }
+
+  @Test
+  public void testFullRulesMatchUnfiltered() throws Exception {
+    assertMatchesUnfiltered(Parser.REGEX_YAML_PATH_FULL);
+  }
+
+  @Test
+  public void testMinimalRulesMatchUnfiltered() throws Exception {
+    assertMatchesUnfiltered(Parser.REGEX_YAML_PATH_MINIMAL);
+  }
+
+  private void assertMatchesUnfiltered(String rules) throws Exception {
+    Parser parser = new Parser(Parser.class.getResourceAsStream(rules), true);
+    parser.setRegexSetEnabled(true);
+    for (String agent : UserAgentCorpus.all()) {
+      UserAgent ua = parser.parseUserAgent(agent);
+      assertThat(agent, ua, is(parser.rules.uaParser.parseUnfiltered(agent)));
+      assertThat(agent, parser.parseOS(agent), is(parser.rules.osParser.parseUnfiltered(agent)));
+      assertThat(agent, parser.rules.deviceParser.parse(agent, ua.family),
+          is(parser.rules.deviceParser.parseUnfiltered(agent, ua.family)));
+    }
+  }
+
+  private static RegexSet set(String... regexes) {
+    List<RegexNode> nodes = new ArrayList<RegexNode>();
+    for (String regex : regexes) {
+      nodes.add(RegexNode.parse(regex, 0));
+    }
+    return new RegexSet(nodes);
+  }
+}
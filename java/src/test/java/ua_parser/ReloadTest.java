@@ -0,0 +1,140 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package ua_parser;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests reloading swaps the rules whole and leaves the cache with results of the new rules only
+ */
+public class ReloadTest {
+
+  @Test
+  public void testReloadWarmsCache() throws Exception {
+    TinyLfuCache cache = new TinyLfuCache(100000);
+    Parser parser = new Parser(Parser.class.getResourceAsStream(Parser.REGEX_YAML_PATH_MINIMAL),
+        cache);
+    List<String> agents = UserAgentCorpus.uas();
+    String hot = agents.get(0);
+    for (int i = 0; i < 10; i++) {
+      parser.parse(hot);
+    }
+    for (String agent : agents) {
+      parser.parse(agent);
+      parser.parse(agent, EnumSet.of(ParseField.OS));
+    }
+
+    parser.reload(Parser.class.getResourceAsStream(Parser.REGEX_YAML_PATH_FULL), 100);
+    assertThat(cache.size(), is(100L));
+    assertThat(cache.get(hot), is(notNullValue()));
+
+    Parser full = new Parser(Parser.class.getResourceAsStream(Parser.REGEX_YAML_PATH_FULL), true);
+    for (String agent : agents) {
+      Client expected = full.parse(agent);
+      assertThat(agent, parser.parse(agent), is(expected));
+      assertThat(agent, parser.parse(agent, EnumSet.of(ParseField.OS)).os, is(expected.os));
+      assertThat(agent, parser.parseLazy(agent).toClient(), is(expected));
+    }
+  }
+
+  @Test
+  public void testReloadWarmsNulPrefixedAgent() {
+    String config = "user_agent_parsers:\n"
+                  + "  - regex: '^\\x00(Foo)/(\\d+)'\n"
+                  + "    family_replacement: 'Nul'\n"
+                  + "os_parsers:\n"
+                  + "  - regex: 'Windows'\n"
+                  + "device_parsers:\n"
+                  + "  - regex: 'iPhone'\n";
+    TinyLfuCache cache = new TinyLfuCache(100);
+    Parser parser = new Parser(new ByteArrayInputStream(config.getBytes()), cache);
+    String agent = "\0Foo/1";
+    Client client = parser.parse(agent);
+    assertThat(client.userAgent, is(new UserAgent("Nul", "1", null, null)));
+
+    parser.reload(new ByteArrayInputStream(config.getBytes()), 10);
+    assertThat(cache.size(), is(1L));
+    assertThat(cache.get("\0\0" + agent), is(client));
+    assertThat(parser.parse(agent), is(client));
+  }
+
+  @Test
+  public void testConcurrentParsesSeeOneRuleSet() throws Exception {
+    final RuleSnapshot minimalRules =
+        RuleSnapshot.read(Parser.class.getResourceAsStream(Parser.SNAPSHOT_PATH_MINIMAL));
+    final RuleSnapshot fullRules =
+        RuleSnapshot.read(Parser.class.getResourceAsStream(Parser.SNAPSHOT_PATH_FULL));
+    Parser minimal = new Parser(minimalRules, null);
+    Parser full = new Parser(fullRules, null);
+    // agents the two rule sets parse differently
+    final List<String> agents = new ArrayList<String>();
+    final List<Client> minimalClients = new ArrayList<Client>();
+    final List<Client> fullClients = new ArrayList<Client>();
+    for (String agent : UserAgentCorpus.uas()) {
+      Client a = minimal.parse(agent), b = full.parse(agent);
+      if (!a.userAgent.equals(b.userAgent) || !a.os.equals(b.os) || !a.device.equals(b.device)) {
+        agents.add(agent);
+        minimalClients.add(a);
+        fullClients.add(b);
+      }
+    }
+    assertThat(agents.size(), is(greaterThan(10)));
+
+    final Parser parser = new Parser(minimalRules, new TinyLfuCache(1000));
+    final AtomicBoolean done = new AtomicBoolean();
+    final AtomicReference<String> failure = new AtomicReference<String>();
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < 4; t++) {
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          while (!done.get()) {
+            for (int i = 0; i < agents.size(); i++) {
+              Client client = parser.parse(agents.get(i));
+              if (!client.equals(minimalClients.get(i)) && !client.equals(fullClients.get(i))) {
+                failure.set(agents.get(i) + " parsed as " + client);
+              }
+            }
+          }
+        }
+      };
+      thread.start();
+      threads.add(thread);
+    }
+    for (int i = 0; i < 20; i++) {
+      parser.reload(i % 2 == 0 ? fullRules : minimalRules, i % 3 * 50);
+    }
+    parser.reload(fullRules, 50);
+    done.set(true);
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertThat(failure.get(), is(nullValue()));
+    for (int i = 0; i < agents.size(); i++) {
+      assertThat(agents.get(i), parser.parse(agents.get(i)), is(fullClients.get(i)));
+    }
+  }
+}
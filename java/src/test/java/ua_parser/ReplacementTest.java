@@ -0,0 +1,52 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ua_parser;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests replacements substitute group 1 like String.replaceFirst did
+ */
+public class ReplacementTest {
+
+  @Test
+  public void testApply() {
+    assertThat(apply("$1 Browser", "(Foo)/\\d", "Foo/1"), is("Foo Browser"));
+    assertThat(apply("Kindle $1 $1", "Kindle/(\\d)", "Kindle/3"), is("Kindle 3 $1"));
+    assertThat(apply("Plain", "(Foo)", "Foo"), is("Plain"));
+    // group characters that are special in a replacement string stay as is
+    assertThat(apply("x$1", "(\\S+)", "a$2\\b"), is("xa$2\\b"));
+  }
+
+  @Test
+  public void testMissingGroup() {
+    assertThat(apply("$1 Browser", "Foo", "Foo"), is("$1 Browser"));
+    assertThat(apply("$1 Browser", "Foo(bar)?", "Foo"), is("$1 Browser"));
+  }
+
+  private static String apply(String template, String regex, String input) {
+    Matcher matcher = Pattern.compile(regex).matcher(input);
+    assertThat(matcher.find(), is(true));
+    return new Replacement(template).apply(matcher);
+  }
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package ua_parser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests that parsers set up from a rule snapshot parse like the ones set up from the yaml
+ */
+public class RuleSnapshotTest {
+
+  @Test
+  public void testBundledFullSnapshot() throws Exception {
+    assertParsesLikeYaml(Parser.REGEX_YAML_PATH_FULL, Parser.SNAPSHOT_PATH_FULL);
+  }
+
+  @Test
+  public void testBundledMinimalSnapshot() throws Exception {
+    assertParsesLikeYaml(Parser.REGEX_YAML_PATH_MINIMAL, Parser.SNAPSHOT_PATH_MINIMAL);
+  }
+
+  @Test
+  public void testWriteRead() throws Exception {
+    RuleSnapshot yaml =
+        RuleSnapshot.fromYaml(Parser.class.getResourceAsStream(Parser.REGEX_YAML_PATH_MINIMAL));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    yaml.write(out);
+    RuleSnapshot read = RuleSnapshot.read(new ByteArrayInputStream(out.toByteArray()));
+
+    assertThat(read.uaParserConfigs, is(yaml.uaParserConfigs));
+    assertThat(read.osParserConfigs, is(yaml.osParserConfigs));
+    assertThat(read.deviceParserConfigs, is(yaml.deviceParserConfigs));
+    assertThat(read.mobileUAFamilies, is(yaml.mobileUAFamilies));
+    assertThat(read.mobileOSFamilies, is(yaml.mobileOSFamilies));
+    assertThat(read.uaLiterals.size(), is(yaml.uaParserConfigs.size()));
+  }
+
+  @Test(expected = IOException.class)
+  public void testNotASnapshot() throws Exception {
+    RuleSnapshot.read(Parser.class.getResourceAsStream(Parser.REGEX_YAML_PATH_MINIMAL));
+  }
+
+  private void assertParsesLikeYaml(String yaml, String snapshot) throws Exception {
+    Parser fromYaml = new Parser(Parser.class.getResourceAsStream(yaml), true);
+    Parser fromSnapshot =
+        new Parser(RuleSnapshot.read(Parser.class.getResourceAsStream(snapshot)), null);
+    for (String agent : UserAgentCorpus.all()) {
+      assertThat(agent, fromSnapshot.parse(agent), is(fromYaml.parse(agent)));
+    }
+  }
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ua_parser;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the admission and eviction of the default parse cache
+ */
+public class TinyLfuCacheTest {
+  private static final Client CLIENT = new Client(new UserAgent("Firefox", "3", "5", null),
+      new OS("Mac OS X", "10", "4", null, null), new Device("Other", false, false));
+
+  @Test
+  public void testGetPut() {
+    TinyLfuCache cache = new TinyLfuCache(100);
+    assertThat(cache.get("a"), is(nullValue()));
+    cache.put("a", CLIENT);
+    assertThat(cache.get("a"), is(CLIENT));
+    assertThat(cache.size(), is(1L));
+    assertThat(cache.stats().hitCount(), is(1L));
+    assertThat(cache.stats().missCount(), is(1L));
+    cache.clear();
+    assertThat(cache.size(), is(0L));
+  }
+
+  @Test
+  public void testOneOffsDoNotEvictFrequentEntries() {
+    TinyLfuCache cache = new TinyLfuCache(16, 1, true);
+    for (int i = 0; i < 16; i++) {
+      String key = "popular" + i;
+      for (int hit = 0; hit < 3; hit++) {
+        if (cache.get(key) == null) {
+          cache.put(key, CLIENT);
+        }
+      }
+    }
+    for (int i = 0; i < 100; i++) {
+      String key = "bot" + i;
+      if (cache.get(key) == null) {
+        cache.put(key, CLIENT);
+      }
+    }
+    assertThat(cache.size(), is(16L));
+    for (int i = 0; i < 16; i++) {
+      assertThat(cache.get("popular" + i), is(CLIENT));
+    }
+    assertThat(cache.stats().evictionCount(), is(0L));
+    assertThat(cache.stats().rejectionCount(), is(100L));
+  }
+
+  @Test
+  public void testRepeatedEntriesGetIn() {
+    TinyLfuCache cache = new TinyLfuCache(16, 1, true);
+    for (int i = 0; i < 16; i++) {
+      cache.get("old" + i);
+      cache.put("old" + i, CLIENT);
+    }
+    for (int hit = 0; hit < 3; hit++) {
+      if (cache.get("new") == null) {
+        cache.put("new", CLIENT);
+      }
+    }
+    assertThat(cache.get("new"), is(CLIENT));
+    assertThat(cache.size(), is(16L));
+    assertThat(cache.stats().evictionCount(), is(1L));
+    assertThat(cache.stats().rejectionCount(), is(1L));
+  }
+
+  @Test
+  public void testHottestKeys() {
+    TinyLfuCache cache = new TinyLfuCache(100);
+    String[] keys = {"a", "b", "c", "d"};
+    for (int i = 0; i < keys.length; i++) {
+      for (int hit = 0; hit <= i; hit++) {
+        cache.get(keys[i]);
+      }
+      cache.put(keys[i], CLIENT);
+    }
+    assertThat(cache.hottestKeys(2), is(Arrays.asList("d", "c")));
+    assertThat(cache.hottestKeys(10).size(), is(4));
+  }
+
+  @Test
+  public void testParserUsesCache() {
+    TinyLfuCache cache = new TinyLfuCache(100);
+    Parser parser = new Parser(Parser.class.getResourceAsStream(Parser.REGEX_YAML_PATH_MINIMAL),
+        cache);
+    String agent = "Mozilla/5.0 (Macintosh; U; Intel Mac OS X 10.4; fr; rv:1.9.1.5) Firefox/3.5.5";
+    Client client = parser.parse(agent);
+    assertThat(parser.parse(agent), is(sameInstance(client)));
+    assertThat(cache.stats().hitCount(), is(1L));
+    assertThat(parser.getUaCache(), is(sameInstance((ParseCache) cache)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidSize() {
+    new TinyLfuCache(0);
+  }
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ua_parser;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import ua_parser.UserAgentParser.UAMatcher;
+import ua_parser.UserAgentParser.UAStringMatcher;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the name based user agent rules of the minimal rule set
+ */
+public class UAStringMatcherTest {
+
+  @Test
+  public void testVersion() {
+    UAStringMatcher matcher = new UAStringMatcher("Firefox | Minefield", null, null, "Firefox", null);
+    assertThat(matcher.match("Mozilla/5.0 FIREFOX/3.5.1.2 (X11)"),
+        is(new UserAgent("Firefox", "3", "5", "1.2")));
+    assertThat(matcher.match("Mozilla/5.0 Minefield/4\t.\t0b1;"),
+        is(new UserAgent("Firefox", "4", "0b1", null)));
+    assertThat(matcher.match("Mozilla/5.0 Firefox/"), is(new UserAgent("Firefox", "", null, null)));
+    // the name has to follow something for the version to be read
+    assertThat(matcher.match("Firefox/3.5"), is(new UserAgent("Firefox", null, null, null)));
+    assertThat(matcher.match("Mozilla/5.0 Chrome/10.0"), is(nullValue()));
+  }
+
+  @Test
+  public void testRequireExclude() {
+    UAStringMatcher matcher =
+        new UAStringMatcher("safari", "version/,mobile", "chrome", "Mobile Safari", "-");
+    assertThat(matcher.match("Version/5.1 Mobile Safari-7534.48"),
+        is(new UserAgent("Mobile Safari", "7534", "48", null)));
+    assertThat(matcher.match("Version/5.1 Safari-7534.48"), is(nullValue()));
+    assertThat(matcher.match("Version/5.1 Mobile Safari Chrome/18"), is(nullValue()));
+  }
+
+  @Test
+  public void testSpider() {
+    UAStringMatcher matcher = new UAStringMatcher("googlebot|slurp", null, null, "spider", null);
+    assertThat(matcher.match("Mozilla/5.0 (compatible; Yahoo! Slurp/3.0)"),
+        is(new UserAgent("spider", "slurp", null, null)));
+    assertThat(matcher.match(""), is(new UserAgent("spider", null, null, null)));
+  }
+
+  @Test
+  public void testAlongsideOtherMatchers() {
+    UAMatcher custom = new UAMatcher() {
+      @Override
+      public UserAgent match(String agentString) {
+        return agentString.startsWith("Custom") ? new UserAgent("Custom", null, null, null) : null;
+      }
+    };
+    UserAgentParser parser = new UserAgentParser(Arrays.<UAMatcher>asList(
+        new UAStringMatcher("firefox", null, null, "Firefox", null), custom));
+    assertThat(parser.parse("Custom agent").family, is("Custom"));
+    assertThat(parser.parse("Mozilla/5.0 Firefox/3.5").family, is("Firefox"));
+    assertThat(parser.parse("Mozilla/5.0").family, is("Other"));
+  }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright 2012 Twitter, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ua_parser;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.yaml.snakeyaml.Yaml;
+
+/**
+ * Every distinct user agent string of test.uas and the test_resources yamls, plus a few edge cases,
+ * for tests checking an optimized path against the reference one
+ */
+class UserAgentCorpus {
+  static final String TEST_RESOURCE_PATH = "/ua_parser/";
+  static final String[] YAMLS = {
+      "test_user_agent_parser.yaml", "test_user_agent_parser_os.yaml", "test_device.yaml",
+      "additional_os_tests.yaml", "firefox_user_agent_strings.yaml", "pgts_browser_list.yaml"
+  };
+
+  static List<String> all() throws IOException {
+    Set<String> agents = new LinkedHashSet<String>();
+    agents.add("");
+    agents.add(" ");
+    agents.add("İPHONE Version/5.1 MSIE 8.0");
+    agents.add("Mozilla/5.0 (😀; iPhone) Safari/1");
+    agents.addAll(uas());
+    for (String yaml : YAMLS) {
+      agents.addAll(yaml(yaml));
+    }
+    return new ArrayList<String>(agents);
+  }
+
+  static List<String> uas() throws IOException {
+    InputStream in = UserAgentCorpus.class.getResourceAsStream(TEST_RESOURCE_PATH + "test.uas");
+    List<String> agents = new ArrayList<String>();
+    try {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] split = line.split("\t");
+        if (split.length >= 2) {
+          agents.add(split[1].trim());
+        }
+      }
+    } finally {
+      in.close();
+    }
+    return agents;
+  }
+
+  static List<String> yaml(String filename) {
+    InputStream in = UserAgentCorpus.class.getResourceAsStream(TEST_RESOURCE_PATH + filename);
+    List<Map> testCases = (List<Map>) ((Map) new Yaml().load(in)).get("test_cases");
+    List<String> agents = new ArrayList<String>();
+    for (Map testCase : testCases) {
+      Object agent = testCase.get("user_agent_string");
+      if (agent != null) {
+        agents.add(agent.toString());
+      }
+    }
+    return agents;
+  }
+}